@@ -0,0 +1,229 @@
+package automata;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import theory.characters.CharFunc;
+import theory.characters.CharPred;
+import transducers.sft.SFT;
+
+/*
+ * Evaluates a deterministic SFT on a UTF-8 file of newline-delimited examples, each either an input or an input and
+ * its expected output separated by a tab. The file is memory-mapped and split into ranges of whole lines that are
+ * run in parallel on a CompiledSFT, so the outputs are those of SFTOperations.getOutputString
+ */
+public class BatchEvaluator {
+
+	private static final int MAX_RANGE_SIZE = 1 << 30; 		// a single mapping is limited to 2GB
+	private static final int RANGES_PER_THREAD = 4;
+	private static final char SEPARATOR = '\t';
+
+	/* Counts over all lines, and the first mismatches in file order */
+	public static class Result {
+		public long lines;
+		public long accepted; 		// every character has a transition and the run ends in a final state
+		public long rejected;
+		public long matched; 		// output equal to the expected output
+		public long mismatched;
+		public List<Diff> diffs = new ArrayList<Diff>();
+
+		@Override
+		public String toString() {
+			return String.format("lines: %d, accepted: %d, rejected: %d, matched: %d, mismatched: %d",
+					lines, accepted, rejected, matched, mismatched);
+		}
+	}
+
+	public static class Diff {
+		public long line; 		// 0-based
+		public String input;
+		public String expected;
+		public String actual;
+
+		@Override
+		public String toString() {
+			return String.format("%d: %s -> %s, expected %s", line, input, actual, expected);
+		}
+	}
+
+	public static Result evaluate(SFT<CharPred, CharFunc, Character> sft, Path file, int numThreads,
+			int maxDiffs) throws IOException {
+		CompiledSFT compiled = new CompiledSFT(sft);
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long[] bounds = splitLines(channel, Math.max(1, numThreads) * RANGES_PER_THREAD);
+			int numRanges = bounds.length - 1;
+
+			ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, numRanges)));
+			try {
+				List<Future<Result>> futures = new ArrayList<Future<Result>>();
+				for (int r = 0; r < numRanges; r++) {
+					MappedByteBuffer range = channel.map(FileChannel.MapMode.READ_ONLY, bounds[r], bounds[r + 1] - bounds[r]);
+					Callable<Result> call = () -> evaluateRange(compiled, range, maxDiffs);
+					futures.add(executor.submit(call));
+				}
+
+				/* merge in file order, renumbering the lines of the diffs */
+				Result result = new Result();
+				for (Future<Result> future : futures) {
+					Result rangeResult = future.get();
+
+					for (Diff diff : rangeResult.diffs) {
+						if (result.diffs.size() == maxDiffs) break;
+						diff.line += result.lines;
+						result.diffs.add(diff);
+					}
+
+					result.lines += rangeResult.lines;
+					result.accepted += rangeResult.accepted;
+					result.rejected += rangeResult.rejected;
+					result.matched += rangeResult.matched;
+					result.mismatched += rangeResult.mismatched;
+				}
+
+				return result;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				throw new IOException(e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/*
+	 * Boundaries of about numRanges ranges of the file, each starting at the beginning of a line and smaller than
+	 * a mapping can be (a single line longer than that is not supported)
+	 */
+	static long[] splitLines(FileChannel channel, int numRanges) throws IOException {
+		long size = channel.size();
+		long rangeSize = Math.max(1, Math.min(MAX_RANGE_SIZE, (size + numRanges - 1) / numRanges));
+
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+
+		ByteBuffer block = ByteBuffer.allocate(4096);
+		long start = 0;
+		while (start < size) {
+			long end = start + rangeSize;
+
+			/* move end past the next newline */
+			boolean found = false;
+			while (end < size && !found) {
+				block.clear();
+				int read = channel.read(block, end);
+				for (int i = 0; i < read && !found; i++) {
+					if (block.get(i) == '\n') {
+						end += i + 1;
+						found = true;
+					}
+				}
+				if (!found) end += read;
+			}
+
+			end = Math.min(end, size);
+			if (end - start > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Line at offset " + start + " is too long");
+			}
+			bounds.add(end);
+			start = end;
+		}
+
+		long[] res = new long[bounds.size()];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = bounds.get(i);
+		}
+		return res;
+	}
+
+	/* Evaluates the lines of one range, numbered from 0 */
+	static Result evaluateRange(CompiledSFT compiled, ByteBuffer range, int maxDiffs) throws CharacterCodingException {
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		Result result = new Result();
+		StringBuilder output = new StringBuilder();
+
+		while (range.hasRemaining()) {
+			/* bytes of the next line, without the newline */
+			int start = range.position();
+			int end = start;
+			while (end < range.limit() && range.get(end) != '\n') {
+				end++;
+			}
+			int next = (end < range.limit()) ? end + 1 : end;
+			if (end > start && range.get(end - 1) == '\r') end--;
+
+			ByteBuffer lineBytes = range.duplicate();
+			lineBytes.position(start).limit(end);
+			CharBuffer line = decoder.decode(lineBytes);
+			range.position(next);
+
+			/* split off the expected output */
+			int separator = -1;
+			for (int i = 0; i < line.length() && separator == -1; i++) {
+				if (line.charAt(i) == SEPARATOR) separator = i;
+			}
+			CharSequence input = (separator == -1) ? line : line.subSequence(0, separator);
+
+			output.setLength(0);
+			int state = compiled.run(input, output);
+			if (compiled.isFinal(state)) {
+				result.accepted++;
+			} else {
+				result.rejected++;
+			}
+
+			if (separator != -1) {
+				CharSequence expected = line.subSequence(separator + 1, line.length());
+				if (sameChars(output, expected)) {
+					result.matched++;
+				} else {
+					result.mismatched++;
+
+					if (result.diffs.size() < maxDiffs) {
+						Diff diff = new Diff();
+						diff.line = result.lines;
+						diff.input = input.toString();
+						diff.expected = expected.toString();
+						diff.actual = output.toString();
+						result.diffs.add(diff);
+					}
+				}
+			}
+
+			result.lines++;
+		}
+
+		return result;
+	}
+
+	private static boolean sameChars(CharSequence s1, CharSequence s2) {
+		if (s1.length() != s2.length()) return false;
+
+		for (int i = 0; i < s1.length(); i++) {
+			if (s1.charAt(i) != s2.charAt(i)) return false;
+		}
+		return true;
+	}
+
+}
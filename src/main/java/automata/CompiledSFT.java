@@ -0,0 +1,337 @@
+package automata;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import theory.characters.CharConstant;
+import theory.characters.CharFunc;
+import theory.characters.CharOffset;
+import theory.characters.CharPred;
+import transducers.sft.SFT;
+import transducers.sft.SFTInputMove;
+
+/*
+ * A deterministic SFT compiled for running on strings: the guards of each state are flattened into sorted,
+ * disjoint intervals that are binary searched (with a direct table for ASCII), and the output functions
+ * into constant, offset or general actions. Behaves like SFTOperations.getOutputString, i.e., characters
+ * without a transition are skipped
+ */
+public class CompiledSFT {
+
+	private static final int ASCII = 128;
+	private static final int CHUNK_SIZE = 8192;
+
+	/* Kinds of output actions */
+	private static final byte CONSTANT = 0;
+	private static final byte OFFSET = 1;
+	private static final byte GENERIC = 2;
+
+	private int initialState;
+	private HashMap<Integer, Integer> stateIds; 		// states of the SFT renumbered 0, ..., n - 1
+	private boolean[] finalStates;
+
+	/* Guards: the intervals of state q are intervalOffsets[q] .. intervalOffsets[q + 1] - 1, sorted by lows */
+	private int[] intervalOffsets;
+	private char[] lows;
+	private char[] highs;
+	private int[] intervalMoves;
+	private int[] asciiTable; 			// asciiTable[q * ASCII + c] is the move from q reading c < ASCII, or -1
+
+	/* Moves: the actions of move m are actionOffsets[m] .. actionOffsets[m + 1] - 1 */
+	private List<SFTInputMove<CharPred, CharFunc, Character>> moves;
+	private int[] moveTargets;
+	private int[] actionOffsets;
+	private byte[] actionKinds;
+	private long[] actionArgs; 			// constant character or offset
+	private CharFunc[] actionFuncs;
+
+	public CompiledSFT(SFT<CharPred, CharFunc, Character> sft) {
+		/* Number the states */
+		stateIds = new HashMap<Integer, Integer>();
+		for (Integer state : sft.getStates()) {
+			stateIds.put(state, stateIds.size());
+		}
+		initialState = stateIds.get(sft.getInitialState());
+		int numStates = stateIds.size();
+
+		finalStates = new boolean[numStates];
+		for (Integer state : sft.getFinalStates()) {
+			finalStates[stateIds.get(state)] = true;
+		}
+
+		/* Collect the moves and their intervals, state by state */
+		moves = new ArrayList<SFTInputMove<CharPred, CharFunc, Character>>();
+		List<int[]> intervals = new ArrayList<int[]>(); 	// (low, high, move)
+		intervalOffsets = new int[numStates + 1];
+
+		for (Integer state : sft.getStates()) {
+			int q = stateIds.get(state);
+			List<int[]> stateIntervals = new ArrayList<int[]>();
+
+			for (SFTInputMove<CharPred, CharFunc, Character> transition : sft.getInputMovesFrom(state)) {
+				int m = moves.size();
+				moves.add(transition);
+				for (ImmutablePair<Character, Character> interval : transition.guard.intervals) {
+					stateIntervals.add(new int[] { interval.left, interval.right, m });
+				}
+			}
+
+			Collections.sort(stateIntervals, new Comparator<int[]>() {
+				@Override
+				public int compare(int[] i1, int[] i2) {
+					return Integer.compare(i1[0], i2[0]);
+				}
+			});
+			for (int i = 1; i < stateIntervals.size(); i++) {
+				if (stateIntervals.get(i)[0] <= stateIntervals.get(i - 1)[1]) {
+					throw new IllegalArgumentException("SFT is not deterministic in state " + state);
+				}
+			}
+
+			intervals.addAll(stateIntervals);
+			intervalOffsets[q + 1] = intervals.size();
+		}
+
+		lows = new char[intervals.size()];
+		highs = new char[intervals.size()];
+		intervalMoves = new int[intervals.size()];
+		for (int i = 0; i < intervals.size(); i++) {
+			lows[i] = (char) intervals.get(i)[0];
+			highs[i] = (char) intervals.get(i)[1];
+			intervalMoves[i] = intervals.get(i)[2];
+		}
+
+		asciiTable = new int[numStates * ASCII];
+		Arrays.fill(asciiTable, -1);
+		for (int q = 0; q < numStates; q++) {
+			for (int i = intervalOffsets[q]; i < intervalOffsets[q + 1] && lows[i] < ASCII; i++) {
+				for (int c = lows[i]; c <= highs[i] && c < ASCII; c++) {
+					asciiTable[q * ASCII + c] = intervalMoves[i];
+				}
+			}
+		}
+
+		/* Targets and output actions of the moves */
+		int numMoves = moves.size();
+		moveTargets = new int[numMoves];
+		actionOffsets = new int[numMoves + 1];
+		List<CharFunc> funcs = new ArrayList<CharFunc>();
+		for (int m = 0; m < numMoves; m++) {
+			SFTInputMove<CharPred, CharFunc, Character> transition = moves.get(m);
+			moveTargets[m] = stateIds.get(transition.to);
+
+			for (CharFunc f : transition.outputFunctions) {
+				if (f != null) {
+					funcs.add(f);
+				}
+			}
+			actionOffsets[m + 1] = funcs.size();
+		}
+
+		actionKinds = new byte[funcs.size()];
+		actionArgs = new long[funcs.size()];
+		actionFuncs = new CharFunc[funcs.size()];
+		for (int j = 0; j < funcs.size(); j++) {
+			CharFunc f = funcs.get(j);
+			if (f instanceof CharConstant) {
+				actionKinds[j] = CONSTANT;
+				actionArgs[j] = ((CharConstant) f).c;
+			} else if (f instanceof CharOffset) {
+				actionKinds[j] = OFFSET;
+				actionArgs[j] = ((CharOffset) f).increment;
+			} else {
+				actionKinds[j] = GENERIC;
+				actionFuncs[j] = f;
+			}
+		}
+	}
+
+	/* Move from state q reading c, or -1 if there is none */
+	private int getMove(int q, char c) {
+		if (c < ASCII) {
+			return asciiTable[q * ASCII + c];
+		}
+
+		/* last interval with low <= c */
+		int lo = intervalOffsets[q];
+		int hi = intervalOffsets[q + 1] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (lows[mid] <= c) {
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+
+		if (hi >= intervalOffsets[q] && c <= highs[hi]) {
+			return intervalMoves[hi];
+		}
+		return -1;
+	}
+
+	/* Appends the output of the SFT on input to out, and returns out */
+	public StringBuilder apply(CharSequence input, StringBuilder out) {
+		apply(initialState, input, out);
+		return out;
+	}
+
+	public String apply(CharSequence input) {
+		return apply(input, new StringBuilder()).toString();
+	}
+
+	/* 
+	 * Runs the SFT from state q (a state id, see getInitialStateId) on input and appends the output to out. Returns 
+	 * the state reached, so that a long input can be fed in chunks
+	 */
+	public int apply(int q, CharSequence input, StringBuilder out) {
+		for (int i = 0; i < input.length(); i++) {
+			char c = input.charAt(i);
+			int m = getMove(q, c);
+			if (m == -1) continue;
+
+			appendOutputs(m, c, out);
+			q = moveTargets[m];
+		}
+
+		return q;
+	}
+
+	/* 
+	 * Like apply, but returns the state reached, or -1 if some character of input had no transition (the output 
+	 * is still that of apply)
+	 */
+	public int run(CharSequence input, StringBuilder out) {
+		return run(input, out, null);
+	}
+
+	/* Like run, and also sets the ids of the transitions taken in taken, if it is not null */
+	public int run(CharSequence input, StringBuilder out, BitSet taken) {
+		int q = initialState;
+		boolean stuck = false;
+
+		for (int i = 0; i < input.length(); i++) {
+			char c = input.charAt(i);
+			int m = getMove(q, c);
+			if (m == -1) {
+				stuck = true;
+				continue;
+			}
+
+			appendOutputs(m, c, out);
+			if (taken != null) taken.set(m);
+			q = moveTargets[m];
+		}
+
+		return stuck ? -1 : q;
+	}
+
+	/* True if the state with id q is final */
+	public boolean isFinal(int q) {
+		return q >= 0 && finalStates[q];
+	}
+
+	/* 
+	 * Runs the SFT from state q on the remaining characters of in, writing the output to out. Stops early, with 
+	 * in positioned after the last character consumed, if out has no room for the output of the next character
+	 */
+	public int apply(int q, CharBuffer in, CharBuffer out) {
+		while (in.hasRemaining()) {
+			char c = in.get(in.position());
+			int m = getMove(q, c);
+
+			if (m != -1) {
+				if (out.remaining() < actionOffsets[m + 1] - actionOffsets[m]) break;
+
+				for (int j = actionOffsets[m]; j < actionOffsets[m + 1]; j++) {
+					out.put(applyAction(j, c));
+				}
+				q = moveTargets[m];
+			}
+			in.position(in.position() + 1);
+		}
+
+		return q;
+	}
+
+	/* Runs the SFT on all of in and writes the output to out, reading and writing a chunk at a time */
+	public void apply(Reader in, Writer out) throws IOException {
+		char[] chunk = new char[CHUNK_SIZE];
+		CharBuffer input = CharBuffer.wrap(chunk);
+		StringBuilder output = new StringBuilder();
+		int q = initialState;
+
+		int read;
+		while ((read = in.read(chunk)) != -1) {
+			input.limit(read);
+			q = apply(q, input, output);
+
+			out.append(output);
+			output.setLength(0);
+		}
+		out.flush();
+	}
+
+	private void appendOutputs(int m, char c, StringBuilder out) {
+		for (int j = actionOffsets[m]; j < actionOffsets[m + 1]; j++) {
+			out.append(applyAction(j, c));
+		}
+	}
+
+	private char applyAction(int j, char c) {
+		switch (actionKinds[j]) {
+		case CONSTANT:
+			return (char) actionArgs[j];
+		case OFFSET:
+			return (char) (c + actionArgs[j]);
+		default:
+			return actionFuncs[j].instantiateWith(c);
+		}
+	}
+
+	public int getInitialStateId() {
+		return initialState;
+	}
+
+	/* Transitions taken on input, in order, like SFTOperations.getTransitionsTaken */
+	public List<SFTInputMove<CharPred, CharFunc, Character>> getTransitionsTaken(CharSequence input) {
+		List<SFTInputMove<CharPred, CharFunc, Character>> transitionsTaken = new ArrayList<SFTInputMove<CharPred, CharFunc, Character>>();
+		int q = initialState;
+
+		for (int i = 0; i < input.length(); i++) {
+			int m = getMove(q, input.charAt(i));
+			if (m == -1) continue;
+
+			transitionsTaken.add(moves.get(m));
+			q = moveTargets[m];
+		}
+
+		return transitionsTaken;
+	}
+
+	/* Transition with id m, ids are 0, ..., getTransitionCount() - 1 */
+	public SFTInputMove<CharPred, CharFunc, Character> getTransition(int m) {
+		return moves.get(m);
+	}
+
+	public int getTransitionCount() {
+		return moves.size();
+	}
+
+	public Collection<Integer> getStates() {
+		return stateIds.keySet();
+	}
+
+}
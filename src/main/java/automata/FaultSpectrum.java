@@ -0,0 +1,138 @@
+package automata;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import theory.characters.CharFunc;
+import theory.characters.CharPred;
+import transducers.sft.SFTInputMove;
+import utilities.Pair;
+
+/*
+ * Spectrum of a deterministic SFT on a set of examples: for each transition, the number of passing and failing
+ * examples whose run takes it. The examples are run in parallel on the common fork-join pool
+ */
+public class FaultSpectrum {
+
+	private static final int CHUNK_SIZE = 256; 		// examples per task
+
+	private CompiledSFT aut;
+	private int[] passed; 		// passed[m] is the number of passing examples that take transition m
+	private int[] failed;
+	private int totalPassed;
+	private int totalFailed;
+
+	private FaultSpectrum(CompiledSFT aut) {
+		this.aut = aut;
+		this.passed = new int[aut.getTransitionCount()];
+		this.failed = new int[aut.getTransitionCount()];
+	}
+
+	public static FaultSpectrum mkFaultSpectrum(CompiledSFT aut, List<Pair<String, String>> examples) {
+		int numChunks = (examples.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+		return IntStream.range(0, numChunks).parallel()
+				.mapToObj(chunk -> mkFaultSpectrum(aut, examples, chunk * CHUNK_SIZE, Math.min(examples.size(), (chunk + 1) * CHUNK_SIZE)))
+				.reduce(new FaultSpectrum(aut), FaultSpectrum::merge);
+	}
+
+	/* Spectrum of examples from, ..., to - 1, run in a single pass each */
+	private static FaultSpectrum mkFaultSpectrum(CompiledSFT aut, List<Pair<String, String>> examples, int from, int to) {
+		FaultSpectrum spectrum = new FaultSpectrum(aut);
+		BitSet taken = new BitSet(aut.getTransitionCount());
+		StringBuilder output = new StringBuilder();
+
+		for (int i = from; i < to; i++) {
+			Pair<String, String> example = examples.get(i);
+			taken.clear();
+			output.setLength(0);
+			aut.run(example.first, output, taken);
+
+			boolean pass = example.second.contentEquals(output);
+			int[] counts = pass ? spectrum.passed : spectrum.failed;
+			for (int m = taken.nextSetBit(0); m >= 0; m = taken.nextSetBit(m + 1)) {
+				counts[m]++;
+			}
+
+			if (pass) {
+				spectrum.totalPassed++;
+			} else {
+				spectrum.totalFailed++;
+			}
+		}
+
+		return spectrum;
+	}
+
+	private static FaultSpectrum merge(FaultSpectrum s1, FaultSpectrum s2) {
+		FaultSpectrum res = new FaultSpectrum(s1.aut);
+
+		for (int m = 0; m < res.passed.length; m++) {
+			res.passed[m] = s1.passed[m] + s2.passed[m];
+			res.failed[m] = s1.failed[m] + s2.failed[m];
+		}
+		res.totalPassed = s1.totalPassed + s2.totalPassed;
+		res.totalFailed = s1.totalFailed + s2.totalFailed;
+
+		return res;
+	}
+
+	/* Transitions taken by some failing example but by no passing example */
+	public Collection<SFTInputMove<CharPred, CharFunc, Character>> getBadTransitions() {
+		Collection<SFTInputMove<CharPred, CharFunc, Character>> badTransitions = new HashSet<SFTInputMove<CharPred, CharFunc, Character>>();
+
+		for (int m = 0; m < failed.length; m++) {
+			if (failed[m] > 0 && passed[m] == 0) {
+				badTransitions.add(aut.getTransition(m));
+			}
+		}
+
+		return badTransitions;
+	}
+
+	/* Ochiai suspiciousness of transition m: failed(m) / sqrt(totalFailed * (failed(m) + passed(m))) */
+	public double ochiai(int m) {
+		double denominator = Math.sqrt((double) totalFailed * (failed[m] + passed[m]));
+
+		return (denominator == 0) ? 0 : failed[m] / denominator;
+	}
+
+	/* Ochiai suspiciousness of every transition, most suspicious first */
+	public Map<SFTInputMove<CharPred, CharFunc, Character>, Double> getScores() {
+		List<Integer> order = new ArrayList<Integer>();
+		for (int m = 0; m < failed.length; m++) {
+			order.add(m);
+		}
+		order.sort((m1, m2) -> Double.compare(ochiai(m2), ochiai(m1)));
+
+		Map<SFTInputMove<CharPred, CharFunc, Character>, Double> scores = new LinkedHashMap<SFTInputMove<CharPred, CharFunc, Character>, Double>();
+		for (Integer m : order) {
+			scores.put(aut.getTransition(m), ochiai(m));
+		}
+
+		return scores;
+	}
+
+	public int getPassed(int m) {
+		return passed[m];
+	}
+
+	public int getFailed(int m) {
+		return failed[m];
+	}
+
+	public int getTotalPassed() {
+		return totalPassed;
+	}
+
+	public int getTotalFailed() {
+		return totalFailed;
+	}
+
+}
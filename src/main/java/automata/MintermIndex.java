@@ -0,0 +1,232 @@
+package automata;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.sat4j.specs.TimeoutException;
+
+import theory.BooleanAlgebra;
+import theory.characters.CharPred;
+import utilities.Pair;
+
+/*
+ * Index of a set of disjoint minterms, as produced by SFA.MkFiniteSFA (id -> (minterm, signature)), for finding the
+ * minterm of a character: the intervals of the minterms are sorted and binary searched, with a direct table for ASCII
+ */
+public class MintermIndex {
+
+	private static final int ASCII = 128;
+
+	/* 
+	 * Indexes of the maps looked up with of(), by identity of the map. The keys are weak, so an index goes away with 
+	 * its map, and the maps must not be modified once they are indexed 
+	 */
+	private static final Map<MapKey, MintermIndex> indexes = new ConcurrentHashMap<MapKey, MintermIndex>();
+	private static final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+	/* Weak reference to a map, compared by identity */
+	private static class MapKey extends WeakReference<Object> {
+		private final int hash;
+
+		MapKey(Object map, ReferenceQueue<Object> queue) {
+			super(map, queue);
+			this.hash = System.identityHashCode(map);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof MapKey)) return false;
+
+			Object map = get();
+			return map != null && map == ((MapKey) o).get();
+		}
+	}
+
+	private List<CharPred> ids;
+	private List<Pair<CharPred, ArrayList<Integer>>> minterms;
+	private Character[] witnesses; 		// witnesses of the ids, computed on demand
+
+	/* Intervals sorted by lows, intervalMinterms[i] is the minterm containing interval i */
+	private char[] lows;
+	private char[] highs;
+	private int[] intervalMinterms;
+	private int[] asciiTable; 			// minterm of each character < ASCII, or -1
+
+	public MintermIndex(Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm) {
+		ids = new ArrayList<CharPred>();
+		minterms = new ArrayList<Pair<CharPred, ArrayList<Integer>>>();
+		for (Map.Entry<CharPred, Pair<CharPred, ArrayList<Integer>>> entry : idToMinterm.entrySet()) {
+			ids.add(entry.getKey());
+			minterms.add(entry.getValue());
+		}
+
+		mkIntervals();
+	}
+
+	/* Index of minterms, in the given order, with their ids in mintermToId */
+	public MintermIndex(Collection<Pair<CharPred, ArrayList<Integer>>> minterms, 
+			Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId) {
+		this.ids = new ArrayList<CharPred>();
+		this.minterms = new ArrayList<Pair<CharPred, ArrayList<Integer>>>(minterms);
+		for (Pair<CharPred, ArrayList<Integer>> minterm : minterms) {
+			ids.add(mintermToId.get(minterm));
+		}
+
+		mkIntervals();
+	}
+
+	private void mkIntervals() {
+		witnesses = new Character[ids.size()];
+
+		List<int[]> intervals = new ArrayList<int[]>(); 	// (low, high, minterm)
+		for (int k = 0; k < minterms.size(); k++) {
+			for (ImmutablePair<Character, Character> interval : minterms.get(k).first.intervals) {
+				intervals.add(new int[] { interval.left, interval.right, k });
+			}
+		}
+
+		Collections.sort(intervals, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] i1, int[] i2) {
+				return Integer.compare(i1[0], i2[0]);
+			}
+		});
+
+		lows = new char[intervals.size()];
+		highs = new char[intervals.size()];
+		intervalMinterms = new int[intervals.size()];
+		for (int i = 0; i < intervals.size(); i++) {
+			lows[i] = (char) intervals.get(i)[0];
+			highs[i] = (char) intervals.get(i)[1];
+			intervalMinterms[i] = intervals.get(i)[2];
+		}
+
+		asciiTable = new int[ASCII];
+		Arrays.fill(asciiTable, -1);
+		for (int i = 0; i < lows.length && lows[i] < ASCII; i++) {
+			for (int c = lows[i]; c <= highs[i] && c < ASCII; c++) {
+				asciiTable[c] = intervalMinterms[i];
+			}
+		}
+	}
+
+	/* 
+	 * Index of idToMinterm, built on the first lookup of the map. Callers that own the map should rather build 
+	 * the index once and keep it (e.g., FinitizationCache.Finitization) 
+	 */
+	public static MintermIndex of(Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm) {
+		/* drop the indexes of collected maps */
+		for (Reference<?> key = collected.poll(); key != null; key = collected.poll()) {
+			indexes.remove(key);
+		}
+
+		MintermIndex index = indexes.get(new MapKey(idToMinterm, null));
+		if (index == null) {
+			index = new MintermIndex(idToMinterm);
+			MintermIndex previous = indexes.putIfAbsent(new MapKey(idToMinterm, collected), index);
+			if (previous != null) index = previous;
+		}
+
+		return index;
+	}
+
+	/* Position of the minterm satisfied by c, or -1 if there is none */
+	private int indexOf(char c) {
+		if (c < ASCII) {
+			return asciiTable[c];
+		}
+
+		/* last interval with low <= c */
+		int lo = 0;
+		int hi = lows.length - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (lows[mid] <= c) {
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+
+		return (hi >= 0 && c <= highs[hi]) ? intervalMinterms[hi] : -1;
+	}
+
+	/* Minterm satisfied by c, or null if there is none */
+	public Pair<CharPred, ArrayList<Integer>> findSatisfyingMinterm(char c) {
+		int k = indexOf(c);
+
+		return (k == -1) ? null : minterms.get(k);
+	}
+
+	/* Id of the minterm satisfied by c, or null if there is none */
+	public CharPred findId(char c) {
+		int k = indexOf(c);
+
+		return (k == -1) ? null : ids.get(k);
+	}
+
+	/* Witness of the id of the minterm satisfied by c, or null if there is none */
+	public Character findWitness(char c, BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
+		int k = indexOf(c);
+		if (k == -1) return null;
+
+		if (witnesses[k] == null) {
+			witnesses[k] = ba.generateWitness(ids.get(k));
+		}
+		return witnesses[k];
+	}
+
+	/* 
+	 * Minterms that intersect pred, in the order of the index, i.e., those m for which pred and m is satisfiable. 
+	 * The minterms are disjoint, so their intervals are sorted by both ends 
+	 */
+	public List<Pair<CharPred, ArrayList<Integer>>> findIntersectingMinterms(CharPred pred) {
+		BitSet found = new BitSet(minterms.size());
+
+		for (ImmutablePair<Character, Character> interval : pred.intervals) {
+			/* first interval with high >= interval.left */
+			int lo = 0;
+			int hi = highs.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (highs[mid] < interval.left) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+
+			for (int i = lo; i < lows.length && lows[i] <= interval.right; i++) {
+				found.set(intervalMinterms[i]);
+			}
+		}
+
+		List<Pair<CharPred, ArrayList<Integer>>> res = new ArrayList<Pair<CharPred, ArrayList<Integer>>>();
+		for (int k = found.nextSetBit(0); k >= 0; k = found.nextSetBit(k + 1)) {
+			res.add(minterms.get(k));
+		}
+		return res;
+	}
+
+	public int size() {
+		return ids.size();
+	}
+
+}
@@ -0,0 +1,95 @@
+/**
+ *
+ */
+package automata;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author anvaygrover
+ *
+ * Helpers for the packed (CSR-style) transition arrays of FSA and FST: the transitions are sorted by a key
+ * (the source or target state) and offsets[k] .. offsets[k + 1] - 1 are the positions of the transitions with key k
+ */
+public class PackedIndex {
+
+	/* The dense table has at most TABLE_RATIO entries per transition or state, so it stays within a constant factor of the packed arrays */
+	public static final int TABLE_RATIO = 4;
+
+	/**
+	 * Offsets of the keys 0, ..., numKeys - 1 in the sorted order, numKeys + 1 entries
+	 */
+	public static int[] offsets(int[] keys, int numKeys) {
+		int[] offsets = new int[numKeys + 1];
+
+		for (int key : keys) {
+			offsets[key + 1]++;
+		}
+		for (int k = 0; k < numKeys; k++) {
+			offsets[k + 1] += offsets[k];
+		}
+
+		return offsets;
+	}
+
+	/**
+	 * Stable counting sort: the i-th position of the sorted order holds the index order[i] of the original element
+	 */
+	public static int[] order(int[] keys, int[] offsets) {
+		int[] next = new int[offsets.length - 1];
+		System.arraycopy(offsets, 0, next, 0, next.length);
+
+		int[] order = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			order[next[keys[i]]++] = i;
+		}
+
+		return order;
+	}
+
+	/**
+	 * Dense transition table: table[q * numSymbols + a] is the first transition from state q reading symbol a, or -1. 
+	 * Returns null if the table would be too large, i.e., the automaton is too sparse
+	 */
+	public static int[] transitionTable(int[] sources, int[] inputIds, int numStates, int numSymbols) {
+		if ((long) numStates * numSymbols > (long) TABLE_RATIO * Math.max(sources.length, numStates)) return null;
+
+		int[] table = new int[numStates * numSymbols];
+		Arrays.fill(table, -1);
+		for (int t = 0; t < sources.length; t++) {
+			int index = sources[t] * numSymbols + inputIds[t];
+			if (table[index] == -1) table[index] = t;
+		}
+
+		return table;
+	}
+
+	/**
+	 * True if no two transitions share their source state and symbol
+	 */
+	public static boolean isDeterministic(int[] table, int numTransitions) {
+		int filled = 0;
+		for (int t : table) {
+			if (t != -1) filled++;
+		}
+
+		return filled == numTransitions;
+	}
+
+	/**
+	 * Id of symbol in the symbol table, adding it if needed
+	 */
+	public static <T> int intern(T symbol, Map<T, Integer> ids, List<T> symbols) {
+		Integer id = ids.get(symbol);
+		if (id == null) {
+			id = symbols.size();
+			ids.put(symbol, id);
+			symbols.add(symbol);
+		}
+
+		return id;
+	}
+
+}
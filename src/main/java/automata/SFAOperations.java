@@ -197,20 +197,17 @@ public class SFAOperations {
 			idToMinterm.put(newPred, minterm);
 		}
 		
+		// Minterms of each predicate, in the order of predicates1
+		List<List<Pair<CharPred, ArrayList<Integer>>>> predicateMinterms = mintermsOfPredicates(minterms, predicates1, mintermToId);
+		
 		// Make new transitions
 		Collection<SFAMove<CharPred, Character>> transitions1 = new ArrayList<SFAMove<CharPred, Character>>();
 		Collection<SFAMove<CharPred, Character>> transitions2 = new ArrayList<SFAMove<CharPred, Character>>();
+		int p = 0;
 		
 		for (Integer state : aut1.getStates()) {
 			for (SFAInputMove<CharPred, Character> transition : aut1.getInputMovesFrom(state)) {
-				for (Pair<CharPred, ArrayList<Integer>> minterm : minterms) {
-					CharPred conj = ba.MkAnd(transition.guard, minterm.first);
-					if (ba.IsSatisfiable(conj)) {
-						SFAInputMove<CharPred, Character> newTransition = (SFAInputMove<CharPred, Character>) transition.clone();
-						newTransition.guard = mintermToId.get(minterm);
-						transitions1.add(newTransition);
-					}
-				}
+				addFiniteTransitions(transition, predicateMinterms.get(p++), mintermToId, transitions1);
 			}
 		}
 		
@@ -218,14 +215,7 @@ public class SFAOperations {
 		
 		for (Integer state : aut2.getStates()) {
 			for (SFAInputMove<CharPred, Character> transition : aut2.getInputMovesFrom(state)) {
-				for (Pair<CharPred, ArrayList<Integer>> minterm : minterms) {
-					CharPred conj = ba.MkAnd(transition.guard, minterm.first);
-					if (ba.IsSatisfiable(conj)) {
-						SFAInputMove<CharPred, Character> newTransition = (SFAInputMove<CharPred, Character>) transition.clone();
-						newTransition.guard = mintermToId.get(minterm);
-						transitions2.add(newTransition);
-					}
-				}
+				addFiniteTransitions(transition, predicateMinterms.get(p++), mintermToId, transitions2);
 			}
 		}
 		
@@ -245,19 +235,13 @@ public class SFAOperations {
 	public static SFA<CharPred, Character> MkFiniteSFA(SFA<CharPred, Character> aut1, 
 			Collection<Pair<CharPred, ArrayList<Integer>>> minterms, 
 			Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId, BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
-		// Make new transitions
+		// Make new transitions, the minterms may come from other predicates so they are intersected with the guards
 		Collection<SFAMove<CharPred, Character>> transitions1 = new ArrayList<SFAMove<CharPred, Character>>();
+		MintermIndex index = new MintermIndex(minterms, mintermToId);
 
 		for (Integer state : aut1.getStates()) {
 			for (SFAInputMove<CharPred, Character> transition : aut1.getInputMovesFrom(state)) {
-				for (Pair<CharPred, ArrayList<Integer>> minterm : minterms) {
-					CharPred conj = ba.MkAnd(transition.guard, minterm.first);
-					if (ba.IsSatisfiable(conj)) {
-						SFAInputMove<CharPred, Character> newTransition = (SFAInputMove<CharPred, Character>) transition.clone();
-						newTransition.guard = mintermToId.get(minterm);
-						transitions1.add(newTransition);
-					}
-				}
+				addFiniteTransitions(transition, index.findIntersectingMinterms(transition.guard), mintermToId, transitions1);
 			}
 		}
 
@@ -266,6 +250,48 @@ public class SFAOperations {
 		return finAut1;
 	}
 	
+	/* 
+	 * Minterms of each of the predicates that the minterms were computed from, read off their signatures: bit p of 
+	 * a signature is 1 iff the minterm is contained in predicate p. Falls back to intersecting the intervals if the 
+	 * signatures do not match the predicates
+	 */
+	static List<List<Pair<CharPred, ArrayList<Integer>>>> mintermsOfPredicates(Collection<Pair<CharPred, ArrayList<Integer>>> minterms, 
+			List<CharPred> predicates, Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId) {
+		List<List<Pair<CharPred, ArrayList<Integer>>>> predicateMinterms = new ArrayList<List<Pair<CharPred, ArrayList<Integer>>>>();
+		for (int p = 0; p < predicates.size(); p++) {
+			predicateMinterms.add(new ArrayList<Pair<CharPred, ArrayList<Integer>>>());
+		}
+		
+		for (Pair<CharPred, ArrayList<Integer>> minterm : minterms) {
+			if (minterm.second.size() != predicates.size()) {
+				MintermIndex index = new MintermIndex(minterms, mintermToId);
+				for (int p = 0; p < predicates.size(); p++) {
+					predicateMinterms.set(p, index.findIntersectingMinterms(predicates.get(p)));
+				}
+				return predicateMinterms;
+			}
+			
+			for (int p = 0; p < predicates.size(); p++) {
+				if (minterm.second.get(p) == 1) {
+					predicateMinterms.get(p).add(minterm);
+				}
+			}
+		}
+		
+		return predicateMinterms;
+	}
+	
+	/* Adds a copy of transition for each of the minterms, guarded by the id of the minterm */
+	@SuppressWarnings("unchecked")
+	private static void addFiniteTransitions(SFAInputMove<CharPred, Character> transition, List<Pair<CharPred, ArrayList<Integer>>> minterms, 
+			Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId, Collection<SFAMove<CharPred, Character>> transitions) {
+		for (Pair<CharPred, ArrayList<Integer>> minterm : minterms) {
+			SFAInputMove<CharPred, Character> newTransition = (SFAInputMove<CharPred, Character>) transition.clone();
+			newTransition.guard = mintermToId.get(minterm);
+			transitions.add(newTransition);
+		}
+	}
+	
 	public static Pair<Map<Pair<CharPred, ArrayList<Integer>>, CharPred>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> 
 	constructMintermMap(Collection<Pair<CharPred, ArrayList<Integer>>> minterms, BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
 		Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId = new HashMap<Pair<CharPred, ArrayList<Integer>>, CharPred>();
@@ -279,10 +305,10 @@ public class SFAOperations {
 		return new Pair<Map<Pair<CharPred, ArrayList<Integer>>, CharPred>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>>(mintermToId, idToMinterm);
 	}
 	
-	/* Calls mintermReduction, implemented in symbolicautomata */
+	/* Same as MkFiniteSFA(aut1, aut2, ba) */
 	public static Triple<SFA<CharPred, Character>, SFA<CharPred, Character>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> 
 	mkFinite(SFA<CharPred, Character> aut1, SFA<CharPred, Character> aut2, BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
-		return SFA.MkFiniteSFA(aut1, aut2, ba);
+		return MkFiniteSFA(aut1, aut2, ba);
 	}
 	
 	
@@ -434,30 +460,21 @@ public class SFAOperations {
 	}
 	
 	public static Pair<CharPred, ArrayList<Integer>> findSatisfyingMinterm(Character c, Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm) throws TimeoutException {
-		for (Map.Entry<CharPred, Pair<CharPred, ArrayList<Integer>>> entry : idToMinterm.entrySet()) {
-			CharPred minterm = entry.getValue().first;
-			
-			if (minterm.isSatisfiedBy(c)) { 	// only 1 minterm should be satisfied, since they are disjoint
-				 return entry.getValue();
-			}
-		}
-		
-		return null;
+		return MintermIndex.of(idToMinterm).findSatisfyingMinterm(c); 	// only 1 minterm should be satisfied, since they are disjoint
 	}
 	
 	/* Reduce each char of string to its corresponding minterm */
 	public static String finitizeStringMinterms(String str, Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm, 
 			BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
+		return finitizeStringMinterms(str, MintermIndex.of(idToMinterm), ba);
+	}
+	
+	public static String finitizeStringMinterms(String str, MintermIndex index, BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
 		StringBuilder newString = new StringBuilder();
 		for (int i = 0; i < str.length(); i++) {
-			char currentChar = str.charAt(i);
-			
-			for (Map.Entry<CharPred, Pair<CharPred, ArrayList<Integer>>> entry : idToMinterm.entrySet()) {
-				CharPred minterm = entry.getValue().first;
-				
-				if (minterm.isSatisfiedBy(currentChar)) { 	// only 1 minterm should be satisfied, since they are disjoint
-					newString.append(ba.generateWitness(entry.getKey())); 	// should only be 1 witness too
-				}
+			Character witness = index.findWitness(str.charAt(i), ba); 	// should only be 1 witness too
+			if (witness != null) {
+				newString.append(witness);
 			}
 		}
 		
@@ -398,23 +398,15 @@ public class SFTOperations {
 	
 	/* Method for locating which transitions need to be repaired */
 	public static Collection<SFTInputMove<CharPred, CharFunc, Character>> localizeFaults(SFT<CharPred, CharFunc, Character> aut, List<Pair<String, String>> examples) throws TimeoutException {
-		Set<SFTInputMove<CharPred, CharFunc, Character>> badTransitions = new HashSet<SFTInputMove<CharPred, CharFunc, Character>>();
-		Set<SFTInputMove<CharPred, CharFunc, Character>> goodTransitions = new HashSet<SFTInputMove<CharPred, CharFunc, Character>>();
-		
-		for (Pair<String, String> example : examples) {
-        	String exampleOutput = SFTOperations.getOutputString(aut, example.first);	// applies to deterministic transducers
-        	List<SFTInputMove<CharPred, CharFunc, Character>> transitionsTaken = SFTOperations.getTransitionsTaken(aut, example.first);
-        	
-        	// Take the difference between the transitions of the buggy inputs and those of the correct inputs
-        	if (!exampleOutput.equals(example.second)) {
-        		badTransitions.addAll(transitionsTaken);
-        	} else {
-        		goodTransitions.addAll(transitionsTaken);
-        	}
-		}
+		// Take the difference between the transitions of the buggy inputs and those of the correct inputs
+		return localizeFaultSpectrum(aut, examples).getBadTransitions();
+	}
+	
+	/* Passing and failing counts of the transitions on the examples, for scoring their suspiciousness */
+	public static FaultSpectrum localizeFaultSpectrum(SFT<CharPred, CharFunc, Character> aut, List<Pair<String, String>> examples) {
+		CompiledSFT compiled = new CompiledSFT(aut); 	// applies to deterministic transducers
 		
-		badTransitions.removeAll(goodTransitions);
-		return badTransitions;
+		return FaultSpectrum.mkFaultSpectrum(compiled, examples);
 	}
 	
 	/* String from List of Chars */
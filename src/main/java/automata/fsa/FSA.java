@@ -1,14 +1,15 @@
 package automata.fsa;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
 import automata.FAutomaton;
+import automata.PackedIndex;
 import automata.fst.FSTMove;
 
 
@@ -24,8 +25,21 @@ public class FSA<P> extends FAutomaton<P> {
 	protected Collection<Integer> states;
 	protected Collection<Integer> finalStates;
 
-	protected Map<Integer, Collection<FSAMove<P>>> inputMovesFrom;
-	protected Map<Integer, Collection<FSAMove<P>>> inputMovesTo;
+	// Moves, packed and sorted by source state: transition t goes from sources[t] to targets[t] reading inputSymbols.get(inputIds[t])
+	protected int[] fromOffsets; 		// transitions from state q are fromOffsets[q] .. fromOffsets[q + 1] - 1
+	protected int[] sources;
+	protected int[] targets;
+	protected int[] inputIds;
+	protected int[] toOffsets; 			// transitions into state q are toTransitions[toOffsets[q] .. toOffsets[q + 1] - 1]
+	protected int[] toTransitions;
+	
+	// Dense table of the transitions by state and input id, built on the first lookup (null if too large)
+	protected int[] transitionTable;
+	protected volatile boolean tableBuilt; 	// written after transitionTable, which publishes it to other threads
+	
+	// Symbol table
+	protected List<P> inputSymbols;
+	protected Map<P, Integer> inputSymbolIds;
 	
 	protected Integer maxStateId;
 	protected Integer transitionCount;
@@ -34,10 +48,9 @@ public class FSA<P> extends FAutomaton<P> {
 		super();
 		this.finalStates = new HashSet<Integer>();
 		this.states = new HashSet<Integer>();
-		inputMovesFrom = new HashMap<Integer, Collection<FSAMove<P>>>();
-		inputMovesTo = new HashMap<Integer, Collection<FSAMove<P>>>();
 		transitionCount = 0;
 		maxStateId = 0;
+		pack(new ArrayList<FSAMove<P>>());
 	}
 	
 	public static <P> FSA<P> MkFSA(Collection<FSAMove<P>> transitions, Integer initialState, 
@@ -52,12 +65,23 @@ public class FSA<P> extends FAutomaton<P> {
 		aut.finalStates = finalStates;
 		
 		for (FSAMove<P> t : transitions)
-			aut.addTransition(t);
+			aut.addState(t);
+		
+		aut.pack(transitions);
 		
 		return aut;
 	}
 	
+	/* Adds one transition, which repacks all of them: use MkFSA to add many transitions */
 	public void addTransition(FSAMove<P> transition) {
+		Collection<FSAMove<P>> transitions = getTransitionsFrom(states);
+		transitions.add(transition);
+		
+		addState(transition);
+		pack(transitions);
+	}
+	
+	private void addState(FSAMove<P> transition) {
 		if (transition.from > maxStateId)
 			maxStateId = transition.from;
 		if (transition.to > maxStateId)
@@ -65,18 +89,74 @@ public class FSA<P> extends FAutomaton<P> {
 
 		states.add(transition.from);
 		states.add(transition.to);
+	}
+	
+	/* Builds the packed arrays from the transitions */
+	private void pack(Collection<FSAMove<P>> transitions) {
+		int numTransitions = transitions.size();
+		int numStates = 0;
+		for (Integer state : states) {
+			numStates = Math.max(numStates, state + 1);
+		}
+		
+		inputSymbols = new ArrayList<P>();
+		inputSymbolIds = new HashMap<P, Integer>();
+		
+		// Transitions in the given order
+		List<FSAMove<P>> moves = new ArrayList<FSAMove<P>>(transitions);
+		int[] from = new int[numTransitions];
+		for (int t = 0; t < numTransitions; t++) {
+			from[t] = moves.get(t).from;
+		}
+		
+		// Sort by source state
+		fromOffsets = PackedIndex.offsets(from, numStates);
+		int[] order = PackedIndex.order(from, fromOffsets);
+		
+		sources = new int[numTransitions];
+		targets = new int[numTransitions];
+		inputIds = new int[numTransitions];
+		for (int t = 0; t < numTransitions; t++) {
+			FSAMove<P> move = moves.get(order[t]);
+			sources[t] = move.from;
+			targets[t] = move.to;
+			inputIds[t] = PackedIndex.intern(move.input, inputSymbolIds, inputSymbols);
+		}
+		
+		// Index of the transitions by target state
+		toOffsets = PackedIndex.offsets(targets, numStates);
+		toTransitions = PackedIndex.order(targets, toOffsets);
 		
-		getInputMovesFrom(transition.from).add((FSAMove<P>) transition);
-		getInputMovesTo(transition.to).add((FSAMove<P>) transition);
-		transitionCount++;
+		transitionCount = numTransitions;
+		transitionTable = null;
+		tableBuilt = false;
+	}
+	
+	/* Builds the transition table, and records whether the FSA is deterministic */
+	private void buildTable() {
+		int[] table = PackedIndex.transitionTable(sources, inputIds, fromOffsets.length - 1, inputSymbols.size());
+		if (table != null) {
+			isDeterministic = PackedIndex.isDeterministic(table, transitionCount);
+		}
+		
+		transitionTable = table;
+		tableBuilt = true;
+	}
+	
+	/* Transition t as a move */
+	protected FSAMove<P> getMove(int t) {
+		return new FSAMove<P>(sources[t], targets[t], inputSymbols.get(inputIds[t]));
 	}
 	
 	public List<Integer> inverseDeltaStates(Integer state, P input) {
 		List<Integer> states = new ArrayList<Integer>();
+		Integer inputId = inputSymbolIds.get(input);
+		if (inputId == null || state < 0 || state + 1 >= toOffsets.length) return states;
 		
-		for (FSAMove<P> transition : getInputMovesTo(state)) {
-			if (transition.input == input) {
-				states.add(transition.from);
+		for (int i = toOffsets[state]; i < toOffsets[state + 1]; i++) {
+			int t = toTransitions[i];
+			if (inputIds[t] == inputId) {
+				states.add(sources[t]);
 			}
 		}
 		
@@ -84,9 +164,18 @@ public class FSA<P> extends FAutomaton<P> {
 	}
 	
 	public Integer getSuccessorState(Integer state, P input) {
-		for (FSAMove<P> transition : getInputMovesFrom(state)) {
-			if (transition.input == input) {
-				return transition.to; 		// assumes disjoint transitions
+		Integer inputId = inputSymbolIds.get(input);
+		if (inputId == null || state < 0 || state + 1 >= fromOffsets.length) return -1;
+		
+		if (!tableBuilt) buildTable();
+		if (transitionTable != null) {
+			int t = transitionTable[state * inputSymbols.size() + inputId];
+			return (t == -1) ? -1 : targets[t]; 	// assumes disjoint transitions
+		}
+		
+		for (int t = fromOffsets[state]; t < fromOffsets[state + 1]; t++) {
+			if (inputIds[t] == inputId) {
+				return targets[t]; 		// assumes disjoint transitions
 			}
 		}
 		
@@ -94,19 +183,16 @@ public class FSA<P> extends FAutomaton<P> {
 	}
 	
 	public List<Integer> getRunOn(List<P> inputs) {
-		List<P> inputsCopy = new ArrayList<P>(inputs);
-		List<Integer> run = new ArrayList<Integer>();
-		Collections.reverse(inputsCopy);
+		Integer[] run = new Integer[inputs.size()];
 		
+		/* the automaton reads the inputs right to left */
 		Integer state = getInitialState();
-		for (P input : inputsCopy) {
-			Integer nextState = this.getSuccessorState(state, input);
-			run.add(nextState);
-			state = nextState;
+		for (int i = inputs.size() - 1; i >= 0; i--) {
+			state = this.getSuccessorState(state, inputs.get(i));
+			run[i] = state;
 		}
 		
-		Collections.reverse(run);
-		return run;
+		return new ArrayList<Integer>(Arrays.asList(run));
 	}
 	
 	public String toDotString() {
@@ -123,7 +209,7 @@ public class FSA<P> extends FAutomaton<P> {
 		}
 		
 		for (Integer state : states) {
-			Collection<FSAMove<P>> transitions = getInputMovesFrom(state);
+			Collection<FSAMove<P>> transitions = getTransitionsFrom(state);
 			for (FSAMove<P> t : transitions) {
 				sb.append(t.toDotString());
 			}
@@ -142,35 +228,27 @@ public class FSA<P> extends FAutomaton<P> {
 	}
 	
 	public Collection<FSAMove<P>> getTransitionsFrom(Integer state) {
-		return getInputMovesFrom(state);
-	}
-	
-	public Collection<FSAMove<P>> getTransitionsTo(Integer state) {
-		return getInputMovesTo(state);
-	}
-
-	private Collection<FSAMove<P>> getInputMovesFrom(Integer state) {
-		Collection<FSAMove<P>> trset = inputMovesFrom.get(state);
-		if (trset == null) {
-			trset = new HashSet<FSAMove<P>>();
-			inputMovesFrom.put(state, trset);
-			return trset;
+		Collection<FSAMove<P>> trset = new ArrayList<FSAMove<P>>();
+		if (state < 0 || state + 1 >= fromOffsets.length) return trset;
+		
+		for (int t = fromOffsets[state]; t < fromOffsets[state + 1]; t++) {
+			trset.add(getMove(t));
 		}
 		return trset;
 	}
 	
-	private Collection<FSAMove<P>> getInputMovesTo(Integer state) {
-		Collection<FSAMove<P>> trset = inputMovesTo.get(state);
-		if (trset == null) {
-			trset = new HashSet<FSAMove<P>>();
-			inputMovesTo.put(state, trset);
-			return trset;
+	public Collection<FSAMove<P>> getTransitionsTo(Integer state) {
+		Collection<FSAMove<P>> trset = new ArrayList<FSAMove<P>>();
+		if (state < 0 || state + 1 >= toOffsets.length) return trset;
+		
+		for (int i = toOffsets[state]; i < toOffsets[state + 1]; i++) {
+			trset.add(getMove(toTransitions[i]));
 		}
 		return trset;
 	}
 	
 	public Collection<FSAMove<P>> getTransitionsFrom(Collection<Integer> states) {
-		Collection<FSAMove<P>> trset = new HashSet<FSAMove<P>>();
+		Collection<FSAMove<P>> trset = new ArrayList<FSAMove<P>>();
 		
 		for (Integer state : states) {
 			trset.addAll(this.getTransitionsFrom(state));
@@ -1,5 +1,7 @@
 package automata.fsa;
 
+import java.util.Objects;
+
 import automata.FMove;
 import automata.fst.FSTMove;
 
@@ -25,17 +27,22 @@ public class FSAMove<P> extends FMove {
 		if (!(obj instanceof FSAMove<?>))
 			return false;
 		
-		FSAMove<P> t = (FSAMove<P>) obj;
+		FSAMove<?> t = (FSAMove<?>) obj;
 		
-		if (t.from != this.from)
+		if (!Objects.equals(t.from, this.from))
 			return false;
 		
-		if (t.to != this.to)
+		if (!Objects.equals(t.to, this.to))
 			return false;
 		
-		if (t.input != this.input)
+		if (!Objects.equals(t.input, this.input))
 			return false;
 		
 		return true;
 	}
+	
+	@Override
+	public int hashCode() {
+		return Objects.hash(from, to, input);
+	}
 }
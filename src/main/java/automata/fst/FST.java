@@ -9,6 +9,7 @@ import java.util.Map;
 import java.util.Set;
 
 import automata.FAutomaton;
+import automata.PackedIndex;
 
 public class FST<P, S> extends FAutomaton<P> {
 	
@@ -18,18 +19,33 @@ public class FST<P, S> extends FAutomaton<P> {
 	protected Integer maxStateId;
 	private Integer transitionCount;
 
-	// Moves
-	protected Map<Integer, Collection<FSTMove<P, S>>> transitionsFrom;
-	protected Map<Integer, Collection<FSTMove<P, S>>> transitionsTo;
+	// Moves, packed and sorted by source state: transition t goes from sources[t] to targets[t], reads
+	// inputSymbols.get(inputIds[t]) and writes outputSymbols.get(outputIds[i]) for outputOffsets[t] <= i < outputOffsets[t + 1]
+	protected int[] fromOffsets; 		// transitions from state q are fromOffsets[q] .. fromOffsets[q + 1] - 1
+	protected int[] sources;
+	protected int[] targets;
+	protected int[] inputIds;
+	protected int[] outputOffsets;
+	protected int[] outputIds;
+	protected int[] toOffsets; 			// transitions into state q are toTransitions[toOffsets[q] .. toOffsets[q + 1] - 1]
+	protected int[] toTransitions;
+	
+	// Dense table of the transitions by state and input id, built on the first lookup (null if too large)
+	protected int[] transitionTable;
+	protected volatile boolean tableBuilt; 	// written after transitionTable, which publishes it to other threads
+	
+	// Symbol tables
+	protected List<P> inputSymbols;
+	protected Map<P, Integer> inputSymbolIds;
+	protected List<S> outputSymbols;
 	
 	public FST() {
 		super();
 		this.finalStates = new HashSet<Integer>();
 		this.states = new HashSet<Integer>();
-		transitionsFrom = new HashMap<Integer, Collection<FSTMove<P, S>>>();
-		transitionsTo = new HashMap<Integer, Collection<FSTMove<P, S>>>();
 		transitionCount = 0;
 		maxStateId = 0;
+		pack(new ArrayList<FSTMove<P, S>>());
 	}
 	
 	public static <P, S> FST<P, S> MkFST(Collection<FSTMove<P, S>> transitions, Integer initialState, 
@@ -47,24 +63,120 @@ public class FST<P, S> extends FAutomaton<P> {
 		aut.finalStates = finalStates;
 		
 		for (FSTMove<P, S> t : transitions) {
-			aut.addTransition(t);
+			if (t.from > aut.maxStateId)
+				aut.maxStateId = t.from;
+			if (t.to > aut.maxStateId)
+				aut.maxStateId = t.to;
+
+			aut.states.add(t.from);
+			aut.states.add(t.to);
 		}
 		
+		aut.pack(transitions);
+		
 		return aut;
 	}
 	
-	private void addTransition(FSTMove<P, S> transition) {
-		if (transition.from > maxStateId)
-			maxStateId = transition.from;
-		if (transition.to > maxStateId)
-			maxStateId = transition.to;
-
-		states.add(transition.from);
-		states.add(transition.to);
+	/* Builds the packed arrays from the transitions */
+	private void pack(Collection<FSTMove<P, S>> transitions) {
+		int numTransitions = transitions.size();
+		int numStates = 0;
+		for (Integer state : states) {
+			numStates = Math.max(numStates, state + 1);
+		}
+		
+		inputSymbols = new ArrayList<P>();
+		inputSymbolIds = new HashMap<P, Integer>();
+		outputSymbols = new ArrayList<S>();
+		Map<S, Integer> outputSymbolIds = new HashMap<S, Integer>();
+		
+		// Transitions in the given order
+		List<FSTMove<P, S>> moves = new ArrayList<FSTMove<P, S>>(transitions);
+		int[] from = new int[numTransitions];
+		int[] to = new int[numTransitions];
+		for (int t = 0; t < numTransitions; t++) {
+			from[t] = moves.get(t).from;
+			to[t] = moves.get(t).to;
+		}
 		
-		getTransitionsFrom(transition.from).add((FSTMove<P, S>) transition);
-		getTransitionsTo(transition.to).add((FSTMove<P, S>) transition);
-		transitionCount++;
+		// Sort by source state
+		fromOffsets = PackedIndex.offsets(from, numStates);
+		int[] order = PackedIndex.order(from, fromOffsets);
+		
+		sources = new int[numTransitions];
+		targets = new int[numTransitions];
+		inputIds = new int[numTransitions];
+		outputOffsets = new int[numTransitions + 1];
+		int numOutputs = 0;
+		for (FSTMove<P, S> move : moves) {
+			numOutputs += move.outputs.size();
+		}
+		outputIds = new int[numOutputs];
+		
+		int position = 0;
+		for (int t = 0; t < numTransitions; t++) {
+			FSTMove<P, S> move = moves.get(order[t]);
+			sources[t] = from[order[t]];
+			targets[t] = to[order[t]];
+			inputIds[t] = PackedIndex.intern(move.input, inputSymbolIds, inputSymbols);
+			
+			outputOffsets[t] = position;
+			for (S output : move.outputs) {
+				outputIds[position++] = PackedIndex.intern(output, outputSymbolIds, outputSymbols);
+			}
+		}
+		outputOffsets[numTransitions] = position;
+		
+		// Index of the transitions by target state
+		toOffsets = PackedIndex.offsets(targets, numStates);
+		toTransitions = PackedIndex.order(targets, toOffsets);
+		
+		transitionCount = numTransitions;
+		transitionTable = null;
+		tableBuilt = false;
+	}
+	
+	/* Builds the transition table, and records whether the FST is deterministic */
+	private void buildTable() {
+		int[] table = PackedIndex.transitionTable(sources, inputIds, fromOffsets.length - 1, inputSymbols.size());
+		if (table != null) {
+			isDeterministic = PackedIndex.isDeterministic(table, transitionCount);
+		}
+		
+		transitionTable = table;
+		tableBuilt = true;
+	}
+	
+	/* Transition t as a move */
+	protected FSTMove<P, S> getMove(int t) {
+		return new FSTMove<P, S>(sources[t], targets[t], inputSymbols.get(inputIds[t]), getOutputs(t));
+	}
+	
+	/* Outputs of transition t */
+	protected List<S> getOutputs(int t) {
+		List<S> outputs = new ArrayList<S>(outputOffsets[t + 1] - outputOffsets[t]);
+		for (int i = outputOffsets[t]; i < outputOffsets[t + 1]; i++) {
+			outputs.add(outputSymbols.get(outputIds[i]));
+		}
+		
+		return outputs;
+	}
+	
+	/* Transition from state reading input, or -1 if there is none */
+	protected int getTransition(Integer state, P input) {
+		Integer inputId = inputSymbolIds.get(input);
+		if (inputId == null || state < 0 || state + 1 >= fromOffsets.length) return -1;
+		
+		if (!tableBuilt) buildTable();
+		if (transitionTable != null) {
+			return transitionTable[state * inputSymbols.size() + inputId]; 	// assumes determinism
+		}
+		
+		for (int t = fromOffsets[state]; t < fromOffsets[state + 1]; t++) {
+			if (inputIds[t] == inputId) return t; 		// assumes determinism
+		}
+		
+		return -1;
 	}
 	
 	public FST<P, S> mkOneInitialState(Collection<Integer> initialStates) {
@@ -92,11 +204,12 @@ public class FST<P, S> extends FAutomaton<P> {
 		Integer state = this.getInitialState();
 		
 		for (P input : inputs) {
-			for (FSTMove<P, S> transition : getTransitionsFrom(state)) { 	// assumes determinism
-				if (transition.input == input) {
-					outputs.addAll(transition.outputs);
-					state = transition.to;
+			int t = getTransition(state, input);
+			if (t >= 0) {
+				for (int i = outputOffsets[t]; i < outputOffsets[t + 1]; i++) {
+					outputs.add(outputSymbols.get(outputIds[i]));
 				}
+				state = targets[t];
 			}
 		}
 		
@@ -128,30 +241,30 @@ public class FST<P, S> extends FAutomaton<P> {
 	}
 	
 	public Collection<FSTMove<P, S>> getTransitionsFrom(Integer state) {
-		Collection<FSTMove<P, S>> trset = transitionsFrom.get(state);
-		if (trset == null) {
-			trset = new HashSet<FSTMove<P, S>>();
-			transitionsFrom.put(state, trset);
-			return trset;
+		Collection<FSTMove<P, S>> trset = new ArrayList<FSTMove<P, S>>();
+		if (state < 0 || state + 1 >= fromOffsets.length) return trset;
+		
+		for (int t = fromOffsets[state]; t < fromOffsets[state + 1]; t++) {
+			trset.add(getMove(t));
 		}
 		return trset;
 	}
 
 	public Collection<FSTMove<P, S>> getTransitionsTo(Integer state) {
-		Collection<FSTMove<P, S>> trset = transitionsTo.get(state);
-		if (trset == null) {
-			trset = new HashSet<FSTMove<P, S>>();
-			transitionsTo.put(state, trset);
-			return trset;
+		Collection<FSTMove<P, S>> trset = new ArrayList<FSTMove<P, S>>();
+		if (state < 0 || state + 1 >= toOffsets.length) return trset;
+		
+		for (int i = toOffsets[state]; i < toOffsets[state + 1]; i++) {
+			trset.add(getMove(toTransitions[i]));
 		}
 		return trset;
 	}
 	
 	public Collection<FSTMove<P, S>> getTransitionsFrom(Collection<Integer> states) {
-		Collection<FSTMove<P, S>> trset = new HashSet<FSTMove<P, S>>();
+		Collection<FSTMove<P, S>> trset = new ArrayList<FSTMove<P, S>>();
 		
 		for (Integer state : states) {
-			trset.addAll(transitionsFrom.get(state));
+			trset.addAll(getTransitionsFrom(state));
 		}
 		
 		return trset;
@@ -27,18 +27,29 @@ public class FSTLookahead<P, S> extends FAutomaton<P> {
 		return this.aut;
 	}
 	
-	public Integer getSuccessorState(Integer state, P input, Integer lookaheadState) {
-		for (FSTMove<Pair<P, Integer>, S> transition : fst.getTransitionsFrom(state)) {
-			if (transition.input.first == input) {
-				if (transition.input.second == lookaheadState || lookaheadState == -1) {
-					return transition.to;
-				}
-			}
+	/* 
+	 * Transition of the transducer from state reading input with the given lookahead state, or -1 if there is none. 
+	 * A lookahead state of -1 (at the end of the input) matches any transition on input 
+	 */
+	protected int getTransition(Integer state, P input, Integer lookaheadState) {
+		if (lookaheadState != -1) {
+			return fst.getTransition(state, new Pair<P, Integer>(input, lookaheadState));
+		}
+		
+		if (state < 0 || state + 1 >= fst.fromOffsets.length) return -1;
+		for (int t = fst.fromOffsets[state]; t < fst.fromOffsets[state + 1]; t++) {
+			if (fst.inputSymbols.get(fst.inputIds[t]).first.equals(input)) return t;
 		}
 		
 		return -1;
 	}
 	
+	public Integer getSuccessorState(Integer state, P input, Integer lookaheadState) {
+		int t = getTransition(state, input, lookaheadState);
+		
+		return (t == -1) ? -1 : fst.targets[t];
+	}
+	
 	public List<S> outputOn(List<P> inputs) {
 		List<S> outputs = new ArrayList<S>();
 		
@@ -52,16 +63,13 @@ public class FSTLookahead<P, S> extends FAutomaton<P> {
 			}
 			
 			// take correct transition
-			for (FSTMove<Pair<P, Integer>, S> transition : fst.getTransitionsFrom(state)) {
-				if (transition.input.first == input) {
-					if (transition.input.second == lookaheadState || lookaheadState == -1) {
-						outputs.addAll(transition.outputs);
-						state = transition.to;
-						break;
-					}
+			int t = getTransition(state, input, lookaheadState);
+			if (t >= 0) {
+				for (int j = fst.outputOffsets[t]; j < fst.outputOffsets[t + 1]; j++) {
+					outputs.add(fst.outputSymbols.get(fst.outputIds[j]));
 				}
+				state = fst.targets[t];
 			}
-			
 		}
 		
 		return outputs;
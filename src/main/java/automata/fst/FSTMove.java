@@ -1,6 +1,7 @@
 package automata.fst;
 
 import java.util.List;
+import java.util.Objects;
 
 import automata.FMove;
 
@@ -30,20 +31,25 @@ public class FSTMove<P, S> extends FMove {
 		if (!(obj instanceof FSTMove<?, ?>))
 			return false;
 		
-		FSTMove<P, S> t = (FSTMove<P, S>) obj;
+		FSTMove<?, ?> t = (FSTMove<?, ?>) obj;
 		
-		if (t.from != this.from)
+		if (!Objects.equals(t.from, this.from))
 			return false;
 		
-		if (t.to != this.to)
+		if (!Objects.equals(t.to, this.to))
 			return false;
 		
-		if (t.input != this.input)
+		if (!Objects.equals(t.input, this.input))
 			return false;
 		
-		if (!(t.outputs.equals(this.outputs)))
+		if (!Objects.equals(t.outputs, this.outputs))
 			return false;
 		
 		return true;
 	}
+	
+	@Override
+	public int hashCode() {
+		return Objects.hash(from, to, input, outputs);
+	}
 }
@@ -1,6 +1,11 @@
 package automata.fst;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -12,6 +17,7 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.sat4j.specs.TimeoutException;
 
 import automata.SFAOperations;
+import automata.fsa.FSA;
 import theory.BooleanAlgebraSubst;
 import theory.characters.CharConstant;
 import theory.characters.CharFunc;
@@ -24,6 +30,8 @@ import utilities.Pair;
 
 public class FSTOperations {
 	
+	private static final int CHUNK_SIZE = 8192;
+	
 	/* Minterm-exapnsion of character-character FST */
 	public static SFT<CharPred, CharFunc, Character> mintermExpansion(FST<Character, Character> aut,
 			Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm, BooleanAlgebraSubst<CharPred, CharFunc, Character> ba) throws TimeoutException {
@@ -86,4 +94,90 @@ public class FSTOperations {
 	}
 	
 	
+	/* Applies a character FST to all of in and writes the output to out, reading and writing a chunk at a time */
+	public static void apply(FST<Character, Character> aut, Reader in, Writer out) throws IOException {
+		char[] chunk = new char[CHUNK_SIZE];
+		StringBuilder output = new StringBuilder();
+		Integer state = aut.getInitialState();
+		
+		int read;
+		while ((read = in.read(chunk)) != -1) {
+			for (int i = 0; i < read; i++) {
+				int t = aut.getTransition(state, chunk[i]);
+				if (t >= 0) {
+					appendOutputs(aut, t, output);
+					state = aut.targets[t];
+				}
+			}
+			
+			out.append(output);
+			output.setLength(0);
+		}
+		out.flush();
+	}
+	
+	/* 
+	 * Applies a character FST with lookahead to each record of in, i.e., each maximal string without the delimiter, 
+	 * and writes the outputs separated by the delimiter. The lookahead automaton reads a record right to left, so 
+	 * one record is buffered at a time
+	 */
+	public static void applyRecords(FSTLookahead<Character, Character> aut, Reader in, Writer out, 
+			char delimiter) throws IOException {
+		FST<Pair<Character, Integer>, Character> fst = aut.getTransducer();
+		FSA<Character> lookahead = aut.getAutomaton();
+		Reader reader = (in instanceof BufferedReader) ? in : new BufferedReader(in, CHUNK_SIZE);
+		
+		char[] record = new char[CHUNK_SIZE];
+		int[] run = new int[CHUNK_SIZE];
+		StringBuilder output = new StringBuilder();
+		
+		int length = 0;
+		int c;
+		boolean done = false;
+		while (!done) {
+			c = reader.read();
+			done = (c == -1);
+			
+			if (!done && c != delimiter) {
+				if (length == record.length) {
+					record = Arrays.copyOf(record, 2 * length);
+					run = new int[2 * length];
+				}
+				record[length++] = (char) c;
+				continue;
+			}
+			
+			if (done && length == 0) break;
+			
+			/* run of the lookahead automaton, right to left */
+			Integer lookaheadState = lookahead.getInitialState();
+			for (int i = length - 1; i >= 0; i--) {
+				lookaheadState = lookahead.getSuccessorState(lookaheadState, record[i]);
+				run[i] = lookaheadState;
+			}
+			
+			/* run of the transducer, where position i sees the lookahead state after reading i + 1, ..., length - 1 */
+			Integer state = fst.getInitialState();
+			for (int i = 0; i < length; i++) {
+				int t = aut.getTransition(state, record[i], (i < length - 1) ? run[i + 1] : -1);
+				if (t >= 0) {
+					appendOutputs(fst, t, output);
+					state = fst.targets[t];
+				}
+			}
+			if (!done) output.append(delimiter);
+			
+			out.append(output);
+			output.setLength(0);
+			length = 0;
+		}
+		out.flush();
+	}
+	
+	private static <P> void appendOutputs(FST<P, Character> aut, int t, StringBuilder output) {
+		for (int i = aut.outputOffsets[t]; i < aut.outputOffsets[t + 1]; i++) {
+			output.append(aut.outputSymbols.get(aut.outputIds[i]));
+		}
+	}
+	
 }
@@ -2,8 +2,9 @@ package automata.fst;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.sat4j.specs.TimeoutException;
 
@@ -26,12 +27,7 @@ public class FSTTemplate {
 		this.aut = aut;
 		this.badTransitions = badTransitions;
 		
-		Collection<FSTMove<Character, Character>> currentTransitions = new LinkedList<FSTMove<Character, Character>>();
-
-		currentTransitions.addAll(aut.getTransitionsFrom(aut.getStates()));
-		
-		currentTransitions.removeAll(badTransitions);
-		this.goodTransitions = currentTransitions;
+		this.goodTransitions = partition(aut.getTransitionsFrom(aut.getStates()), badTransitions);
 	}
 	
 	public FSTTemplate(SFT<CharPred, CharFunc, Character> aut, 
@@ -46,12 +42,7 @@ public class FSTTemplate {
 				SFTOperations.mkTransitionsFinite(badTransitions, minterms, idToMinterm, mintermToId);
 		this.badTransitions = finBadTransitions;
 		
-		Collection<FSTMove<Character, Character>> currentTransitions = new LinkedList<FSTMove<Character, Character>>();
-
-		currentTransitions.addAll(finAut.getTransitionsFrom(finAut.getStates()));
-		
-		currentTransitions.removeAll(finBadTransitions);
-		this.goodTransitions = currentTransitions;
+		this.goodTransitions = partition(finAut.getTransitionsFrom(finAut.getStates()), finBadTransitions);
 	}
 	
 	public FSTTemplate(SFTTemplate sftTemplate, Collection<Pair<CharPred, ArrayList<Integer>>> minterms,
@@ -67,12 +58,22 @@ public class FSTTemplate {
 				SFTOperations.mkTransitionsFinite(badSFTTransitions, minterms, idToMinterm, mintermToId);
 		this.badTransitions = finBadTransitions;
 		
-		Collection<FSTMove<Character, Character>> currentTransitions = new LinkedList<FSTMove<Character, Character>>();
+		this.goodTransitions = partition(finAut.getTransitionsFrom(finAut.getStates()), finBadTransitions);
+	}
+	
+	/* Transitions that are not bad, in their original order. The bad transitions are hashed, so this is linear */
+	private static Collection<FSTMove<Character, Character>> partition(Collection<FSTMove<Character, Character>> transitions, 
+			Collection<FSTMove<Character, Character>> badTransitions) {
+		Set<FSTMove<Character, Character>> badSet = new HashSet<FSTMove<Character, Character>>(badTransitions);
 		
-		currentTransitions.addAll(finAut.getTransitionsFrom(finAut.getStates()));
+		Collection<FSTMove<Character, Character>> goodTransitions = new ArrayList<FSTMove<Character, Character>>();
+		for (FSTMove<Character, Character> transition : transitions) {
+			if (!badSet.contains(transition)) {
+				goodTransitions.add(transition);
+			}
+		}
 		
-		currentTransitions.removeAll(finBadTransitions);
-		this.goodTransitions = currentTransitions;
+		return goodTransitions;
 	}
 	
 	public FST<Character, Character> getAut() {
@@ -106,7 +106,9 @@ public class ConstraintsBV {
 		solver.setParameters(p);
 		
 		/* bit-vec and bool sorts */
-		BitVecSort BV = ctx.mkBitVecSort(8);
+		int bitWidth = ConstraintsSolver.bitWidth(source, target, alphabetMap, numStates, length, ioExamples, 
+				ConstraintsSolver.energyBound("mean", fraction, source.stateCount() * numStates * target.stateCount(), length));
+		BitVecSort BV = ctx.mkBitVecSort(bitWidth);
 		Sort B = ctx.getBoolSort();
 		
 		/* some useful constants */
@@ -98,7 +98,9 @@ public class ConstraintsBoundedEdits {
 			List<Pair<String, String>> ioExamples, SFA<CharPred, Character> template, BooleanAlgebraSubst<CharPred, CharFunc, Character> ba, 
 			String smtFile, boolean debug) throws TimeoutException {
 		/* bit-vec and bool sorts */
-		BitVecSort BV = ctx.mkBitVecSort(8);
+		int bitWidth = ConstraintsSolver.bitWidth(source, target, alphabetMap, numStates, length, ioExamples, 
+				numEdits);
+		BitVecSort BV = ctx.mkBitVecSort(bitWidth);
 		Sort B = ctx.getBoolSort();
 		
 		/* some useful constants */
@@ -18,6 +18,7 @@ import org.sat4j.specs.TimeoutException;
 import com.microsoft.z3.BitVecExpr;
 import com.microsoft.z3.BitVecNum;
 import com.microsoft.z3.BitVecSort;
+import com.microsoft.z3.BoolSort;
 import com.microsoft.z3.Context;
 import com.microsoft.z3.Expr;
 import com.microsoft.z3.FuncDecl;
@@ -65,6 +66,8 @@ public class ConstraintsSolver {
 	
 	/* Sorts and FuncDecls */
 	BitVecSort BV;
+	int bitWidth;		// width of BV, computed from the problem size if 0
+	TermCache terms;	// numerals and applications of the functions below, built once
 	Sort B;
 	
 	BitVecExpr numStatesInt;
@@ -83,9 +86,12 @@ public class ConstraintsSolver {
 	FuncDecl<Sort> f_T;
 	FuncDecl<BitVecSort> edDist;
 	FuncDecl<BitVecSort> energy;
+	FuncDecl<BitVecSort> parent;		// BFS parent of a state, for symmetry breaking
+	FuncDecl<BitVecSort> parentMove;
 	
 	/* BV Pair Datatype */
 	TupleSort pair;
+	FuncDecl<TupleSort> mkPair;	// constructor
 	FuncDecl<BitVecSort> first;	// projections
 	FuncDecl<BitVecSort> second;
 	FuncDecl[] eFuncs;
@@ -95,10 +101,33 @@ public class ConstraintsSolver {
 	Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterms;
 	
 	/* Config: which constraints are added to the solver */
-	ArrayList<Boolean> config;	
-		// 0: examples, 1: types, 2: distance
+	ArrayList<Boolean> config;
+		// 0: examples, 1: types, 2: distance, 3: symmetry breaking (optional)
+
+	/* Incremental mode: the solver is kept alive across calls with different numStates/outputBound */
+	boolean baseEncoded;			// dR, dT, f_R, f_T and declarations are on the bottom of the solver stack
+	int encodedStates;				// states of the transducer whose constraints are already in the current scope
+	Expr<BoolSort> stateGuard;		// assumption literal for 'd2(q, a) < numStates', null if not incremental
+	int[] exampleLengths;			// input length of the example encoded by eFuncs[k]
+	
+	/* Minimal-repair mode: the numerator of the distance is a constant bounded by assumptions */
+	boolean minimizeDistance;
+	BitVecExpr distanceVar;			// replaces distance[0] in the distance constraints if minimizeDistance
+	Expr<BoolSort> distanceLimit;	// assumption literal 'distanceVar <= k', null if not minimizing
+	int minimalDistance;			// smallest distance[0] found by mkConstraintsMinimal
+	boolean minimalProven;			// no smaller distance[0] is SAT, false if a check of the search was UNKNOWN
+	Status status;					// result of the last check
 	
+	/* Backend: Z3, or sat4j on the CNF encoding of ConstraintsSolverSAT */
+	public static final String Z3 = "z3";
+	public static final String SAT = "sat";
+	String backend = Z3;
+	ConstraintsSolverSAT satSolver;	// encoding of the last mkConstraints with the SAT backend
 	
+	/* Limits of a single check, enforced by Z3 itself; 0 for none */
+	long timeout;					// in milliseconds
+	long rlimit;					// resource limit, deterministic unlike the timeout
+
 	/* Constructor */
 	public ConstraintsSolver(Context ctx, SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
 			HashMap<Character, Integer> alphabetMap, int numStates, int outputBound, 
@@ -108,7 +137,7 @@ public class ConstraintsSolver {
 			Map<CharPred, Pair<CharPred, ArrayList<Integer>>> minterms, ArrayList<Boolean> config, 
 			BooleanAlgebraSubst<CharPred, CharFunc, Character> ba) {
 		this.ctx = ctx;
-		this.solver = ctx.mkSolver();
+		this.solver = (ctx != null) ? ctx.mkSolver() : null; 	// ctx is not needed by the SAT backend
 		this.source = source;
 		this.target = target;
 		this.alphabet = alphabetMap.keySet();
@@ -152,34 +181,133 @@ public class ConstraintsSolver {
 		return arr;
 	}
 	
+	/*
+	 * Largest value the energy function C can take: C starts at numEdits and only decreases for "bounded", while for
+	 * "mean" each step changes it by at most max(m, n x outputBound) and a cheapest witness visits each triple
+	 * (q_R, q, q_T) at most once
+	 */
+	public static long energyBound(String distanceType, int[] distance, int numProductStates, int outputBound) {
+		if (distance == null) return 0;
+
+		if (distanceType.equals("bounded")) return distance[0];
+
+		long maxStep = Math.max(distance[0], (long) distance[1] * outputBound);
+		return (long) numProductStates * maxStep + distance[0];
+	}
+
+	/*
+	 * Smallest bit-vector width that can hold every constant of the encoding: state ids of source, target and the
+	 * transducer, alphabet ids, example positions, output lengths and the energy range. One extra bit is needed for
+	 * the sign, since all comparisons are signed (BVSLE/BVSLT).
+	 */
+	public static int bitWidth(SFA<CharPred, Character> source, SFA<CharPred, Character> target,
+			HashMap<Character, Integer> alphabetMap, int numStates, int outputBound,
+			List<Pair<String, String>> ioExamples, long energyBound) {
+		long maxValue = Math.max(numStates, outputBound);
+		maxValue = Math.max(maxValue, alphabetMap.size());
+		maxValue = Math.max(maxValue, energyBound);
+
+		for (Integer state : source.getStates()) maxValue = Math.max(maxValue, state);
+		for (Integer state : target.getStates()) maxValue = Math.max(maxValue, state);
+
+		if (ioExamples != null) {
+			for (Pair<String, String> ioExample : ioExamples) {
+				maxValue = Math.max(maxValue, ioExample.first.length() + 1);
+				maxValue = Math.max(maxValue, ioExample.second.length() + outputBound);
+			}
+		}
+
+		return Math.max(2, 64 - Long.numberOfLeadingZeros(maxValue) + 1);
+	}
+
+	/* Width of the bit-vectors for numStates and outputBound, unless fixed with setBitWidth */
+	public int computeBitWidth(int numStates, int outputBound) {
+		if (bitWidth > 0) return bitWidth;
+
+		int numProductStates = source.stateCount() * numStates * target.stateCount();
+		return bitWidth(source, target, alphabetMap, numStates, outputBound, ioExamples,
+				energyBound(distanceType, distance, numProductStates, outputBound));
+	}
+
+	/* Fixes the width of the bit-vectors instead of computing it from the problem size */
+	public void setBitWidth(int bitWidth) {
+		this.bitWidth = bitWidth;
+	}
+
+	/* 
+	 * Z3 (the default) or SAT. The SAT backend supports the example and type constraints of mkConstraints, 
+	 * mkNextSolution and mkSolutions, and ignores symmetry breaking 
+	 */
+	public void setBackend(String backend) {
+		if (!backend.equals(Z3) && !backend.equals(SAT)) {
+			throw new IllegalArgumentException("Unknown backend: " + backend);
+		}
+		this.backend = backend;
+	}
+
+	/* Limits every following check to timeout milliseconds, after which it returns UNKNOWN */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/* Limits every following check to rlimit resource units, after which it returns UNKNOWN */
+	public void setRlimit(long rlimit) {
+		this.rlimit = rlimit;
+	}
+
+	/* Result of the last check: UNKNOWN if it hit a limit or was interrupted through the Context */
+	public Status getStatus() {
+		return status;
+	}
+
+	/* Why the last check was UNKNOWN, as reported by the backend that ran it */
+	public String getReasonUnknown() {
+		if (backend.equals(SAT)) {
+			return (satSolver != null) ? satSolver.getReasonUnknown() : null;
+		}
+		return solver.getReasonUnknown();
+	}
+
+	/* Solver parameters for the limits of the next check */
+	void setLimits() {
+		if (timeout <= 0 && rlimit <= 0) return;
+		
+		Params p = ctx.mkParams();
+		if (timeout > 0) p.add("timeout", (int) Math.min(timeout, Integer.MAX_VALUE));
+		if (rlimit > 0) p.add("rlimit", (int) Math.min(rlimit, Integer.MAX_VALUE));
+		solver.setParameters(p);
+	}
+
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public void encodeTypes() throws TimeoutException {
 		
 		/* initial states: x(q^0_R, q^0, q^0_T) */
-		BitVecExpr sourceInit = (BitVecNum) ctx.mkNumeral(source.getInitialState(), BV);
-		BitVecExpr targetInit = (BitVecNum) ctx.mkNumeral(target.getInitialState(), BV);
-		Expr res = x.apply(sourceInit, zero, targetInit);
-		solver.add(res);
+		if (encodedStates == 0) {
+			BitVecExpr sourceInit = terms.mkNumeral(source.getInitialState());
+			BitVecExpr targetInit = terms.mkNumeral(target.getInitialState());
+			Expr res = terms.apply(x, sourceInit, zero, targetInit);
+			solver.add(res);
+		}
 		
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
-		for (int i = 0; i < numStates; i++) {	// q
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+		for (int i = encodedStates; i < numStates; i++) {	// q
+			BitVecExpr q = terms.mkNumeral(i);
 				
 			for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 				Integer stateFrom = sourceTransition.from;
 				Character move = sourceTransition.getWitness(ba);
-				BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+				BitVecExpr qR = terms.mkNumeral(stateFrom);
+				BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
 				
 				/* out_len(q, a) */
-				Expr<BitVecSort> outLenExpr = out_len.apply(q, a);
+				Expr<BitVecSort> outLenExpr = terms.apply(out_len, q, a);
 					
 				/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-				Expr<BitVecSort> qRPrime = dR.apply(qR, a);
+				Expr<BitVecSort> qRPrime = terms.apply(dR, qR, a);
 				
 				
 				/* make variable q' = d2(q, a) */
-				Expr<BitVecSort> qPrime = d2.apply(q, a);
+				Expr<BitVecSort> qPrime = terms.apply(d2, q, a);
 							
 				
 				/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
@@ -188,13 +316,13 @@ public class ConstraintsSolver {
 				Expr[] outputChars = new Expr[outputBound];
 				
 				for (int l = 0; l < outputBound; l++) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-					Expr<BitVecSort> d1exp = d1.apply(q, a, index);
+					BitVecExpr index = terms.mkNumeral(l);
+					Expr<BitVecSort> d1exp = terms.apply(d1, q, a, index);
 					outputChars[l] = d1exp; 
 				}
 				
 				for (Integer targetFrom : target.getStates()) {
-					BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
+					BitVecExpr qT = terms.mkNumeral(targetFrom);
 					
 					
 					/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
@@ -202,20 +330,20 @@ public class ConstraintsSolver {
 					/* make array of destination states in target */
 					Expr[] dstStates = new Expr[outputBound];
 					
-					dstStates[0] = dT.apply(qT, outputChars[0]);
+					dstStates[0] = terms.apply(dT, qT, outputChars[0]);
 					for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
-						dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]); // changed to l from l-1
+						dstStates[l] = terms.apply(dT, dstStates[l - 1], outputChars[l]); // changed to l from l-1
 					}
 					
 					
 					/* x(q_R, q, q_T) */
-					Expr xExpr = x.apply(qR, q, qT);
+					Expr xExpr = terms.apply(x, qR, q, qT);
 					
 					/* expressions for implications: out_len(q, a) = 0 ==> x(qR', q', qT) */
 					
 					/* special case for 0 */
 					Expr lenEq = ctx.mkEq(outLenExpr, zero);
-					Expr xExprPrime = x.apply(qRPrime, qPrime, qT);
+					Expr xExprPrime = terms.apply(x, qRPrime, qPrime, qT);
 					
 					Expr c = ctx.mkImplies(lenEq, xExprPrime);
 					
@@ -224,8 +352,8 @@ public class ConstraintsSolver {
 					Expr consequent = c;
 					for (int l = 0; l < outputBound; l++) {
 						int outputLength = l + 1;
-						lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputLength, BV));
-						xExprPrime = x.apply(qRPrime, qPrime, dstStates[l]);
+						lenEq = ctx.mkEq(outLenExpr, terms.mkNumeral(outputLength));
+						xExprPrime = terms.apply(x, qRPrime, qPrime, dstStates[l]);
 						
 						c = ctx.mkImplies(lenEq, xExprPrime);
 						consequent = ctx.mkAnd(consequent, c);
@@ -238,18 +366,18 @@ public class ConstraintsSolver {
 		}
 		
 		/* x(q_R, q, q_T) /\ f_R(q_R) -> f_T(q_T) */
-		for (int i = 0; i < numStates; i++) {
+		for (int i = encodedStates; i < numStates; i++) {
 			for (Integer sourceState : source.getStates()) {
 				for (Integer targetState : target.getStates()) {
-					BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-					BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-					BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
+					BitVecExpr sourceInt = terms.mkNumeral(sourceState);
+					BitVecExpr stateInt = terms.mkNumeral(i);
+					BitVecExpr targetInt = terms.mkNumeral(targetState);
 					
-					Expr xExpr = x.apply(sourceInt, stateInt, targetInt);
-					Expr fRExp = f_R.apply(sourceInt);
+					Expr xExpr = terms.apply(x, sourceInt, stateInt, targetInt);
+					Expr fRExp = terms.apply(f_R, sourceInt);
 					Expr antecedent = ctx.mkAnd(xExpr, fRExp);
 					
-					Expr fTExp = f_T.apply(targetInt);
+					Expr fTExp = terms.apply(f_T, targetInt);
 					Expr consequent = fTExp;
 					
 					Expr c = ctx.mkImplies(antecedent, consequent);
@@ -263,30 +391,30 @@ public class ConstraintsSolver {
 	public void encodeDistanceBounded() throws TimeoutException {
 		/* In this case, the fraction must be a whole number (it should have denominator 1) */
 		int numEdits = distance[0];
-		BitVecExpr editsBound = (BitVecNum) ctx.mkNumeral(numEdits, BV);
+		BitVecExpr editsBound = minimizeDistance ? distanceVar : terms.mkNumeral(numEdits);
 		
 		/* C(q^0_R, q^0, q^0_T) = numEdits */
-		solver.add(ctx.mkEq(energy.apply(zero, zero, zero), editsBound));
+		if (encodedStates == 0) solver.add(ctx.mkEq(terms.apply(energy, zero, zero, zero), editsBound));
 		
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
-		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+		for (int i = encodedStates; i < numStates; i++) {	// q 
+			BitVecExpr q = terms.mkNumeral(i);
 				
 			for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 				Integer stateFrom = sourceTransition.from;
 				Character move = sourceTransition.getWitness(ba);
-				BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+				BitVecExpr qR = terms.mkNumeral(stateFrom);
+				BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
 				
 				/* out_len(q, a) */
-				Expr<BitVecSort> outLenExpr = out_len.apply(q, a);
+				Expr<BitVecSort> outLenExpr = terms.apply(out_len, q, a);
 					
 				/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-				Expr<BitVecSort> qRPrime = dR.apply(qR, a);
+				Expr<BitVecSort> qRPrime = terms.apply(dR, qR, a);
 				
 				
 				/* make variable q' = d2(q, a) */
-				Expr<BitVecSort> qPrime = d2.apply(q, a);
+				Expr<BitVecSort> qPrime = terms.apply(d2, q, a);
 							
 				
 				/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
@@ -295,16 +423,16 @@ public class ConstraintsSolver {
 				Expr[] outputChars = new Expr[outputBound];
 				
 				for (int l = 0; l < outputBound; l++) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-					Expr<BitVecSort> d1exp = d1.apply(q, a, index);
+					BitVecExpr index = terms.mkNumeral(l);
+					Expr<BitVecSort> d1exp = terms.apply(d1, q, a, index);
 					outputChars[l] = d1exp; 
 				}
 				
 				/* ed_dist(q, a) */
-				Expr<BitVecSort> edDistExpr = edDist.apply(q, a);
+				Expr<BitVecSort> edDistExpr = terms.apply(edDist, q, a);
 				
 				for (Integer targetFrom : target.getStates()) {
-					BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
+					BitVecExpr qT = terms.mkNumeral(targetFrom);
 					
 					
 					/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
@@ -312,19 +440,19 @@ public class ConstraintsSolver {
 					/* make array of destination states in target */
 					Expr[] dstStates = new Expr[outputBound];
 					
-					dstStates[0] = dT.apply(qT, outputChars[0]);
+					dstStates[0] = terms.apply(dT, qT, outputChars[0]);
 					for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
-						dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]); // changed to l from l-1
+						dstStates[l] = terms.apply(dT, dstStates[l - 1], outputChars[l]); // changed to l from l-1
 					}
 		
 					/* C(q_R, q, q_T) */
-					Expr<BitVecSort> cExpr = energy.apply(qR, q, qT);
+					Expr<BitVecSort> cExpr = terms.apply(energy, qR, q, qT);
 					
 					/* special case for 0 */
 					Expr lenEq = ctx.mkEq(outLenExpr, zero);
 					
 					/* C(qRPrime, qPrime, qT) = C(q_R, q, q_T) - ed_dist(q, a) */
-					Expr<BitVecSort> cExprPrime = energy.apply(qRPrime, qPrime, qT);
+					Expr<BitVecSort> cExprPrime = terms.apply(energy, qRPrime, qPrime, qT);
 					Expr cNewExpr = ctx.mkEq(cExprPrime, ctx.mkBVSub(cExpr, edDistExpr));
 					
 					Expr c = ctx.mkImplies(lenEq, cNewExpr);
@@ -334,9 +462,9 @@ public class ConstraintsSolver {
 					/* loop for the rest */
 					for (int l = 0; l < outputBound; l++) {
 						int outputLength = l + 1;
-						lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputLength, BV));
+						lenEq = ctx.mkEq(outLenExpr, terms.mkNumeral(outputLength));
 						
-						cExprPrime = energy.apply(qRPrime, qPrime, dstStates[l]);
+						cExprPrime = terms.apply(energy, qRPrime, qPrime, dstStates[l]);
 						cNewExpr = ctx.mkEq(cExprPrime, ctx.mkBVSub(cExpr, edDistExpr));
 						
 						c = ctx.mkImplies(lenEq, cNewExpr);
@@ -347,14 +475,14 @@ public class ConstraintsSolver {
 		}
 		
 		/* C(q_R, q, q_T) >= 0 */
-		for (int i = 0; i < numStates; i++) {
+		for (int i = encodedStates; i < numStates; i++) {
 			for (Integer sourceState : source.getStates()) {
 				for (Integer targetState : target.getStates()) {
-					BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-					BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-					BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
+					BitVecExpr sourceInt = terms.mkNumeral(sourceState);
+					BitVecExpr stateInt = terms.mkNumeral(i);
+					BitVecExpr targetInt = terms.mkNumeral(targetState);
 										
-					Expr<BitVecSort> cExpr = energy.apply(sourceInt, stateInt, targetInt);
+					Expr<BitVecSort> cExpr = terms.apply(energy, sourceInt, stateInt, targetInt);
 					Expr cGreaterExp = ctx.mkBVSGE(cExpr, zero);
 					solver.add(cGreaterExp);
 				}
@@ -366,27 +494,27 @@ public class ConstraintsSolver {
 	public void encodeDistanceMean() throws TimeoutException {
 		
 		/* C(q^0_R, q^0, q^0_T) = 0 */
-		solver.add(ctx.mkEq(energy.apply(zero, zero, zero), zero));
+		if (encodedStates == 0) solver.add(ctx.mkEq(terms.apply(energy, zero, zero, zero), zero));
 		
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
-		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+		for (int i = encodedStates; i < numStates; i++) {	// q 
+			BitVecExpr q = terms.mkNumeral(i);
 				
 			for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 				Integer stateFrom = sourceTransition.from;
 				Character move = sourceTransition.getWitness(ba);
-				BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+				BitVecExpr qR = terms.mkNumeral(stateFrom);
+				BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
 				
 				/* out_len(q, a) */
-				Expr<BitVecSort> outLenExpr = out_len.apply(q, a);
+				Expr<BitVecSort> outLenExpr = terms.apply(out_len, q, a);
 					
 				/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-				Expr<BitVecSort> qRPrime = dR.apply(qR, a);
+				Expr<BitVecSort> qRPrime = terms.apply(dR, qR, a);
 				
 				
 				/* make variable q' = d2(q, a) */
-				Expr<BitVecSort> qPrime = d2.apply(q, a);
+				Expr<BitVecSort> qPrime = terms.apply(d2, q, a);
 							
 				
 				/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
@@ -395,21 +523,21 @@ public class ConstraintsSolver {
 				Expr[] outputChars = new Expr[outputBound];
 				
 				for (int l = 0; l < outputBound; l++) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-					Expr<BitVecSort> d1exp = d1.apply(q, a, index);
+					BitVecExpr index = terms.mkNumeral(l);
+					Expr<BitVecSort> d1exp = terms.apply(d1, q, a, index);
 					outputChars[l] = d1exp; 
 				}
 				
 				/* ed_dist(q, a) */
-				Expr<BitVecSort> edDistExpr = edDist.apply(q, a);
+				Expr<BitVecSort> edDistExpr = terms.apply(edDist, q, a);
 				
 				/* m - (n x ed_dist(q, a)) */
-				BitVecExpr m = (BitVecNum) ctx.mkNumeral(distance[0], BV); 
-				BitVecExpr n = (BitVecNum) ctx.mkNumeral(distance[1], BV);
+				BitVecExpr m = minimizeDistance ? distanceVar : terms.mkNumeral(distance[0]); 
+				BitVecExpr n = terms.mkNumeral(distance[1]);
 				BitVecExpr diff = ctx.mkBVSub(m, ctx.mkBVMul(n, edDistExpr));
 				
 				for (Integer targetFrom : target.getStates()) {
-					BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
+					BitVecExpr qT = terms.mkNumeral(targetFrom);
 					
 					
 					/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
@@ -417,13 +545,13 @@ public class ConstraintsSolver {
 					/* make array of destination states in target */
 					Expr[] dstStates = new Expr[outputBound];
 					
-					dstStates[0] = dT.apply(qT, outputChars[0]);
+					dstStates[0] = terms.apply(dT, qT, outputChars[0]);
 					for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
-						dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]); // changed to l from l-1
+						dstStates[l] = terms.apply(dT, dstStates[l - 1], outputChars[l]); // changed to l from l-1
 					}
 		
 					/* C(q_R, q, q_T) */
-					Expr<BitVecSort> cExpr = energy.apply(qR, q, qT);
+					Expr<BitVecSort> cExpr = terms.apply(energy, qR, q, qT);
 					
 					/* expressions for implications: out_len(q, a) = 0 ==> 
 					 * C(q_R, q, q_T) >= C(qRPrime, qPrime, qT) - diff */
@@ -432,7 +560,7 @@ public class ConstraintsSolver {
 					Expr lenEq = ctx.mkEq(outLenExpr, zero);
 					
 					/* C(q_R, q, q_T) >= C(qRPrime, qPrime, qT) - diff */
-					Expr<BitVecSort> cExprPrime = energy.apply(qRPrime, qPrime, qT);
+					Expr<BitVecSort> cExprPrime = terms.apply(energy, qRPrime, qPrime, qT);
 					Expr cGreaterExpr = ctx.mkBVSGE(cExpr, ctx.mkBVSub(cExprPrime, diff));
 					
 					Expr c = ctx.mkImplies(lenEq, cGreaterExpr);
@@ -442,9 +570,9 @@ public class ConstraintsSolver {
 					/* loop for the rest */
 					for (int l = 0; l < outputBound; l++) {
 						int outputLength = l + 1;
-						lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputLength, BV));
+						lenEq = ctx.mkEq(outLenExpr, terms.mkNumeral(outputLength));
 						
-						cExprPrime = energy.apply(qRPrime, qPrime, dstStates[l]);
+						cExprPrime = terms.apply(energy, qRPrime, qPrime, dstStates[l]);
 						cGreaterExpr = ctx.mkBVSGE(cExpr, ctx.mkBVSub(cExprPrime, diff));
 						
 						c = ctx.mkImplies(lenEq, cGreaterExpr);
@@ -456,18 +584,18 @@ public class ConstraintsSolver {
 		}
 		
 		/* x(q_R, q, q_T) /\ f_R(q_R) -> (C(q_R, q, q_T) >= 0) */
-		for (int i = 0; i < numStates; i++) {
+		for (int i = encodedStates; i < numStates; i++) {
 			for (Integer sourceState : source.getStates()) {
 				for (Integer targetState : target.getStates()) {
-					BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-					BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-					BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
+					BitVecExpr sourceInt = terms.mkNumeral(sourceState);
+					BitVecExpr stateInt = terms.mkNumeral(i);
+					BitVecExpr targetInt = terms.mkNumeral(targetState);
 					
-					Expr xExpr = x.apply(sourceInt, stateInt, targetInt);
-					Expr fRExp = f_R.apply(sourceInt);
+					Expr xExpr = terms.apply(x, sourceInt, stateInt, targetInt);
+					Expr fRExp = terms.apply(f_R, sourceInt);
 					Expr antecedent = ctx.mkAnd(xExpr, fRExp);
 					
-					Expr<BitVecSort> cExpr = energy.apply(sourceInt, stateInt, targetInt);
+					Expr<BitVecSort> cExpr = terms.apply(energy, sourceInt, stateInt, targetInt);
 					Expr cGreaterExp = ctx.mkBVSGE(cExpr, zero);
 					Expr consequent = cGreaterExp;
 					
@@ -487,20 +615,20 @@ public class ConstraintsSolver {
 	public void encodeDistance() throws TimeoutException {
 		/* edit-distance constraints of individual transitions */
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
-		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+		for (int i = encodedStates; i < numStates; i++) {	// q 
+			BitVecExpr q = terms.mkNumeral(i);
 				
 			for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 				Integer stateFrom = sourceTransition.from;
 				Character move = sourceTransition.getWitness(ba);
-				BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+				BitVecExpr qR = terms.mkNumeral(stateFrom);
+				BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
 				
 				/* make variable out_len(q, a) */
-				Expr<BitVecSort> outLenExpr = out_len.apply(q, a);
+				Expr<BitVecSort> outLenExpr = terms.apply(out_len, q, a);
 				
 				/* make variable ed_dist(q, a) */
-				Expr<BitVecSort> edDistExpr = edDist.apply(q, a);
+				Expr<BitVecSort> edDistExpr = terms.apply(edDist, q, a);
 				
 				/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
 				
@@ -511,8 +639,8 @@ public class ConstraintsSolver {
 				Expr disjunct = ctx.mkFalse();
 				
 				for (int l = 0; l < outputBound; l++) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-					Expr<BitVecSort> d1exp = d1.apply(q, a, index);
+					BitVecExpr index = terms.mkNumeral(l);
+					Expr<BitVecSort> d1exp = terms.apply(d1, q, a, index);
 					outputChars[l] = d1exp;
 					Expr lt = ctx.mkBVSLT(index, outLenExpr);
 					Expr eq = ctx.mkEq(a, d1exp);
@@ -524,12 +652,12 @@ public class ConstraintsSolver {
 				
 				/* (k = 0) ==> ed_dist(q, a) = 1 */
 				Expr lenEq = ctx.mkEq(outLenExpr, zero);
-				Expr edDistEqOne = ctx.mkEq(edDistExpr, ctx.mkNumeral(1, BV));
+				Expr edDistEqOne = ctx.mkEq(edDistExpr, terms.mkNumeral(1));
 				Expr impl1 = ctx.mkImplies(lenEq, edDistEqOne);
 				
 				/* \neg (k = 0) ==> ed_dist(q, a) = k - 1 */
 				Expr lenNotZero = ctx.mkNot(lenEq);
-				Expr edDistKMinus1 = ctx.mkEq(edDistExpr, ctx.mkBVSub(outLenExpr, ctx.mkNumeral(1, BV))); 	
+				Expr edDistKMinus1 = ctx.mkEq(edDistExpr, ctx.mkBVSub(outLenExpr, terms.mkNumeral(1))); 	
 				Expr impl2 = ctx.mkImplies(lenNotZero, edDistKMinus1);
 				
 				/* \neg (k = 0) ==> ed_dist(q, a) = k */
@@ -556,73 +684,97 @@ public class ConstraintsSolver {
 		else throw new IllegalArgumentException("Unsupported distanceType");
 	}
 	
+	/*
+	 * Feasible output positions for each input position of an example: after reading i characters at most 
+	 * i x outputBound characters have been produced, and the remaining inputLen - i characters must still be 
+	 * able to produce the rest of the output. band[i] = {lowest, highest} output position at input position i
+	 */
+	public static int[][] outputPositionBand(int inputLen, int outputLen, int outputBound) {
+		int[][] band = new int[inputLen + 1][2];
+		
+		for (int i = 0; i <= inputLen; i++) {
+			band[i][0] = Math.max(0, outputLen - (inputLen - i) * outputBound);
+			band[i][1] = Math.min(outputLen, i * outputBound);
+		}
+		
+		return band;
+	}
+	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public void encodeExamples() throws TimeoutException {
 		/* example constraints */
-		eFuncs = new FuncDecl[ioExamples.size()];
-		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
-		
+		if (encodedStates == 0) {
+			eFuncs = new FuncDecl[ioExamples.size()];
+			exampleLengths = new int[ioExamples.size()];
+		}
 		int exampleCount = 0;
 		for (Pair<String, String> ioExample : ioExamples) {
 			/* verify example */
-			if (SFAOperations.getStateInFA(source, source.getInitialState(), ioExample.first, ba) == -1) { System.err.println("Illegal example for source: " + ioExample.first); continue; } 
-			if (SFAOperations.getStateInFA(target, target.getInitialState(), ioExample.second, ba) == -1) { System.err.println("Illegal example for target: " + ioExample.second); continue; } 
+			if (SFAOperations.getStateInFA(source, source.getInitialState(), ioExample.first, ba) == -1) { 
+				if (encodedStates == 0) System.err.println("Illegal example for source: " + ioExample.first); 
+				continue; 
+			} 
+			if (SFAOperations.getStateInFA(target, target.getInitialState(), ioExample.second, ba) == -1) { 
+				if (encodedStates == 0) System.err.println("Illegal example for target: " + ioExample.second); 
+				continue; 
+			} 
 			
 			int[] inputArr = stringToIntArray(alphabetMap, ioExample.first);
 			int[] outputArr = stringToIntArray(alphabetMap, ioExample.second);
 			
-			/* declare function e_k: k x input_position -> (output_position, Q) */
-			Sort[] args = new Sort[] {BV};
-			eFuncs[exampleCount] = ctx.mkFuncDecl("e " + String.valueOf(exampleCount), args, pair);
-			FuncDecl e = eFuncs[exampleCount];
-			
-			/* initial position : e_k(0) = (0, q_0) */
-			Expr initPair = pair.mkDecl().apply(zero, zero);
-			solver.add(ctx.mkEq(e.apply(zero), initPair));
-			
 			int inputLen = ioExample.first.length();
-			BitVecExpr inputLength = (BitVecNum) ctx.mkNumeral(inputLen, BV);
+			BitVecExpr inputLength = terms.mkNumeral(inputLen);
 			int outputLen = ioExample.second.length();
-			BitVecExpr outputLength = (BitVecNum) ctx.mkNumeral(outputLen, BV);
+			BitVecExpr outputLength = terms.mkNumeral(outputLen);
 			
-			/* 0 <= e_k(l1).first <= outputLen and 0 <= e_k(l1).second < numStates */
-			for (int l = 0; l <= inputLen; l++) {
-					Expr eExpr = e.apply((BitVecNum) ctx.mkNumeral(l, BV));
-					Expr<BitVecSort> eExprFirst = first.apply(eExpr);
-					Expr<BitVecSort> eExprSecond = second.apply(eExpr);
-					
-					/* restrict values of first */
-					solver.add(ctx.mkBVSLE(zero, eExprFirst));
-					solver.add(ctx.mkBVSLE(eExprFirst, outputLength));
-					
-					/* restrict values of second */
-					solver.add(ctx.mkBVSLE(zero, eExprSecond));
-					solver.add(ctx.mkBVSLT(eExprSecond, numStatesInt));
-			}
+			/* output positions that can still reach outputLen, for each input position */
+			int[][] band = outputPositionBand(inputLen, outputLen, outputBound);
 			
-			/* final position : e_k(l1).first = l2 */
-			Expr<BitVecSort> eExprFirst = first.apply(e.apply(inputLength));
-			solver.add(ctx.mkEq(eExprFirst, outputLength));
+			/* constraints that do not depend on the states are encoded once per scope */
+			if (encodedStates == 0) {
+				/* declare function e_k: k x input_position -> (output_position, Q) */
+				Sort[] args = new Sort[] {BV};
+				eFuncs[exampleCount] = ctx.mkFuncDecl("e " + String.valueOf(exampleCount), args, pair);
+				exampleLengths[exampleCount] = inputLen;
+				FuncDecl e = eFuncs[exampleCount];
+				
+				/* initial position : e_k(0) = (0, q_0) */
+				Expr initPair = terms.apply(mkPair, zero, zero);
+				solver.add(ctx.mkEq(terms.apply(e, zero), initPair));
+				
+				/* band[l][0] <= e_k(l1).first <= band[l][1] and 0 <= e_k(l1).second; upper bound in encodeStateBounds */
+				for (int l = 0; l <= inputLen; l++) {
+						Expr eExpr = terms.apply(e, terms.mkNumeral(l));
+						Expr<BitVecSort> eExprFirst = terms.apply(first, eExpr);
+						Expr<BitVecSort> eExprSecond = terms.apply(second, eExpr);
+						
+						/* restrict values of first */
+						solver.add(ctx.mkBVSLE(terms.mkNumeral(band[l][0]), eExprFirst));
+						solver.add(ctx.mkBVSLE(eExprFirst, terms.mkNumeral(band[l][1])));
+						
+						/* restrict values of second */
+						solver.add(ctx.mkBVSLE(zero, eExprSecond));
+				}
+				
+				/* final position : e_k(l1).first = l2 */
+				Expr<BitVecSort> eExprFirst = terms.apply(first, terms.apply(e, inputLength));
+				solver.add(ctx.mkEq(eExprFirst, outputLength));
+			}
+			FuncDecl e = eFuncs[exampleCount];
 			
-			for (int s = 0; s < numStates; s++) {	// q 
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(s, BV);
-					
-				for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
-					Integer stateFrom = sourceTransition.from;
-					Character move = sourceTransition.getWitness(ba);
-					BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+			for (int s = encodedStates; s < numStates; s++) {	// q 
+				BitVecExpr q = terms.mkNumeral(s);
+				
+				for (int i = 0; i < inputLen; i++) { 	// rationale: always read an input character, it's fine to have transition that reads last input char, 
+														// but output is already completely generated
+					/* the only transition that can fire at position i reads input[i+1] = a */
+					BitVecExpr a = terms.mkNumeral(inputArr[i]);
 					
 					/* out_len(q, a) */
-					Expr<BitVecSort> outLenExpr = out_len.apply(q, a);
-						
-					/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-					// Expr qRPrime = dR.apply(qR, a);
-					
+					Expr<BitVecSort> outLenExpr = terms.apply(out_len, q, a);
 					
 					/* make variable q' = d2(q, a) */
-					Expr<BitVecSort> qPrime = d2.apply(q, a);
-								
+					Expr<BitVecSort> qPrime = terms.apply(d2, q, a);
 					
 					/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
 					
@@ -630,82 +782,57 @@ public class ConstraintsSolver {
 					Expr[] outputChars = new Expr[outputBound];
 					
 					for (int l = 0; l < outputBound; l++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-						Expr<BitVecSort> d1exp = d1.apply(q, a, index);
+						BitVecExpr index = terms.mkNumeral(l);
+						Expr<BitVecSort> d1exp = terms.apply(d1, q, a, index);
 						outputChars[l] = d1exp;
 					}
 					
-					
-					for (Integer targetFrom : target.getStates()) {
-						BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
+					for (int j = band[i][0]; j <= band[i][1]; j++) {
+						BitVecExpr inputPosition = terms.mkNumeral(i);
+						BitVecExpr outputPosition = terms.mkNumeral(j);
 						
-						/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
+						/* output needs be <= outputLen - j */
+						int possibleOutputLen = Math.min(outputLen - j, outputBound);
+						BitVecExpr possibleOutputLength = terms.mkNumeral(possibleOutputLen);
 						
-						/* make array of destination states in target */
-						Expr[] dstStates = new Expr[outputBound];
+						Expr outputLe = ctx.mkBVSLE(outLenExpr, possibleOutputLength);
 						
-						dstStates[0] = dT.apply(qT, outputChars[0]);
-						for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
-							dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]);
-						}
+						/* e_k(i) = (j, q) */
+						Expr eExpr = ctx.mkEq(terms.apply(e, inputPosition), terms.apply(mkPair, outputPosition, q));
 						
+						/* expressions for implications: out_len(q, a) = 0 ==> e_k(i+1) = (j, q') */
 						
-						for (int i = 0; i < inputLen; i++) { 	// rationale: always read an input character, it's fine to have transition that reads last input char, 
-							for (int j = 0; j <= outputLen; j++) {	// but output is already completely generated
-								BitVecExpr inputPosition = (BitVecNum) ctx.mkNumeral(i, BV);
-								BitVecExpr outputPosition = (BitVecNum) ctx.mkNumeral(j, BV);
-								
-								/* input[i+1] = a */
-								BitVecExpr nextInputPosition = (BitVecNum) ctx.mkNumeral(inputArr[i], BV);
-								Expr inputEq = ctx.mkEq(nextInputPosition, a);
-								
-								/* output needs be <= outputLen - j */
-								int possibleOutputLen = Math.min(outputLen - j, outputBound);
-								BitVecExpr possibleOutputLength = (BitVecNum) ctx.mkNumeral(possibleOutputLen, BV);
-								
-								Expr outputLe = ctx.mkBVSLE(outLenExpr, possibleOutputLength);
-								
-								/* e_k(i) = (j, q) */
-								Expr eExpr = ctx.mkEq(e.apply(inputPosition), pair.mkDecl().apply(outputPosition, q));
-								
-								/* expressions for implications: out_len(q, a) = 0 ==> e_k(i+1) = (j, q') */
-								
-								/* special case for 0 */
-								Expr lenEq = ctx.mkEq(outLenExpr, zero);
-								Expr eExprPrime = ctx.mkEq(e.apply((BitVecNum) ctx.mkNumeral(i + 1, BV)), pair.mkDecl().apply(outputPosition, qPrime));
-								
-								Expr c = ctx.mkImplies(lenEq, eExprPrime);
-								
-								/* loop for the rest */
-								Expr consequent = ctx.mkAnd(outputLe, c);
-								for (int l = 0; l < possibleOutputLen; l++) { 
-									int outputGenLength = l + 1;
-									lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputGenLength, BV));
-									eExprPrime = ctx.mkEq(e.apply((BitVecNum) ctx.mkNumeral(i + 1, BV)), 
-											pair.mkDecl().apply((BitVecNum) ctx.mkNumeral(j + outputGenLength, BV), qPrime));
-									
-									/* equalities */
-									Expr stringEqualities = ctx.mkTrue();
-									for (int inc = 1; inc <= outputGenLength; inc++) {
-										int index = (j + inc) - 1;
-										BitVecExpr nextPosition = (BitVecNum) ctx.mkNumeral(outputArr[index], BV);
-										Expr eq = ctx.mkEq(nextPosition, outputChars[inc - 1]);
-										stringEqualities = ctx.mkAnd(stringEqualities, eq);
-									}
-									
-									c = ctx.mkImplies(lenEq, ctx.mkAnd(stringEqualities, eExprPrime)); 
-									consequent = ctx.mkAnd(consequent, c);
-								}
-								
-								
-								/* make big constraint */
-								Expr antecedent = ctx.mkAnd(eExpr, inputEq);
-								solver.add(ctx.mkImplies(antecedent, consequent));
+						/* special case for 0 */
+						Expr lenEq = ctx.mkEq(outLenExpr, zero);
+						Expr eExprPrime = ctx.mkEq(terms.apply(e, terms.mkNumeral(i + 1)), terms.apply(mkPair, outputPosition, qPrime));
+						
+						Expr c = ctx.mkImplies(lenEq, eExprPrime);
+						
+						/* loop for the rest */
+						Expr consequent = ctx.mkAnd(outputLe, c);
+						for (int l = 0; l < possibleOutputLen; l++) { 
+							int outputGenLength = l + 1;
+							lenEq = ctx.mkEq(outLenExpr, terms.mkNumeral(outputGenLength));
+							eExprPrime = ctx.mkEq(terms.apply(e, terms.mkNumeral(i + 1)), 
+									terms.apply(mkPair, terms.mkNumeral(j + outputGenLength), qPrime));
+							
+							/* equalities */
+							Expr stringEqualities = ctx.mkTrue();
+							for (int inc = 1; inc <= outputGenLength; inc++) {
+								int index = (j + inc) - 1;
+								BitVecExpr nextPosition = terms.mkNumeral(outputArr[index]);
+								Expr eq = ctx.mkEq(nextPosition, outputChars[inc - 1]);
+								stringEqualities = ctx.mkAnd(stringEqualities, eq);
 							}
+							
+							c = ctx.mkImplies(lenEq, ctx.mkAnd(stringEqualities, eExprPrime)); 
+							consequent = ctx.mkAnd(consequent, c);
 						}
 						
+						
+						/* make big constraint */
+						solver.add(ctx.mkImplies(eExpr, consequent));
 					}
-					
 				}
 			}
 			
@@ -714,8 +841,59 @@ public class ConstraintsSolver {
 	}
 	
 	
+	/*
+	 * Symmetry breaking: the states are numbered in the order in which a BFS over d2 discovers them, taking the 
+	 * states in increasing order and the letters of each state in increasing order. A state j > 0 either has a parent 
+	 * (i, a) with i < j, the smallest pair with d2(i, a) = j, or is not reached from any smaller state, in which case 
+	 * parent(j) = j and it starts a new BFS tree. Every transducer can be renumbered this way.
+	 */
 	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public Pair<SFT<CharPred, CharFunc, Character>, Long> mkConstraints(String smtFile, boolean debug) throws TimeoutException {
+	public void encodeSymmetryBreaking() throws TimeoutException {
+		for (int j = Math.max(1, encodedStates); j < numStates; j++) {
+			BitVecExpr state = terms.mkNumeral(j);
+			Expr<BitVecSort> parentExpr = terms.apply(parent, state);
+			Expr<BitVecSort> parentMoveExpr = terms.apply(parentMove, state);
+			
+			/* parent(j) <= j, and parent(j) < j ==> d2(parent(j), parent_move(j)) = j */
+			Expr hasParent = ctx.mkBVSLT(parentExpr, state);
+			solver.add(ctx.mkBVSLE(zero, parentExpr));
+			solver.add(ctx.mkBVSLE(parentExpr, state));
+			solver.add(ctx.mkImplies(hasParent, ctx.mkAnd(ctx.mkBVSLE(zero, parentMoveExpr), 
+					ctx.mkBVSLT(parentMoveExpr, alphabetSize), ctx.mkEq(terms.apply(d2, parentExpr, parentMoveExpr), state))));
+			
+			/* (parent(j), parent_move(j)) is the smallest (i, a) with d2(i, a) = j and i < j */
+			for (int i = 0; i < j; i++) {
+				BitVecExpr q = terms.mkNumeral(i);
+				
+				for (int move : alphabetMap.values()) {
+					BitVecExpr a = terms.mkNumeral(move);
+					
+					Expr smaller = ctx.mkOr(ctx.mkBVSLT(parentExpr, q), 
+							ctx.mkAnd(ctx.mkEq(parentExpr, q), ctx.mkBVSLE(parentMoveExpr, a)));
+					solver.add(ctx.mkImplies(ctx.mkEq(terms.apply(d2, q, a), state), smaller));
+				}
+			}
+			
+			/* states are discovered in order: parent(j-1) <= parent(j), and by letter if the parents are the same */
+			if (j > 1) {
+				BitVecExpr prevState = terms.mkNumeral(j - 1);
+				Expr<BitVecSort> prevParentExpr = terms.apply(parent, prevState);
+				Expr<BitVecSort> prevParentMoveExpr = terms.apply(parentMove, prevState);
+				
+				solver.add(ctx.mkBVSLE(prevParentExpr, parentExpr));
+				Expr sameParent = ctx.mkAnd(ctx.mkEq(prevParentExpr, parentExpr), ctx.mkBVSLT(prevParentExpr, prevState));
+				solver.add(ctx.mkImplies(sameParent, ctx.mkBVSLT(prevParentMoveExpr, parentMoveExpr)));
+			}
+		}
+	}
+	
+	
+	/*
+	 * Constraints that do not depend on numStates or outputBound: solver parameters, sorts, 
+	 * function declarations and the transition relations and final states of source and target
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void encodeAutomata() throws TimeoutException {
 		/* Set params */
 		Params p = ctx.mkParams();
 		p.add("smt.relevancy", 0);
@@ -723,20 +901,14 @@ public class ConstraintsSolver {
 		p.add("smt.phase_caching_on", 80000);
 		solver.setParameters(p);
 		
-		/* Ensures numStates is correct */
-		if (template != null) {
-			this.numStates = template.stateCount();
-		}
-		
 		/* bit-vec and bool sorts */
-		BV = ctx.mkBitVecSort(8);
+		BV = ctx.mkBitVecSort(computeBitWidth(numStates, outputBound));
 		B = ctx.getBoolSort();
+		terms = new TermCache(ctx, BV);
 		
 		/* some useful constants */
-		numStatesInt = (BitVecNum) ctx.mkNumeral(numStates, BV);
-		alphabetSize = (BitVecNum) ctx.mkNumeral(alphabetMap.size(), BV);
-		zero = (BitVecNum) ctx.mkNumeral(0, BV);
-		bound = (BitVecNum) ctx.mkNumeral(outputBound, BV);
+		alphabetSize = terms.mkNumeral(alphabetMap.size());
+		zero = terms.mkNumeral(0);
 		
 		/* d_R: transition relation of source */
 		Sort[] argsToDR = new Sort[]{ BV, BV };
@@ -746,15 +918,15 @@ public class ConstraintsSolver {
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
 		for (SFAMove<CharPred, Character> transition : sourceTransitions) {
 			Integer stateFrom = transition.from;
-			BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
+			BitVecExpr q1 = terms.mkNumeral(stateFrom);
 			
 			Character move = transition.getWitness(ba); // there should only be 1
-			BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+			BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
 			
 			Integer stateTo = transition.to;
-			BitVecExpr q2 = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+			BitVecExpr q2 = terms.mkNumeral(stateTo);
 			
-			Expr<BitVecSort> dexp = dR.apply(q1, a);
+			Expr<BitVecSort> dexp = terms.apply(dR, q1, a);
 			solver.add(ctx.mkEq(dexp, q2));
 		}
 		
@@ -766,23 +938,23 @@ public class ConstraintsSolver {
 		Collection<SFAMove<CharPred, Character>> targetTransitions = target.getTransitions();
 		for (SFAMove<CharPred, Character> transition : targetTransitions) {
 			Integer stateFrom = transition.from;
-			BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
+			BitVecExpr q1 = terms.mkNumeral(stateFrom);
 			
 			Character move = transition.getWitness(ba); // there should only be 1
-			BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+			BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
 			
 			Integer stateTo = transition.to;
-			BitVecExpr q2 = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+			BitVecExpr q2 = terms.mkNumeral(stateTo);
 			
-			Expr<BitVecSort> dexp = dT.apply(q1, a);
+			Expr<BitVecSort> dexp = terms.apply(dT, q1, a);
 			solver.add(ctx.mkEq(dexp, q2));
 		}
 		
 		/* declare f_R : Q -> {0, 1} */
 		f_R = ctx.mkFuncDecl("f_R", BV, B);
 		for (Integer sourceState : source.getStates()) {
-			BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-			Expr c = f_R.apply(stateInt);
+			BitVecExpr stateInt = terms.mkNumeral(sourceState);
+			Expr c = terms.apply(f_R, stateInt);
 			if (!source.isFinalState(sourceState)) c = ctx.mkNot(c);
 			solver.add(c);
 		}
@@ -790,8 +962,8 @@ public class ConstraintsSolver {
 		/* declare f_T : Q -> {0, 1} */
 		f_T = ctx.mkFuncDecl("f_T", BV, B);
 		for (Integer targetState : target.getStates()) {
-			BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
-			Expr c = f_T.apply(stateInt);
+			BitVecExpr stateInt = terms.mkNumeral(targetState);
+			Expr c = terms.apply(f_T, stateInt);
 			if (!target.isFinalState(targetState)) c = ctx.mkNot(c);
 			solver.add(c);
 		}
@@ -808,28 +980,71 @@ public class ConstraintsSolver {
 		Sort[] argsToD2 = new Sort[]{ BV, BV };
 		d2 = ctx.mkFuncDecl("d2", argsToD2, BV);
 		
+		/* declare x : Q_R x Q x Q_T -> {1, 0} */
+		Sort[] argsToX = new Sort[]{ BV, BV, BV };
+		x = ctx.mkFuncDecl("x", argsToX, B);
+		
+		/* declare edit-dist: Q x \Sigma -> Z */
+		Sort[] argsToEd = new Sort[]{ BV, BV };
+		edDist = ctx.mkFuncDecl("ed_dist", argsToEd, BV);
+		
+		/* declare C: Q_R x Q x Q_T -> Z */
+		Sort[] argsToC = new Sort[]{ BV, BV, BV };
+		energy = ctx.mkFuncDecl("C", argsToC, BV);
+		
+		/* declare parent, parent_move: Q -> Q, \Sigma */
+		parent = ctx.mkFuncDecl("parent", BV, BV);
+		parentMove = ctx.mkFuncDecl("parent_move", BV, BV);
+		
+		/* 0 <= distance <= distance[0], if the distance is minimized */
+		if (minimizeDistance) {
+			distanceVar = ctx.mkBVConst("distance", BV.getSize());
+			solver.add(ctx.mkBVSLE(zero, distanceVar));
+			solver.add(ctx.mkBVSLE(distanceVar, terms.mkNumeral(distance[0])));
+		}
+		
+		
+		this.pair = ctx.mkTupleSort(ctx.mkSymbol("mkPair"), // name of tuple constructor
+				new Symbol[] { ctx.mkSymbol("first"), ctx.mkSymbol("second") }, // names of projection operators
+				new Sort[] { BV, BV } // types of projection operators
+			);
+		this.mkPair = pair.mkDecl();	// constructor
+		this.first = (FuncDecl<BitVecSort>) pair.getFieldDecls()[0];	// projections
+		this.second = (FuncDecl<BitVecSort>) pair.getFieldDecls()[1];
+		
+		baseEncoded = true;
+	}
+	
+	/*
+	 * Constraints on the states encodedStates, ..., numStates - 1 of the transducer, for the current outputBound
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void encodeStates() throws TimeoutException {
+		/* some useful constants */
+		numStatesInt = terms.mkNumeral(numStates);
+		bound = terms.mkNumeral(outputBound);
+		
 		/* restrict range of d_1, d_2 and out_len */
-		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+		for (int i = encodedStates; i < numStates; i++) {	// q 
+			BitVecExpr q = terms.mkNumeral(i);
 			
 			for (int move : alphabetMap.values())  {
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV);
+				BitVecExpr a = terms.mkNumeral(move);
 				
 				/* 0 <= out_len(q, a) <= l */
-				Expr<BitVecSort> outLenExpr = out_len.apply(q, a);
+				Expr<BitVecSort> outLenExpr = terms.apply(out_len, q, a);
 				solver.add(ctx.mkBVSLE(zero, outLenExpr));
 				solver.add(ctx.mkBVSLE(outLenExpr, bound));
 				
 				/* make variable q' = d2(q, a) */
-				Expr<BitVecSort> qPrime = d2.apply(q, a);
+				Expr<BitVecSort> qPrime = terms.apply(d2, q, a);
 				
-				/* 0 <= qPrime < numStates; range only needs to be encoded once */
+				/* 0 <= qPrime; the upper bound is in encodeStateBounds */
 				solver.add(ctx.mkBVSLE(zero, qPrime));
-				solver.add(ctx.mkBVSLT(qPrime, numStatesInt));
 				
 				for (int l = 0; l < outputBound; l++) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-					Expr<BitVecSort> d1exp = d1.apply(q, a, index);
+					BitVecExpr index = terms.mkNumeral(l);
+					Expr<BitVecSort> d1exp = terms.apply(d1, q, a, index);
 					
 					/* 0 <= d1(q, a, index) < alphabetSize */
 					solver.add(ctx.mkBVSLE(zero, d1exp));
@@ -837,27 +1052,6 @@ public class ConstraintsSolver {
 				}
 			}
 		}
-
-		
-		/* declare x : Q_R x Q x Q_T -> {1, 0} */
-		Sort[] argsToX = new Sort[]{ BV, BV, BV };
-		x = ctx.mkFuncDecl("x", argsToX, B);
-		
-		/* declare edit-dist: Q x \Sigma -> Z */
-		Sort[] argsToEd = new Sort[]{ BV, BV };
-		edDist = ctx.mkFuncDecl("ed_dist", argsToEd, BV);
-		
-		/* declare C: Q_R x Q x Q_T -> Z */
-		Sort[] argsToC = new Sort[]{ BV, BV, BV };
-		energy = ctx.mkFuncDecl("C", argsToC, BV);
-		
-		
-		this.pair = ctx.mkTupleSort(ctx.mkSymbol("mkPair"), // name of tuple constructor
-				new Symbol[] { ctx.mkSymbol("first"), ctx.mkSymbol("second") }, // names of projection operators
-				new Sort[] { BV, BV } // types of projection operators
-			);
-		this.first = (FuncDecl<BitVecSort>) pair.getFieldDecls()[0];	// projections
-		this.second = (FuncDecl<BitVecSort>) pair.getFieldDecls()[1];
 		
 		/* If config provide, call encoding methods appropriately */
 		if (config != null) {
@@ -870,6 +1064,9 @@ public class ConstraintsSolver {
 			/* Input-Output Distance Constraints */
 			if (config.get(2)) encodeDistance();
 			
+			/* Canonical numbering of the states, not compatible with templates */
+			if (config.size() > 3 && config.get(3) && template == null && ftTemplate == null) encodeSymmetryBreaking();
+			
 		} else {
 			/* Input-Output Types Constraints */
 			encodeTypes();
@@ -905,18 +1102,18 @@ public class ConstraintsSolver {
 			}
 			
 			/* Single-char minterm cannot output multiple-char minterm */
-			for (int i = 0; i < numStates; i++) {	// q 
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			for (int i = encodedStates; i < numStates; i++) {	// q 
+				BitVecExpr q = terms.mkNumeral(i);
 				
 				for (Character move : singleChars)  {
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+					BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
 
 					for (int l = 0; l < outputBound; l++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-						Expr<BitVecSort> d1exp = d1.apply(q, a, index);
+						BitVecExpr index = terms.mkNumeral(l);
+						Expr<BitVecSort> d1exp = terms.apply(d1, q, a, index);
 
 						for (Character out : multipleChars) {
-							BitVecExpr b = (BitVecNum) ctx.mkNumeral(alphabetMap.get(out), BV);
+							BitVecExpr b = terms.mkNumeral(alphabetMap.get(out));
 							solver.add(ctx.mkNot(ctx.mkEq(d1exp, b)));
 						}
 					}
@@ -925,6 +1122,109 @@ public class ConstraintsSolver {
 			
 		}
 		
+		encodedStates = numStates;
+	}
+	
+	/*
+	 * 0 <= d2(q, a) < numStates and 0 <= e_k(i).second < numStates. In incremental mode these are the only 
+	 * constraints that stop holding when numStates grows, so they are guarded by the assumption stateGuard
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void encodeStateBounds() throws TimeoutException {
+		List<Expr<BoolSort>> bounds = new ArrayList<Expr<BoolSort>>();
+		
+		for (int i = 0; i < numStates; i++) {	// q 
+			BitVecExpr q = terms.mkNumeral(i);
+			
+			for (int move : alphabetMap.values())  {
+				BitVecExpr a = terms.mkNumeral(move);
+				bounds.add(ctx.mkBVSLT(terms.apply(d2, q, a), numStatesInt));
+			}
+		}
+		
+		if (eFuncs != null) {
+			for (int k = 0; k < eFuncs.length; k++) {
+				if (eFuncs[k] == null) continue; 	// illegal examples are skipped
+				
+				for (int l = 0; l <= exampleLengths[k]; l++) {
+					Expr eExpr = terms.apply(eFuncs[k], terms.mkNumeral(l));
+					bounds.add(ctx.mkBVSLT(terms.apply(second, eExpr), numStatesInt));
+				}
+			}
+		}
+		
+		for (Expr<BoolSort> c : bounds) {
+			if (stateGuard != null) {
+				solver.add(ctx.mkImplies(stateGuard, c));
+			} else {
+				solver.add(c);
+			}
+		}
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void encodeSolution() throws TimeoutException {
+		/* If previous solution provided, construct satisfying assignment and negate it */
+		if (solution != null) {
+			Expr negModel = ctx.mkTrue();
+			Collection<Integer> states = solution.getStates();
+			for (SFTInputMove<CharPred, CharFunc, Character> transition : solution.getInputMovesFrom(states)) {
+				Integer stateFrom = transition.from;
+				Character move = transition.getWitness(ba);
+				Integer stateTo = transition.to;
+				List<CharFunc> outputFunc = transition.outputFunctions;
+				
+				BitVecExpr q = terms.mkNumeral(stateFrom);
+				BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
+				BitVecExpr qPrime = terms.mkNumeral(stateTo);
+				BitVecExpr outputLen = terms.mkNumeral(outputFunc.size());
+				
+				/* d2exp */
+				Expr<BitVecSort> d2exp = terms.apply(d2, q, a);
+				negModel = ctx.mkAnd(negModel, ctx.mkEq(d2exp, qPrime));
+				
+				/* outputLenExpr */
+				Expr<BitVecSort> outputLenExpr = terms.apply(out_len, q, a);
+				negModel = ctx.mkAnd(negModel, ctx.mkEq(outputLenExpr, outputLen));
+				
+				/* d1exp: iterate through outputFunc */
+				int index = 0;
+				for (CharFunc f : outputFunc) {
+					if (f != null && f instanceof CharConstant) { 	// all the CharFuncs should be constants
+						Character out = ((CharConstant)f).c;
+						BitVecExpr outMoveNum = terms.mkNumeral(alphabetMap.get(out));
+						
+						Expr<BitVecSort> d1exp = terms.apply(d1, q, a, terms.mkNumeral(index));
+						negModel = ctx.mkAnd(negModel, ctx.mkEq(d1exp, outMoveNum));
+					}
+					index++;
+				}
+				
+			}
+			
+			/* negate model */
+			solver.add(ctx.mkNot(negModel));
+		}
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Pair<SFT<CharPred, CharFunc, Character>, Long> mkConstraints(String smtFile, boolean debug) throws TimeoutException {
+		/* Ensures numStates is correct */
+		if (template != null) {
+			this.numStates = template.stateCount();
+		}
+		
+		if (backend.equals(SAT)) {
+			satSolver = new ConstraintsSolverSAT(this);
+			return satSolver.solve();
+		}
+		
+		encodeAutomata();
+		
+		encodeStates();
+		
+		encodeStateBounds();
+		
 		
 		/* Use the d2 relation (the successor states) of the template, if one is provided, and enforce it */
 		if (template != null) {
@@ -937,11 +1237,11 @@ public class ConstraintsSolver {
 				Character move = transition.getWitness(ba);
 				Integer stateTo = transition.to;
 				
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+				BitVecExpr q = terms.mkNumeral(stateFrom);
+				BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
+				BitVecExpr qPrime = terms.mkNumeral(stateTo);
 				
-				solver.add(ctx.mkEq(d2.apply(q, a), qPrime));
+				solver.add(ctx.mkEq(terms.apply(d2, q, a), qPrime));
 			}
 		}
 		
@@ -959,11 +1259,11 @@ public class ConstraintsSolver {
 				Integer stateTo = transition.to;
 				
 				/* d2 */
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(input), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+				BitVecExpr q = terms.mkNumeral(stateFrom);
+				BitVecExpr a = terms.mkNumeral(alphabetMap.get(input));
+				BitVecExpr qPrime = terms.mkNumeral(stateTo);
 				
-				solver.add(ctx.mkEq(d2.apply(q, a), qPrime));
+				solver.add(ctx.mkEq(terms.apply(d2, q, a), qPrime));
 				
 				/* d1 */
 				List<Character> outputs = transition.outputs;
@@ -973,10 +1273,10 @@ public class ConstraintsSolver {
 				
 				int counter = 0;
 				for (Character out : outputs) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(counter, BV);
-					BitVecExpr outInt = (BitVecNum) ctx.mkNumeral(alphabetMap.get(out), BV);
+					BitVecExpr index = terms.mkNumeral(counter);
+					BitVecExpr outInt = terms.mkNumeral(alphabetMap.get(out));
 					
-					solver.add(ctx.mkEq(d1.apply(q, a, index), outInt));
+					solver.add(ctx.mkEq(terms.apply(d1, q, a, index), outInt));
 					
 					counter++;
 				}
@@ -990,71 +1290,265 @@ public class ConstraintsSolver {
 				Integer stateTo = transition.to;
 				
 				/* d2 */
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(input), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+				BitVecExpr q = terms.mkNumeral(stateFrom);
+				BitVecExpr a = terms.mkNumeral(alphabetMap.get(input));
+				BitVecExpr qPrime = terms.mkNumeral(stateTo);
 				
-				solver.add(ctx.mkEq(d2.apply(q, a), qPrime));
+				solver.add(ctx.mkEq(terms.apply(d2, q, a), qPrime));
 			}
 		}
 		
 		/* If previous solution provided, construct satisfying assignment and negate it */
-		if (solution != null) {
-			Expr negModel = ctx.mkTrue();
-			Collection<Integer> states = solution.getStates();
-			for (SFTInputMove<CharPred, CharFunc, Character> transition : solution.getInputMovesFrom(states)) {
+		encodeSolution();
+		
+		
+		/* Print SMT string to smtFile */
+		try {
+			if (smtFile != null) {
+				BufferedWriter br = new BufferedWriter(new FileWriter(new File(smtFile)));
+				br.write(solver.toString());
+				br.write("(check-sat)");
+				br.close();
+			}
+		} catch (IOException e1) {
+			e1.printStackTrace();
+		}
+		
+		return constructSFT(debug);
+	}
+	
+	/*
+	 * Incremental version of mkConstraints: keeps the solver and its learned clauses across calls. 
+	 * Source and target are encoded once at the bottom of the solver stack, each outputBound gets its own 
+	 * push()/pop() scope, and increasing numStates within a scope only adds the constraints of the new states
+	 * together with a fresh assumption literal for their upper bound. Templates are not supported here.
+	 */
+	public Pair<SFT<CharPred, CharFunc, Character>, Long> mkConstraintsIncremental(int numStates, int outputBound, boolean debug) throws TimeoutException {
+		if (template != null || ftTemplate != null) {
+			throw new IllegalArgumentException("Incremental mode does not support templates");
+		}
+		if (backend.equals(SAT)) {
+			throw new IllegalArgumentException("Incremental mode needs the Z3 backend");
+		}
+		
+		/* New scope if outputBound changes or numStates decreases */
+		boolean newScope = (outputBound != this.outputBound || numStates < encodedStates);
+		this.numStates = numStates;
+		this.outputBound = outputBound;
+		
+		/* Start over if the current bit-vectors are too narrow for numStates and outputBound */
+		if (baseEncoded && computeBitWidth(numStates, outputBound) > BV.getSize()) {
+			solver.reset();
+			baseEncoded = false;
+		}
+		
+		if (!baseEncoded) {
+			encodeAutomata();
+		}
+		
+		if (newScope || solver.getNumScopes() == 0) {
+			if (solver.getNumScopes() > 0) solver.pop();
+			solver.push();
+			
+			encodedStates = 0;
+			stateGuard = null;
+			encodeSolution();
+		}
+		
+		if (stateGuard == null || numStates != encodedStates) {
+			stateGuard = ctx.mkFreshConst("numStates", ctx.getBoolSort());
+			
+			encodeStates();
+			
+			encodeStateBounds();
+		}
+		
+		return constructSFT(debug);
+	}
+	
+	
+	/* Adds the transitions given by the values of d2, out_len and d1 to transitionsFT, only those of the template if there is one */
+	void addTransitions(Set<SFTMove<CharPred, CharFunc, Character>> transitionsFT, int[] d2Values, int[] outLenValues, int[] d1Values, 
+			HashMap<Integer, Character> revAlphabetMap) throws TimeoutException {
+		int numChars = alphabetMap.size();
+		
+		/* Add transitions to FT */
+		if (template != null) {
+			/* Only add 'relevant' transitions */
+			for (SFAMove<CharPred, Character> transition : template.getTransitions()) { 	
 				Integer stateFrom = transition.from;
 				Character move = transition.getWitness(ba);
 				Integer stateTo = transition.to;
-				List<CharFunc> outputFunc = transition.outputFunctions;
 				
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
-				BitVecExpr outputLen = (BitVecNum) ctx.mkNumeral(outputFunc.size(), BV);
-				
-				/* d2exp */
-				Expr<BitVecSort> d2exp = d2.apply(q, a);
-				negModel = ctx.mkAnd(negModel, ctx.mkEq(d2exp, qPrime));
-				
-				/* outputLenExpr */
-				Expr<BitVecSort> outputLenExpr = out_len.apply(q, a);
-				negModel = ctx.mkAnd(negModel, ctx.mkEq(outputLenExpr, outputLen));
+				/* get output */
+				List<CharFunc> outputFunc = mkOutputFunc(outLenValues, d1Values, stateFrom, alphabetMap.get(move), revAlphabetMap);
+							
+				SFTInputMove<CharPred, CharFunc, Character> newTrans = new SFTInputMove<CharPred, CharFunc, Character>(stateFrom, stateTo, new CharPred(move), outputFunc);
+				transitionsFT.add(newTrans);
+			}
+			
+		} else if (ftTemplate != null) {
+			/* Only add transitions of ftTemplate */
+			FST<Character, Character> aut = ftTemplate.getAut();
+			for (FSTMove<Character, Character> transition : aut.getTransitionsFrom(aut.getStates())) {
+				Integer stateFrom = transition.from;
+				Integer stateTo = transition.to;
+				Character move = transition.input;
 				
-				/* d1exp: iterate through outputFunc */
-				int index = 0;
-				for (CharFunc f : outputFunc) {
-					if (f != null && f instanceof CharConstant) { 	// all the CharFuncs should be constants
-						Character out = ((CharConstant)f).c;
-						BitVecExpr outMoveNum = (BitVecNum) ctx.mkNumeral(alphabetMap.get(out), BV);
+				/* get output */
+				List<CharFunc> outputFunc = mkOutputFunc(outLenValues, d1Values, stateFrom, alphabetMap.get(move), revAlphabetMap);
+							
+				SFTInputMove<CharPred, CharFunc, Character> newTrans = new SFTInputMove<CharPred, CharFunc, Character>(stateFrom, stateTo, new CharPred(move), outputFunc);
+				transitionsFT.add(newTrans);
+			}
+			
+		} else {
+			for (int q1 = 0; q1 < numStates; q1++) {
+				for (int move : alphabetMap.values())  { 
+					Character input = revAlphabetMap.get(move);
 						
-						Expr<BitVecSort> d1exp = d1.apply(q, a, (BitVecNum) ctx.mkNumeral(index, BV));
-						negModel = ctx.mkAnd(negModel, ctx.mkEq(d1exp, outMoveNum));
-					}
+					/* get state to */
+					int q2 = d2Values[q1 * numChars + move];
+									
+					/* get output */
+					List<CharFunc> outputFunc = mkOutputFunc(outLenValues, d1Values, q1, move, revAlphabetMap);
+									
+					SFTInputMove<CharPred, CharFunc, Character> newTrans = new SFTInputMove<CharPred, CharFunc, Character>(q1, q2, new CharPred(input), outputFunc);
+					transitionsFT.add(newTrans);
 				}
-				
 			}
+		}
+	}
+	
+	/* Output functions of the transition (q, a), from the values of out_len and d1 read by constructSFT */
+	List<CharFunc> mkOutputFunc(int[] outLenValues, int[] d1Values, int q, int a, HashMap<Integer, Character> revAlphabetMap) {
+		int numChars = alphabetMap.size();
+		int outputLen = outLenValues[q * numChars + a];
+		
+		List<CharFunc> outputFunc = new ArrayList<CharFunc>();
+		for (int i = 0; i < outputLen; i++) {
+			int outMove = d1Values[(q * numChars + a) * outputBound + i];
+			Character output = revAlphabetMap.get(outMove);
+			outputFunc.add(new CharConstant(output));
+		}
+		
+		return outputFunc;
+	}
+	
+	/*
+	 * Minimal-repair version of mkConstraints: distance[0] (the numerator m of the mean distance m/n, or the number 
+	 * of edits) is only an upper bound, and a binary search over assumptions 'distance <= k' on the same solver finds 
+	 * the transducer with the smallest one. The smallest value is returned by getMinimalDistance(). 
+	 * If a check of the search is UNKNOWN (timeout or rlimit), the search stops with the best transducer so far, 
+	 * and isMinimalProven() is false. The running time is the sum over all checks.
+	 */
+	public Pair<SFT<CharPred, CharFunc, Character>, Long> mkConstraintsMinimal(String smtFile, boolean debug) throws TimeoutException {
+		if ((config != null && !config.get(2)) || distanceType.equals("preferential")) {
+			throw new IllegalArgumentException("Minimal-repair mode needs the mean or bounded distance constraints");
+		}
+		if (backend.equals(SAT)) {
+			throw new IllegalArgumentException("Minimal-repair mode needs the Z3 backend");
+		}
+		
+		minimizeDistance = true;
+		distanceLimit = null;
+		minimalProven = false;
+		
+		Pair<SFT<CharPred, CharFunc, Character>, Long> best = mkConstraints(smtFile, debug);
+		long time = best.second;
+		if (status != Status.SATISFIABLE) return best;
+		
+		/* invariant: distance <= hi is SAT with the transducer best, distance < lo is UNSAT */
+		int lo = 0;
+		int hi = ((BitVecNum) solver.getModel().evaluate(distanceVar, true)).getInt();
+		boolean proven = true;
+		while (lo < hi) {
+			int mid = lo + (hi - lo) / 2;
+			distanceLimit = ctx.mkBVSLE(distanceVar, terms.mkNumeral(mid));
 			
-			/* negate model */
-			solver.add(ctx.mkNot(negModel));
+			Pair<SFT<CharPred, CharFunc, Character>, Long> res = constructSFT(debug);
+			time += res.second;
+			if (status == Status.SATISFIABLE) {
+				hi = ((BitVecNum) solver.getModel().evaluate(distanceVar, true)).getInt();
+				best = res;
+			} else if (status == Status.UNSATISFIABLE) {
+				lo = mid + 1;
+			} else { 	// cannot tell whether distance <= mid is SAT
+				proven = false;
+				break;
+			}
 		}
 		
+		distanceLimit = null;
+		minimalDistance = hi;
+		minimalProven = proven;
+		status = Status.SATISFIABLE; 	// of best
 		
-		/* Print SMT string to smtFile */
-		try {
-			if (smtFile != null) {
-				BufferedWriter br = new BufferedWriter(new FileWriter(new File(smtFile)));
-				br.write(solver.toString());
-				br.write("(check-sat)");
-				br.close();
+		return new Pair<SFT<CharPred, CharFunc, Character>, Long>(best.first, time);
+	}
+	
+	/*
+	 * Next solution on the already loaded solver: blocks the transducer prev, which must come from this solver, 
+	 * and checks again. Returns an SFT without transitions if there is no other solution
+	 */
+	public Pair<SFT<CharPred, CharFunc, Character>, Long> mkNextSolution(SFT<CharPred, CharFunc, Character> prev, boolean debug) throws TimeoutException {
+		if (backend.equals(SAT)) {
+			if (satSolver == null) {
+				throw new IllegalArgumentException("mkNextSolution needs the constraints of a previous call to mkConstraints");
 			}
-		} catch (IOException e1) {
-			e1.printStackTrace();
+			
+			this.solution = prev;
+			return satSolver.next(prev);
 		}
 		
+		if (!baseEncoded) {
+			throw new IllegalArgumentException("mkNextSolution needs the constraints of a previous call to mkConstraints");
+		}
+		
+		this.solution = prev;
+		encodeSolution();
+		
 		return constructSFT(debug);
 	}
 	
+	/*
+	 * Up to k distinct solutions, each one blocked before looking for the next. 
+	 * Fewer than k are returned if the constraints run out of solutions
+	 */
+	public List<Pair<SFT<CharPred, CharFunc, Character>, Long>> mkSolutions(int k, String smtFile, boolean debug) throws TimeoutException {
+		List<Pair<SFT<CharPred, CharFunc, Character>, Long>> solutions = new ArrayList<Pair<SFT<CharPred, CharFunc, Character>, Long>>();
+		if (k <= 0) return solutions;
+		
+		Pair<SFT<CharPred, CharFunc, Character>, Long> res = mkConstraints(smtFile, debug);
+		while (status == Status.SATISFIABLE) {
+			solutions.add(res);
+			if (solutions.size() == k) break;
+			
+			res = mkNextSolution(res.first, debug);
+		}
+		
+		return solutions;
+	}
+	
+	public int getMinimalDistance() {
+		return minimalDistance;
+	}
+	
+	/* Whether getMinimalDistance() is the smallest distance, and not only the smallest one found */
+	public boolean isMinimalProven() {
+		return minimalProven;
+	}
+	
+	/* Assumption literals for the next check */
+	Expr<BoolSort>[] assumptions() {
+		List<Expr<BoolSort>> literals = new ArrayList<Expr<BoolSort>>();
+		if (stateGuard != null) literals.add(stateGuard);
+		if (distanceLimit != null) literals.add(distanceLimit);
+		
+		@SuppressWarnings("unchecked")
+		Expr<BoolSort>[] res = literals.toArray(new Expr[literals.size()]);
+		return res;
+	}
 	
 	public Pair<SFT<CharPred, CharFunc, Character>, Long> constructSFT(boolean debug) throws TimeoutException {
 		/* Reconstruct transducer */
@@ -1063,7 +1557,9 @@ public class ConstraintsSolver {
 		
 		long startTime = System.nanoTime();
 		long stopTime = 0; 	// gets set later
-		if (solver.check() == Status.SATISFIABLE) {
+		setLimits();
+		status = solver.check(assumptions());
+		if (status == Status.SATISFIABLE) {
 			Model m = solver.getModel();
 			stopTime = System.nanoTime();
 			
@@ -1072,25 +1568,25 @@ public class ConstraintsSolver {
 				
 				/* d1 and d2 */	
 				for (int q1 = 0; q1 < numStates; q1++) {
-					BitVecExpr state = (BitVecNum) ctx.mkNumeral(q1, BV);
+					BitVecExpr state = terms.mkNumeral(q1);
 					
 					for (int move : alphabetMap.values())  { 
 						Character input = revAlphabetMap.get(move);
-						BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV); 
+						BitVecExpr a = terms.mkNumeral(move); 
 						
 						/* get state to */
-						Expr<BitVecSort> d2exp = d2.apply(state, a);
+						Expr<BitVecSort> d2exp = terms.apply(d2, state, a);
 						int q2 = ((BitVecNum) m.evaluate(d2exp, false)).getInt();
 						
 						/* output_len */
-						Expr<BitVecSort> outputLenExpr = out_len.apply(state, a);
+						Expr<BitVecSort> outputLenExpr = terms.apply(out_len, state, a);
 						int outputLen = ((BitVecNum) m.evaluate(outputLenExpr, false)).getInt();
 						
 						/* get output */
 						StringBuilder outputStr = new StringBuilder("");
 						for (int i = 0; i < outputLen; i++) {
-							BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-							Expr<BitVecSort> d1exp = d1.apply(state, a, index);
+							BitVecExpr index = terms.mkNumeral(i);
+							Expr<BitVecSort> d1exp = terms.apply(d1, state, a, index);
 							int outMove = ((BitVecNum) m.evaluate(d1exp, false)).getInt();
 							Character output = revAlphabetMap.get(outMove);
 							outputStr.append(output);
@@ -1100,7 +1596,7 @@ public class ConstraintsSolver {
 						System.out.println("d(" + q1 + ", " + input + ", " + outputStr + ", " + q2 + ")");
 						
 						/* edit-distance of transitions */
-						Expr<BitVecSort> edDistExpr = edDist.apply(state, a);
+						Expr<BitVecSort> edDistExpr = terms.apply(edDist, state, a);
 						int editDist = ((BitVecNum) m.evaluate(edDistExpr, false)).getInt();
 						System.out.println("edit-distance(" + q1 + ", " + input + ", " + outputStr + ") = " + editDist);
 					}
@@ -1110,12 +1606,12 @@ public class ConstraintsSolver {
 				for (int i = 0; i < numStates; i++) {
 					for (Integer sourceState : source.getStates()) {
 						for (Integer targetState : target.getStates()) {
-							BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-							BitVecNum stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-							BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
+							BitVecExpr sourceInt = terms.mkNumeral(sourceState);
+							BitVecNum stateInt = terms.mkNumeral(i);
+							BitVecExpr targetInt = terms.mkNumeral(targetState);
 								
-							Expr exp1 = x.apply(sourceInt, stateInt, targetInt);
-							Expr<BitVecSort> exp2 = energy.apply(sourceInt, stateInt, targetInt);
+							Expr exp1 = terms.apply(x, sourceInt, stateInt, targetInt);
+							Expr<BitVecSort> exp2 = terms.apply(energy, sourceInt, stateInt, targetInt);
 							if (m.evaluate(exp1, false).isTrue()) {
 								System.out.println("x(" + sourceState + ", " + stateInt.getInt() + ", " + targetState + ")");
 								int energyVal = ((BitVecNum) m.evaluate(exp2, false)).getInt();
@@ -1129,101 +1625,13 @@ public class ConstraintsSolver {
 				/* values of e(i) */
 		    }
 			
-			/* Add transitions to FT */
-			if (template != null) {
-				/* Only add 'relevant' transitions */
-				for (SFAMove<CharPred, Character> transition : template.getTransitions()) { 	
-					Integer stateFrom = transition.from;
-					Character move = transition.getWitness(ba);
-					Integer stateTo = transition.to;
-					
-					BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
-					
-					/* output_len */
-					Expr<BitVecSort> outputLenExpr = out_len.apply(q1, a);
-					BitVecNum outputLenNum = (BitVecNum) m.evaluate(outputLenExpr, false);
-					int outputLen = outputLenNum.getInt();
-								
-					/* get output */
-					List<CharFunc> outputFunc = new ArrayList<CharFunc>();
-					for (int i = 0; i < outputLen; i++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-						Expr<BitVecSort> d1exp = d1.apply(q1, a, index);
-						BitVecNum outMoveNum = (BitVecNum) m.evaluate(d1exp, false);
-						int outMove = outMoveNum.getInt();
-						Character output = revAlphabetMap.get(outMove);
-						outputFunc.add(new CharConstant(output));
-					}
-								
-					SFTInputMove<CharPred, CharFunc, Character> newTrans = new SFTInputMove<CharPred, CharFunc, Character>(stateFrom, stateTo, new CharPred(move), outputFunc);
-					transitionsFT.add(newTrans);
-				}
-				
-			} else if (ftTemplate != null) {
-				/* Only add transitions of ftTemplate */
-				FST<Character, Character> aut = ftTemplate.getAut();
-				for (FSTMove<Character, Character> transition : aut.getTransitionsFrom(aut.getStates())) {
-					Integer stateFrom = transition.from;
-					Integer stateTo = transition.to;
-					Character move = transition.input;
-					
-					BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
-					
-					/* output_len */
-					Expr<BitVecSort> outputLenExpr = out_len.apply(q1, a);
-					BitVecNum outputLenNum = (BitVecNum) m.evaluate(outputLenExpr, false);
-					int outputLen = outputLenNum.getInt();
-								
-					/* get output */
-					List<CharFunc> outputFunc = new ArrayList<CharFunc>();
-					for (int i = 0; i < outputLen; i++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-						Expr<BitVecSort> d1exp = d1.apply(q1, a, index);
-						BitVecNum outMoveNum = (BitVecNum) m.evaluate(d1exp, false);
-						int outMove = outMoveNum.getInt();
-						Character output = revAlphabetMap.get(outMove);
-						outputFunc.add(new CharConstant(output));
-					}
-								
-					SFTInputMove<CharPred, CharFunc, Character> newTrans = new SFTInputMove<CharPred, CharFunc, Character>(stateFrom, stateTo, new CharPred(move), outputFunc);
-					transitionsFT.add(newTrans);
-				}
-				
-			} else {
-				for (int q1 = 0; q1 < numStates; q1++) {
-					for (int move : alphabetMap.values())  { 
-						Character input = revAlphabetMap.get(move);
-						BitVecExpr state = (BitVecNum) ctx.mkNumeral(q1, BV);
-						BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV); 
-							
-						/* get state to */
-						Expr<BitVecSort> d2exp = d2.apply(state, a);
-						BitVecNum q2num = (BitVecNum) m.evaluate(d2exp, false);
-						int q2 = q2num.getInt();
-										
-						/* output_len */
-						Expr<BitVecSort> outputLenExpr = out_len.apply(state, a);
-						BitVecNum outputLenNum = (BitVecNum) m.evaluate(outputLenExpr, false);
-						int outputLen = outputLenNum.getInt();
-										
-						/* get output */
-						List<CharFunc> outputFunc = new ArrayList<CharFunc>();
-						for (int i = 0; i < outputLen; i++) {
-							BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-							Expr<BitVecSort> d1exp = d1.apply(state, a, index);
-							BitVecNum outMoveNum = (BitVecNum) m.evaluate(d1exp, false);
-							int outMove = outMoveNum.getInt();
-							Character output = revAlphabetMap.get(outMove);
-							outputFunc.add(new CharConstant(output));
-						}
-										
-						SFTInputMove<CharPred, CharFunc, Character> newTrans = new SFTInputMove<CharPred, CharFunc, Character>(q1, q2, new CharPred(input), outputFunc);
-						transitionsFT.add(newTrans);
-					}
-				}
-			}
+			/* Read d2, out_len and d1 from the model in one pass */
+			int numChars = alphabetMap.size();
+			int[] d2Values = terms.funcValues(m, d2, numStates, numChars);
+			int[] outLenValues = terms.funcValues(m, out_len, numStates, numChars);
+			int[] d1Values = terms.funcValues(m, d1, numStates, numChars, outputBound);
+			
+			addTransitions(transitionsFT, d2Values, outLenValues, d1Values, revAlphabetMap);
 			
 		} else {
 			stopTime = System.nanoTime();
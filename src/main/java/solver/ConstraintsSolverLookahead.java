@@ -66,6 +66,8 @@ public class ConstraintsSolverLookahead {
 	
 	/* Sorts and FuncDecls */
 	BitVecSort BV;
+	int bitWidth;		// width of BV, computed from the problem size if 0
+	TermCache terms;	// numerals and applications of the functions below, built once
 	Sort B;
 	
 	BitVecExpr numStatesInt;
@@ -87,10 +89,11 @@ public class ConstraintsSolverLookahead {
 	
 	/* BV Pair Datatype */
 	TupleSort pair;
+	FuncDecl<TupleSort> mkPair;	// constructor
 	FuncDecl first;	// projections
 	FuncDecl second;
 	FuncDecl[] eFuncs;
-	FuncDecl[] rFuncs;
+	BitVecExpr[][] rVars; 	// rVars[k][i] is the lookahead state of example k at position i
 	
 	/* delta of lookaheadAut */
 	FuncDecl<BitVecSort> dL;
@@ -148,42 +151,56 @@ public class ConstraintsSolverLookahead {
 		return arr;
 	}
 	
+	/* Fixes the width of the bit-vectors instead of computing it in mkConstraints */
+	public void setBitWidth(int bitWidth) {
+		this.bitWidth = bitWidth;
+	}
+	
+	/*
+	 * The lookahead automaton reads the input right to left, so x(q_R, q, q_T, s) holds when the remaining suffix 
+	 * leads it to s. The next character a is then read with the lookahead state q_L for which d_L(q_L, a) = s, 
+	 * i.e., s is determined by q_L and a and only q_L needs to be enumerated
+	 */
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public void encodeTypes() throws TimeoutException {
 		
-		/* initial states: \bigvee_{q_L} x(q^0_R, q^0, q^0_T, q_L) */
+		/* initial states: \bigvee_{s} x(q^0_R, q^0, q^0_T, s) */
 		Expr bigOr = ctx.mkFalse();
 		for (int i = 0; i < numLookaheadStates; i++) {
-			BitVecExpr sourceInit = (BitVecNum) ctx.mkNumeral(source.getInitialState(), BV);
-			BitVecExpr targetInit = (BitVecNum) ctx.mkNumeral(target.getInitialState(), BV);
-			BitVecExpr qL = (BitVecNum) ctx.mkNumeral(i, BV);
-			Expr res = x.apply(sourceInit, zero, targetInit, qL);
+			BitVecExpr sourceInit = terms.mkNumeral(source.getInitialState());
+			BitVecExpr targetInit = terms.mkNumeral(target.getInitialState());
+			BitVecExpr s = terms.mkNumeral(i);
+			Expr res = terms.apply(x, sourceInit, zero, targetInit, s);
 			bigOr = ctx.mkOr(bigOr, res);
 		}
 		solver.add(bigOr);
 		
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.mkNumeral(i);
 			
 			for (int j = 0; j < numLookaheadStates; j++) {
-				BitVecExpr qL = (BitVecNum) ctx.mkNumeral(j, BV);
+				BitVecExpr qL = terms.mkNumeral(j);
 				
 				for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 					Integer stateFrom = sourceTransition.from;
 					Character move = sourceTransition.getWitness(ba);
-					BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+					BitVecExpr qR = terms.mkNumeral(stateFrom);
+					BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
 
 					/* out_len(q, qL, a) */
-					Expr outLenExpr = out_len.apply(q, qL, a);
+					Expr outLenExpr = terms.apply(out_len, q, qL, a);
 
 					/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-					Expr qRPrime = dR.apply(qR, a);
+					Expr qRPrime = terms.apply(dR, qR, a);
 
 
 					/* make variable q' = d2(q, qL, a) */
-					Expr qPrime = d2.apply(q, qL, a);
+					Expr qPrime = terms.apply(d2, q, qL, a);
+					
+					
+					/* s = d_L(qL, a), the lookahead state of the suffix that starts with a */
+					Expr s = terms.apply(dL, qL, a);
 
 
 					/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
@@ -192,13 +209,13 @@ public class ConstraintsSolverLookahead {
 					Expr[] outputChars = new Expr[outputBound];
 
 					for (int l = 0; l < outputBound; l++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-						Expr d1exp = d1.apply(q, qL, a, index);
+						BitVecExpr index = terms.mkNumeral(l);
+						Expr d1exp = terms.apply(d1, q, qL, a, index);
 						outputChars[l] = d1exp;
 					}
 
 					for (Integer targetFrom : target.getStates()) {
-						BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
+						BitVecExpr qT = terms.mkNumeral(targetFrom);
 
 
 						/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
@@ -206,74 +223,59 @@ public class ConstraintsSolverLookahead {
 						/* make array of destination states in target */
 						Expr[] dstStates = new Expr[outputBound];
 
-						dstStates[0] = dT.apply(qT, outputChars[0]);
+						dstStates[0] = terms.apply(dT, qT, outputChars[0]);
 						for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
-							dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]); // changed to l from l-1
+							dstStates[l] = terms.apply(dT, dstStates[l - 1], outputChars[l]); // changed to l from l-1
 						}
 
 
-						/* x(q_R, q, q_T, q_L) */
-						Expr xExpr = x.apply(qR, q, qT, qL);
-						
-						
-						for (int k = 0; k < numLookaheadStates; k++) {
-							BitVecExpr qLPrime = (BitVecNum) ctx.mkNumeral(j, BV);
-							
-							/* d_L(qL', a) = qL */
-							Expr previousStateExp = dL.apply(qLPrime, a);
-							Expr invExpr = ctx.mkEq(previousStateExp, qL);
+						/* x(q_R, q, q_T, d_L(q_L, a)) */
+						Expr xExpr = terms.apply(x, qR, q, qT, s);
 
-							/* expressions for implications: out_len(q, qL, a) = 0 ==> x(qR', q', qT, qL') */
+						/* expressions for implications: out_len(q, qL, a) = 0 ==> x(qR', q', qT, qL) */
 
-							/* special case for 0 */
-							Expr lenEq = ctx.mkEq(outLenExpr, zero);
-							Expr xExprPrime = x.apply(qRPrime, qPrime, qT, qLPrime);
-
-							Expr c = ctx.mkImplies(lenEq, xExprPrime);
+						/* special case for 0 */
+						Expr lenEq = ctx.mkEq(outLenExpr, zero);
+						Expr xExprPrime = terms.apply(x, qRPrime, qPrime, qT, qL);
 
+						Expr c = ctx.mkImplies(lenEq, xExprPrime);
 
-							/* loop for the rest */
-							Expr consequent = c;
-							for (int l = 0; l < outputBound; l++) {
-								int outputLength = l + 1;
-								lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputLength, BV));
-								xExprPrime = x.apply(qRPrime, qPrime, dstStates[l], qLPrime);
 
-								c = ctx.mkImplies(lenEq, xExprPrime);
-								consequent = ctx.mkAnd(consequent, c);
-							}
+						/* loop for the rest */
+						Expr consequent = c;
+						for (int l = 0; l < outputBound; l++) {
+							int outputLength = l + 1;
+							lenEq = ctx.mkEq(outLenExpr, terms.mkNumeral(outputLength));
+							xExprPrime = terms.apply(x, qRPrime, qPrime, dstStates[l], qL);
 
-							/* make big constraint */
-							Expr antecedent = ctx.mkAnd(xExpr, invExpr);
-							solver.add(ctx.mkImplies(antecedent, consequent));
+							c = ctx.mkImplies(lenEq, xExprPrime);
+							consequent = ctx.mkAnd(consequent, c);
 						}
-						
+
+						/* make big constraint */
+						solver.add(ctx.mkImplies(xExpr, consequent));
 					}
 				}
 			}
 		}
 		
-		/* x(q_R, q, q_T, q_L) /\ f_R(q_R) /\ q_L = q^0_L -> f_T(q_T) */
+		/* x(q_R, q, q_T, q^0_L) /\ f_R(q_R) -> f_T(q_T), the suffix is empty at the end of the input */
 		for (int i = 0; i < numStates; i++) {
-			for (int j = 0; j < numLookaheadStates; j++) {
-				for (Integer sourceState : source.getStates()) {
-					for (Integer targetState : target.getStates()) {
-						BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-						BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-						BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
-						BitVecExpr lookaheadInt = (BitVecNum) ctx.mkNumeral(j, BV);
+			for (Integer sourceState : source.getStates()) {
+				for (Integer targetState : target.getStates()) {
+					BitVecExpr sourceInt = terms.mkNumeral(sourceState);
+					BitVecExpr stateInt = terms.mkNumeral(i);
+					BitVecExpr targetInt = terms.mkNumeral(targetState);
 
-						Expr xExpr = x.apply(sourceInt, stateInt, targetInt, lookaheadInt);
-						Expr fRExp = f_R.apply(sourceInt);
-						Expr lookaheadEq = ctx.mkEq(lookaheadInt, zero);
-						Expr antecedent = ctx.mkAnd(xExpr, fRExp, lookaheadEq);
+					Expr xExpr = terms.apply(x, sourceInt, stateInt, targetInt, zero);
+					Expr fRExp = terms.apply(f_R, sourceInt);
+					Expr antecedent = ctx.mkAnd(xExpr, fRExp);
 
-						Expr fTExp = f_T.apply(targetInt);
-						Expr consequent = fTExp;
+					Expr fTExp = terms.apply(f_T, targetInt);
+					Expr consequent = fTExp;
 
-						Expr c = ctx.mkImplies(antecedent, consequent);
-						solver.add(c);
-					}
+					Expr c = ctx.mkImplies(antecedent, consequent);
+					solver.add(c);
 				}
 			}
 		}
@@ -285,22 +287,22 @@ public class ConstraintsSolverLookahead {
 		/* edit-distance constraints of individual transitions */
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.mkNumeral(i);
 			
 			for (int j = 0; j < numLookaheadStates; j++) {
-				BitVecExpr qL = (BitVecNum) ctx.mkNumeral(j, BV);
+				BitVecExpr qL = terms.mkNumeral(j);
 				
 				for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 					Integer stateFrom = sourceTransition.from;
 					Character move = sourceTransition.getWitness(ba);
-					BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+					BitVecExpr qR = terms.mkNumeral(stateFrom);
+					BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
 
 					/* make variable out_len(q, qL, a) */
-					Expr outLenExpr = out_len.apply(q, qL, a);
+					Expr outLenExpr = terms.apply(out_len, q, qL, a);
 
 					/* make variable ed_dist(q, qL, a) */
-					Expr edDistExpr = edDist.apply(q, qL, a);
+					Expr edDistExpr = terms.apply(edDist, q, qL, a);
 
 					/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
 
@@ -311,8 +313,8 @@ public class ConstraintsSolverLookahead {
 					Expr disjunct = ctx.mkFalse();
 
 					for (int l = 0; l < outputBound; l++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-						Expr d1exp = d1.apply(q, qL, a, index);
+						BitVecExpr index = terms.mkNumeral(l);
+						Expr d1exp = terms.apply(d1, q, qL, a, index);
 						outputChars[l] = d1exp;
 						Expr lt = ctx.mkBVSLT(index, outLenExpr);
 						Expr eq = ctx.mkEq(a, d1exp);
@@ -324,12 +326,12 @@ public class ConstraintsSolverLookahead {
 
 					/* (k = 0) ==> ed_dist(q, qL, a) = 1 */
 					Expr lenEq = ctx.mkEq(outLenExpr, zero);
-					Expr edDistEqOne = ctx.mkEq(edDistExpr, ctx.mkNumeral(1, BV));
+					Expr edDistEqOne = ctx.mkEq(edDistExpr, terms.mkNumeral(1));
 					Expr impl1 = ctx.mkImplies(lenEq, edDistEqOne);
 
 					/* \neg (k = 0) ==> ed_dist(q, qL, a) = k - 1 */
 					Expr lenNotZero = ctx.mkNot(lenEq);
-					Expr edDistKMinus1 = ctx.mkEq(edDistExpr, ctx.mkBVSub(outLenExpr, ctx.mkNumeral(1, BV))); 	
+					Expr edDistKMinus1 = ctx.mkEq(edDistExpr, ctx.mkBVSub(outLenExpr, terms.mkNumeral(1))); 	
 					Expr impl2 = ctx.mkImplies(lenNotZero, edDistKMinus1);
 
 					/* \neg (k = 0) ==> ed_dist(q, qL, a) = k */
@@ -348,29 +350,29 @@ public class ConstraintsSolverLookahead {
 		}
 		
 		/* C(q^0_R, q^0, q^0_T) = 0 */
-		solver.add(ctx.mkEq(energy.apply(zero, zero, zero), zero));
+		solver.add(ctx.mkEq(terms.apply(energy, zero, zero, zero), zero));
 		
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.mkNumeral(i);
 			
 			for (int j = 0; j < numLookaheadStates; j++) {
-				BitVecExpr qL = (BitVecNum) ctx.mkNumeral(j, BV);
+				BitVecExpr qL = terms.mkNumeral(j);
 				
 				for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 					Integer stateFrom = sourceTransition.from;
 					Character move = sourceTransition.getWitness(ba);
-					BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+					BitVecExpr qR = terms.mkNumeral(stateFrom);
+					BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
 
 					/* out_len(q, qL, a) */
-					Expr outLenExpr = out_len.apply(q, qL, a);
+					Expr outLenExpr = terms.apply(out_len, q, qL, a);
 
 					/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-					Expr qRPrime = dR.apply(qR, a);
+					Expr qRPrime = terms.apply(dR, qR, a);
 
 
 					/* make variable q' = d2(q, qL, a) */
-					Expr qPrime = d2.apply(q, qL, a);
+					Expr qPrime = terms.apply(d2, q, qL, a);
 
 
 					/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
@@ -379,21 +381,21 @@ public class ConstraintsSolverLookahead {
 					Expr[] outputChars = new Expr[outputBound];
 
 					for (int l = 0; l < outputBound; l++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-						Expr d1exp = d1.apply(q, qL, a, index);
+						BitVecExpr index = terms.mkNumeral(l);
+						Expr d1exp = terms.apply(d1, q, qL, a, index);
 						outputChars[l] = d1exp;
 					}
 
 					/* ed_dist(q, qL, a) */
-					Expr edDistExpr = edDist.apply(q, qL, a);
+					Expr edDistExpr = terms.apply(edDist, q, qL, a);
 
 					/* m - (n x ed_dist(q, qL, a)) */
-					BitVecExpr m = (BitVecNum) ctx.mkNumeral(distance[0], BV); 
-					BitVecExpr n = (BitVecNum) ctx.mkNumeral(distance[1], BV);
+					BitVecExpr m = terms.mkNumeral(distance[0]); 
+					BitVecExpr n = terms.mkNumeral(distance[1]);
 					BitVecExpr diff = ctx.mkBVSub(m, ctx.mkBVMul(n, edDistExpr));
 
 					for (Integer targetFrom : target.getStates()) {
-						BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
+						BitVecExpr qT = terms.mkNumeral(targetFrom);
 
 
 						/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
@@ -401,13 +403,13 @@ public class ConstraintsSolverLookahead {
 						/* make array of destination states in target */
 						Expr[] dstStates = new Expr[outputBound];
 
-						dstStates[0] = dT.apply(qT, outputChars[0]);
+						dstStates[0] = terms.apply(dT, qT, outputChars[0]);
 						for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
-							dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]); // changed to l from l-1
+							dstStates[l] = terms.apply(dT, dstStates[l - 1], outputChars[l]); // changed to l from l-1
 						}
 
 						/* C(q_R, q, q_T) */
-						Expr cExpr = energy.apply(qR, q, qT);
+						Expr cExpr = terms.apply(energy, qR, q, qT);
 
 						/* expressions for implications: out_len(q, qL, a) = 0 ==> 
 						 * C(q_R, q, q_T) >= C(qRPrime, qPrime, qT) - diff */
@@ -416,7 +418,7 @@ public class ConstraintsSolverLookahead {
 						Expr lenEq = ctx.mkEq(outLenExpr, zero);
 
 						/* C(q_R, q, q_T) >= C(qRPrime, qPrime, qT) - diff */
-						Expr cExprPrime = energy.apply(qRPrime, qPrime, qT);
+						Expr cExprPrime = terms.apply(energy, qRPrime, qPrime, qT);
 						Expr cGreaterExpr = ctx.mkBVSGE(cExpr, ctx.mkBVSub(cExprPrime, diff));
 
 						Expr c = ctx.mkImplies(lenEq, cGreaterExpr);
@@ -426,9 +428,9 @@ public class ConstraintsSolverLookahead {
 						/* loop for the rest */
 						for (int l = 0; l < outputBound; l++) {
 							int outputLength = l + 1;
-							lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputLength, BV));
+							lenEq = ctx.mkEq(outLenExpr, terms.mkNumeral(outputLength));
 
-							cExprPrime = energy.apply(qRPrime, qPrime, dstStates[l]);
+							cExprPrime = terms.apply(energy, qRPrime, qPrime, dstStates[l]);
 							cGreaterExpr = ctx.mkBVSGE(cExpr, ctx.mkBVSub(cExprPrime, diff));
 
 							c = ctx.mkImplies(lenEq, cGreaterExpr);
@@ -445,16 +447,16 @@ public class ConstraintsSolverLookahead {
 			for (int j = 0; j < numLookaheadStates; j++) {
 				for (Integer sourceState : source.getStates()) {
 					for (Integer targetState : target.getStates()) {
-						BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-						BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-						BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
-						BitVecExpr lookaheadInt = (BitVecNum) ctx.mkNumeral(j, BV);
+						BitVecExpr sourceInt = terms.mkNumeral(sourceState);
+						BitVecExpr stateInt = terms.mkNumeral(i);
+						BitVecExpr targetInt = terms.mkNumeral(targetState);
+						BitVecExpr lookaheadInt = terms.mkNumeral(j);
 
-						Expr xExpr = x.apply(sourceInt, stateInt, targetInt, lookaheadInt);
-						Expr fRExp = f_R.apply(sourceInt);
+						Expr xExpr = terms.apply(x, sourceInt, stateInt, targetInt, lookaheadInt);
+						Expr fRExp = terms.apply(f_R, sourceInt);
 						Expr antecedent = ctx.mkAnd(xExpr, fRExp);
 
-						Expr cExpr = energy.apply(sourceInt, stateInt, targetInt);
+						Expr cExpr = terms.apply(energy, sourceInt, stateInt, targetInt);
 						Expr cGreaterExp = ctx.mkBVSGE(cExpr, zero);
 						Expr consequent = cGreaterExp;
 
@@ -470,9 +472,7 @@ public class ConstraintsSolverLookahead {
 	public void encodeExamples() throws TimeoutException {
 		/* example constraints */
 		eFuncs = new FuncDecl[ioExamples.size()];
-		rFuncs = new FuncDecl[ioExamples.size()];
-		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
-		
+		rVars = new BitVecExpr[ioExamples.size()][];
 		int exampleCount = 0;
 		for (Pair<String, String> ioExample : ioExamples) {
 			/* verify example */
@@ -483,26 +483,29 @@ public class ConstraintsSolverLookahead {
 			int[] outputArr = stringToIntArray(alphabetMap, ioExample.second);
 			
 			int inputLen = ioExample.first.length();
-			BitVecExpr inputLength = (BitVecNum) ctx.mkNumeral(inputLen, BV);
+			BitVecExpr inputLength = terms.mkNumeral(inputLen);
 			int outputLen = ioExample.second.length();
-			BitVecExpr outputLength = (BitVecNum) ctx.mkNumeral(outputLen, BV);
+			BitVecExpr outputLength = terms.mkNumeral(outputLen);
 			
-			/* declare function r_k: Z -> Q_L */
-			rFuncs[exampleCount] = ctx.mkFuncDecl("r " + String.valueOf(exampleCount), BV, BV);
-			FuncDecl r = rFuncs[exampleCount];
+			/* one variable r_k(i) per position, so that the terms stay shallow for long examples */
+			BitVecExpr[] r = new BitVecExpr[inputLen];
+			rVars[exampleCount] = r;
+			for (int l = 0; l < inputLen; l++) {
+				r[l] = ctx.mkBVConst("r " + String.valueOf(exampleCount) + " " + String.valueOf(l), BV.getSize());
+				
+				/* 0 <= r_k(l) < numLookaheadStates */
+				solver.add(ctx.mkBVSLE(zero, r[l]));
+				solver.add(ctx.mkBVSLT(r[l], numLookaheadStatesInt));
+			}
 			
-			/* encode values of reverse run */
-			Expr previousState = zero;
-			Expr rExpr = r.apply(ctx.mkNumeral(inputLen - 1, BV));
-			solver.add(ctx.mkEq(rExpr, previousState));
+			/* encode values of reverse run: r_k(l1 - 1) = q^0_L and r_k(l) = d_L(r_k(l + 1), input[l + 1]) */
+			if (inputLen > 0) {
+				solver.add(ctx.mkEq(r[inputLen - 1], zero));
+			}
 			
 			for (int l = inputLen - 2; l >= 0; l--) {
-				Expr character = (BitVecNum) ctx.mkNumeral(inputArr[l + 1], BV);
-				Expr nextState = dL.apply(previousState, character);
-				rExpr = r.apply(ctx.mkNumeral(l, BV));
-				
-				solver.add(ctx.mkEq(rExpr, nextState));
-				previousState = nextState;
+				Expr character = terms.mkNumeral(inputArr[l + 1]);
+				solver.add(ctx.mkEq(r[l], terms.apply(dL, r[l + 1], character)));
 			}
 			
 			/* declare function e_k: k x input_position -> (output_position, Q) */
@@ -511,18 +514,21 @@ public class ConstraintsSolverLookahead {
 			FuncDecl e = eFuncs[exampleCount];
 			
 			/* initial position : e_k(0) = (0, q_0) */
-			Expr initPair = pair.mkDecl().apply(zero, zero);
-			solver.add(ctx.mkEq(e.apply(zero), initPair));
+			Expr initPair = terms.apply(mkPair, zero, zero);
+			solver.add(ctx.mkEq(terms.apply(e, zero), initPair));
+			
+			/* output positions that can still reach outputLen, for each input position */
+			int[][] band = ConstraintsSolver.outputPositionBand(inputLen, outputLen, outputBound);
 			
-			/* 0 <= e_k(l1).first <= outputLen and 0 <= e_k(l1).second < numStates */
+			/* band[l][0] <= e_k(l1).first <= band[l][1] and 0 <= e_k(l1).second < numStates */
 			for (int l = 0; l <= inputLen; l++) {
-					Expr eExpr = e.apply((BitVecNum) ctx.mkNumeral(l, BV));
-					Expr eExprFirst = first.apply(eExpr);
-					Expr eExprSecond = second.apply(eExpr);
+					Expr eExpr = terms.apply(e, terms.mkNumeral(l));
+					Expr eExprFirst = terms.apply(first, eExpr);
+					Expr eExprSecond = terms.apply(second, eExpr);
 					
 					/* restrict values of first */
-					solver.add(ctx.mkBVSLE(zero, eExprFirst));
-					solver.add(ctx.mkBVSLE(eExprFirst, outputLength));
+					solver.add(ctx.mkBVSLE(terms.mkNumeral(band[l][0]), eExprFirst));
+					solver.add(ctx.mkBVSLE(eExprFirst, terms.mkNumeral(band[l][1])));
 					
 					/* restrict values of second */
 					solver.add(ctx.mkBVSLE(zero, eExprSecond));
@@ -530,30 +536,25 @@ public class ConstraintsSolverLookahead {
 			}
 			
 			/* final position : e_k(l1).first = l2 */
-			Expr eExprFirst = first.apply(e.apply(inputLength));
+			Expr eExprFirst = terms.apply(first, terms.apply(e, inputLength));
 			solver.add(ctx.mkEq(eExprFirst, outputLength));
 			
 			for (int s = 0; s < numStates; s++) {	// q 
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(s, BV);
+				BitVecExpr q = terms.mkNumeral(s);
 				
 				for (int t = 0; t < numLookaheadStates; t++) {
-					BitVecExpr qL = (BitVecNum) ctx.mkNumeral(t, BV);
+					BitVecExpr qL = terms.mkNumeral(t);
 					
-					for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
-						Integer stateFrom = sourceTransition.from;
-						Character move = sourceTransition.getWitness(ba);
-						BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-						BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+					for (int i = 0; i < inputLen; i++) { 	// rationale: always read an input character, it's fine to have transition that reads last input char, 
+															// but output is already completely generated
+						/* the only transition that can fire at position i reads input[i+1] = a */
+						BitVecExpr a = terms.mkNumeral(inputArr[i]);
 
 						/* out_len(q, qL, a) */
-						Expr outLenExpr = out_len.apply(q, qL, a);
-
-						/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-						Expr qRPrime = dR.apply(qR, a);
-
+						Expr outLenExpr = terms.apply(out_len, q, qL, a);
 
 						/* make variable q' = d2(q, qL, a) */
-						Expr qPrime = d2.apply(q, qL, a);
+						Expr qPrime = terms.apply(d2, q, qL, a);
 
 
 						/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
@@ -562,85 +563,63 @@ public class ConstraintsSolverLookahead {
 						Expr[] outputChars = new Expr[outputBound];
 
 						for (int l = 0; l < outputBound; l++) {
-							BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-							Expr d1exp = d1.apply(q, qL, a, index);
+							BitVecExpr index = terms.mkNumeral(l);
+							Expr d1exp = terms.apply(d1, q, qL, a, index);
 							outputChars[l] = d1exp;
 						}
 
 
-						for (Integer targetFrom : target.getStates()) {
-							BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
-
-							/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
-
-							/* make array of destination states in target */
-							Expr[] dstStates = new Expr[outputBound];
-
-							dstStates[0] = dT.apply(qT, outputChars[0]);
-							for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
-								dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]);
-							}
-
-
-							for (int i = 0; i < inputLen; i++) { 	// rationale: always read an input character, it's fine to have transition that reads last input char, 
-								for (int j = 0; j <= outputLen; j++) {	// but output is already completely generated
-									BitVecExpr inputPosition = (BitVecNum) ctx.mkNumeral(i, BV);
-									BitVecExpr outputPosition = (BitVecNum) ctx.mkNumeral(j, BV);
-
-									/* input[i+1] = a */
-									BitVecExpr nextInputPosition = (BitVecNum) ctx.mkNumeral(inputArr[i], BV);
-									Expr inputEq = ctx.mkEq(nextInputPosition, a);
-
-									/* output needs be <= outputLen - j */
-									int possibleOutputLen = Math.min(outputLen - j, outputBound);
-									BitVecExpr possibleOutputLength = (BitVecNum) ctx.mkNumeral(possibleOutputLen, BV);
+						for (int j = band[i][0]; j <= band[i][1]; j++) {
+							BitVecExpr inputPosition = terms.mkNumeral(i);
+							BitVecExpr outputPosition = terms.mkNumeral(j);
 
-									Expr outputLe = ctx.mkBVSLE(outLenExpr, possibleOutputLength);
+							/* output needs be <= outputLen - j */
+							int possibleOutputLen = Math.min(outputLen - j, outputBound);
+							BitVecExpr possibleOutputLength = terms.mkNumeral(possibleOutputLen);
 
-									/* e_k(i) = (j, q) */
-									Expr eExpr = ctx.mkEq(e.apply(inputPosition), pair.mkDecl().apply(outputPosition, q));
-									
+							Expr outputLe = ctx.mkBVSLE(outLenExpr, possibleOutputLength);
 
-									/* expressions for implications: out_len(q, a) = 0 ==> e_k(i+1) = (j, q') */
-
-									/* special case for 0 */
-									Expr lenEq = ctx.mkEq(outLenExpr, zero);
-									Expr eExprPrime = ctx.mkEq(e.apply((BitVecNum) ctx.mkNumeral(i + 1, BV)), 
-											pair.mkDecl().apply(outputPosition, qPrime));
+							/* e_k(i) = (j, q) */
+							Expr eExpr = ctx.mkEq(terms.apply(e, inputPosition), terms.apply(mkPair, outputPosition, q));
+							
 
-									Expr c = ctx.mkImplies(lenEq, eExprPrime);
+							/* expressions for implications: out_len(q, a) = 0 ==> e_k(i+1) = (j, q') */
 
-									/* loop for the rest */
-									Expr consequent = ctx.mkAnd(outputLe, c);
-									for (int l = 0; l < possibleOutputLen; l++) { 
-										int outputGenLength = l + 1;
-										lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputGenLength, BV));
-										eExprPrime = ctx.mkEq(e.apply((BitVecNum) ctx.mkNumeral(i + 1, BV)), 
-												pair.mkDecl().apply((BitVecNum) ctx.mkNumeral(j + outputGenLength, BV), qPrime));
+							/* special case for 0 */
+							Expr lenEq = ctx.mkEq(outLenExpr, zero);
+							Expr eExprPrime = ctx.mkEq(terms.apply(e, terms.mkNumeral(i + 1)), 
+									terms.apply(mkPair, outputPosition, qPrime));
 
-										/* equalities */
-										Expr stringEqualities = ctx.mkTrue();
-										for (int inc = 1; inc <= outputGenLength; inc++) {
-											int index = (j + inc) - 1;
-											BitVecExpr nextPosition = (BitVecNum) ctx.mkNumeral(outputArr[index], BV);
-											Expr eq = ctx.mkEq(nextPosition, outputChars[inc - 1]);
-											stringEqualities = ctx.mkAnd(stringEqualities, eq);
-										}
+							Expr c = ctx.mkImplies(lenEq, eExprPrime);
 
-										c = ctx.mkImplies(lenEq, ctx.mkAnd(stringEqualities, eExprPrime)); 
-										consequent = ctx.mkAnd(consequent, c);
-									}
+							/* loop for the rest */
+							Expr consequent = ctx.mkAnd(outputLe, c);
+							for (int l = 0; l < possibleOutputLen; l++) { 
+								int outputGenLength = l + 1;
+								lenEq = ctx.mkEq(outLenExpr, terms.mkNumeral(outputGenLength));
+								eExprPrime = ctx.mkEq(terms.apply(e, terms.mkNumeral(i + 1)), 
+										terms.apply(mkPair, terms.mkNumeral(j + outputGenLength), qPrime));
+
+								/* equalities */
+								Expr stringEqualities = ctx.mkTrue();
+								for (int inc = 1; inc <= outputGenLength; inc++) {
+									int index = (j + inc) - 1;
+									BitVecExpr nextPosition = terms.mkNumeral(outputArr[index]);
+									Expr eq = ctx.mkEq(nextPosition, outputChars[inc - 1]);
+									stringEqualities = ctx.mkAnd(stringEqualities, eq);
+								}
 
+								c = ctx.mkImplies(lenEq, ctx.mkAnd(stringEqualities, eExprPrime)); 
+								consequent = ctx.mkAnd(consequent, c);
+							}
 
-									/* make big constraint */
-									rExpr = ctx.mkEq(r.apply(ctx.mkNumeral(i, BV)), qL);
-									Expr antecedent = ctx.mkAnd(eExpr, inputEq, rExpr);
 
-									
-									solver.add(ctx.mkImplies(antecedent, consequent));
-								}
-							}
+							/* make big constraint */
+							Expr rExpr = ctx.mkEq(r[i], qL);
+							Expr antecedent = ctx.mkAnd(eExpr, rExpr);
 
+							
+							solver.add(ctx.mkImplies(antecedent, consequent));
 						}
 					}	
 				}
@@ -652,8 +631,12 @@ public class ConstraintsSolverLookahead {
 	
 	
 	
+	/*
+	 * Constraints that do not depend on the examples: solver parameters, sorts, function declarations 
+	 * and the transition relations and final states of source and target
+	 */
 	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public Pair<FSTLookahead<Character, Character>, Long> mkConstraints(String smtFile, boolean debug) throws TimeoutException {
+	public void encodeAutomata() throws TimeoutException {
 		/* Set params */
 		Params p = ctx.mkParams();
 		p.add("smt.relevancy", 0);
@@ -662,15 +645,21 @@ public class ConstraintsSolverLookahead {
 		solver.setParameters(p);
 		
 		/* bit-vec and bool sorts */
-		BV = ctx.mkBitVecSort(8);
+		if (bitWidth == 0) {
+			int numProductStates = source.stateCount() * numStates * target.stateCount();
+			bitWidth = ConstraintsSolver.bitWidth(source, target, alphabetMap, Math.max(numStates, numLookaheadStates), outputBound, 
+					ioExamples, ConstraintsSolver.energyBound("mean", distance, numProductStates, outputBound));
+		}
+		BV = ctx.mkBitVecSort(bitWidth);
 		B = ctx.getBoolSort();
+		terms = new TermCache(ctx, BV);
 		
 		/* some useful constants */
-		numStatesInt = (BitVecNum) ctx.mkNumeral(numStates, BV);
-		numLookaheadStatesInt = (BitVecNum) ctx.mkNumeral(numLookaheadStates, BV);
-		alphabetSize = (BitVecNum) ctx.mkNumeral(alphabetMap.size(), BV);
-		zero = (BitVecNum) ctx.mkNumeral(0, BV);
-		bound = (BitVecNum) ctx.mkNumeral(outputBound, BV);
+		numStatesInt = terms.mkNumeral(numStates);
+		numLookaheadStatesInt = terms.mkNumeral(numLookaheadStates);
+		alphabetSize = terms.mkNumeral(alphabetMap.size());
+		zero = terms.mkNumeral(0);
+		bound = terms.mkNumeral(outputBound);
 		
 		/* d_R: transition relation of source */
 		Sort[] argsToDR = new Sort[]{ BV, BV };
@@ -680,15 +669,15 @@ public class ConstraintsSolverLookahead {
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
 		for (SFAMove<CharPred, Character> transition : sourceTransitions) {
 			Integer stateFrom = transition.from;
-			BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
+			BitVecExpr q1 = terms.mkNumeral(stateFrom);
 			
 			Character move = transition.getWitness(ba); // there should only be 1
-			BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+			BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
 			
 			Integer stateTo = transition.to;
-			BitVecExpr q2 = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+			BitVecExpr q2 = terms.mkNumeral(stateTo);
 			
-			Expr dexp = dR.apply(q1, a);
+			Expr dexp = terms.apply(dR, q1, a);
 			solver.add(ctx.mkEq(dexp, q2));
 		}
 		
@@ -700,23 +689,23 @@ public class ConstraintsSolverLookahead {
 		Collection<SFAMove<CharPred, Character>> targetTransitions = target.getTransitions();
 		for (SFAMove<CharPred, Character> transition : targetTransitions) {
 			Integer stateFrom = transition.from;
-			BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
+			BitVecExpr q1 = terms.mkNumeral(stateFrom);
 			
 			Character move = transition.getWitness(ba); // there should only be 1
-			BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+			BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
 			
 			Integer stateTo = transition.to;
-			BitVecExpr q2 = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+			BitVecExpr q2 = terms.mkNumeral(stateTo);
 			
-			Expr dexp = dT.apply(q1, a);
+			Expr dexp = terms.apply(dT, q1, a);
 			solver.add(ctx.mkEq(dexp, q2));
 		}
 		
 		/* declare f_R : Q -> {0, 1} */
 		f_R = ctx.mkFuncDecl("f_R", BV, B);
 		for (Integer sourceState : source.getStates()) {
-			BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-			Expr c = f_R.apply(stateInt);
+			BitVecExpr stateInt = terms.mkNumeral(sourceState);
+			Expr c = terms.apply(f_R, stateInt);
 			if (!source.isFinalState(sourceState)) c = ctx.mkNot(c);
 			solver.add(c);
 		}
@@ -724,8 +713,8 @@ public class ConstraintsSolverLookahead {
 		/* declare f_T : Q -> {0, 1} */
 		f_T = ctx.mkFuncDecl("f_T", BV, B);
 		for (Integer targetState : target.getStates()) {
-			BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
-			Expr c = f_T.apply(stateInt);
+			BitVecExpr stateInt = terms.mkNumeral(targetState);
+			Expr c = terms.apply(f_T, stateInt);
 			if (!target.isFinalState(targetState)) c = ctx.mkNot(c);
 			solver.add(c);
 		}
@@ -744,29 +733,29 @@ public class ConstraintsSolverLookahead {
 		
 		/* restrict range of d_1, d_2 and out_len */
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.mkNumeral(i);
 			
 			for (int j = 0; j < numLookaheadStates; j++) {
-				BitVecExpr qL = (BitVecNum) ctx.mkNumeral(j, BV);
+				BitVecExpr qL = terms.mkNumeral(j);
 			
 				for (int move : alphabetMap.values())  {
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV);
+					BitVecExpr a = terms.mkNumeral(move);
 
 					/* 0 <= out_len(q, a) <= l */
-					Expr outLenExpr = out_len.apply(q, qL, a);
+					Expr outLenExpr = terms.apply(out_len, q, qL, a);
 					solver.add(ctx.mkBVSLE(zero, outLenExpr));
 					solver.add(ctx.mkBVSLE(outLenExpr, bound));
 
 					/* make variable q' = d2(q, qL, a) */
-					Expr qPrime = d2.apply(q, qL, a);
+					Expr qPrime = terms.apply(d2, q, qL, a);
 
 					/* 0 <= qPrime < numStates; range only needs to be encoded once */
 					solver.add(ctx.mkBVSLE(zero, qPrime));
 					solver.add(ctx.mkBVSLT(qPrime, numStatesInt));
 
 					for (int l = 0; l < outputBound; l++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-						Expr d1exp = d1.apply(q, qL, a, index);
+						BitVecExpr index = terms.mkNumeral(l);
+						Expr d1exp = terms.apply(d1, q, qL, a, index);
 
 						/* 0 <= d1(q, qL, a, index) < alphabetSize */
 						solver.add(ctx.mkBVSLE(zero, d1exp));
@@ -779,17 +768,17 @@ public class ConstraintsSolverLookahead {
 		
 		/* d_L: Q_L x \Sigma -> Q_L */
 		Sort[] argsToDL = new Sort[]{ BV, BV };
-		dL = ctx.mkFuncDecl("d2", argsToDL, BV);
+		dL = ctx.mkFuncDecl("dL", argsToDL, BV);
 		
 		/* restrict range of d_L */
 		for (int i = 0; i < numLookaheadStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.mkNumeral(i);
 			
 			for (int move : alphabetMap.values())  {
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV);
+				BitVecExpr a = terms.mkNumeral(move);
 				
 				/* make variable q_L' = d_L(q_L, a) */
-				Expr qPrime = dL.apply(q, a);
+				Expr qPrime = terms.apply(dL, q, a);
 				
 				/* 0 <= q_L' < numLookaheadStates; range only needs to be encoded once */
 				solver.add(ctx.mkBVSLE(zero, qPrime));
@@ -815,8 +804,15 @@ public class ConstraintsSolverLookahead {
 				new Symbol[] { ctx.mkSymbol("first"), ctx.mkSymbol("second") }, // names of projection operators
 				new Sort[] { BV, BV } // types of projection operators
 			);
+		this.mkPair = pair.mkDecl();	// constructor
 		this.first = pair.getFieldDecls()[0];	// projections
 		this.second = pair.getFieldDecls()[1];
+	}
+	
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Pair<FSTLookahead<Character, Character>, Long> mkConstraints(String smtFile, boolean debug) throws TimeoutException {
+		encodeAutomata();
 		
 		
 		/* Input-Output Types Constraints */
@@ -853,20 +849,20 @@ public class ConstraintsSolverLookahead {
 			
 			/* Single-char minterm cannot output multiple-char minterm */
 			for (int i = 0; i < numStates; i++) {	// q 
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+				BitVecExpr q = terms.mkNumeral(i);
 				
 				for (int j = 0; j < numLookaheadStates; j++) {
-					BitVecExpr qL = (BitVecNum) ctx.mkNumeral(j, BV);
+					BitVecExpr qL = terms.mkNumeral(j);
 				
 					for (Character move : singleChars)  {
-						BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+						BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
 						
 						for (int l = 0; l < outputBound; l++) {
-							BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-							Expr d1exp = d1.apply(q, qL, a, index);
+							BitVecExpr index = terms.mkNumeral(l);
+							Expr d1exp = terms.apply(d1, q, qL, a, index);
 							
 							for (Character out : multipleChars) {
-								BitVecExpr b = (BitVecNum) ctx.mkNumeral(alphabetMap.get(out), BV);
+								BitVecExpr b = terms.mkNumeral(alphabetMap.get(out));
 								solver.add(ctx.mkNot(ctx.mkEq(d1exp, b)));
 							}
 						}
@@ -885,11 +881,11 @@ public class ConstraintsSolverLookahead {
 				Character move = transition.getWitness(ba);
 				Integer stateTo = transition.to;
 				
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+				BitVecExpr q = terms.mkNumeral(stateFrom);
+				BitVecExpr a = terms.mkNumeral(alphabetMap.get(move));
+				BitVecExpr qPrime = terms.mkNumeral(stateTo);
 				
-				solver.add(ctx.mkEq(d2.apply(q, a), qPrime));
+				solver.add(ctx.mkEq(terms.apply(d2, q, a), qPrime));
 			}
 		}
 		
@@ -908,26 +904,26 @@ public class ConstraintsSolverLookahead {
 				Integer stateTo = transition.to;
 				List<Character> outputs = transition.outputs;
 				
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr qL = (BitVecNum) ctx.mkNumeral(lookaheadState, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(input), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
-				BitVecExpr outputLen = (BitVecNum) ctx.mkNumeral(outputs.size(), BV);
+				BitVecExpr q = terms.mkNumeral(stateFrom);
+				BitVecExpr qL = terms.mkNumeral(lookaheadState);
+				BitVecExpr a = terms.mkNumeral(alphabetMap.get(input));
+				BitVecExpr qPrime = terms.mkNumeral(stateTo);
+				BitVecExpr outputLen = terms.mkNumeral(outputs.size());
 				
 				/* d2exp */
-				Expr d2exp = d2.apply(q, qL, a);
+				Expr d2exp = terms.apply(d2, q, qL, a);
 				negModel = ctx.mkAnd(negModel, ctx.mkEq(d2exp, qPrime));
 				
 				/* outputLenExpr */
-				Expr outputLenExpr = out_len.apply(q, qL, a);
+				Expr outputLenExpr = terms.apply(out_len, q, qL, a);
 				negModel = ctx.mkAnd(negModel, ctx.mkEq(outputLenExpr, outputLen));
 				
 				/* d1exp: iterate through outputFunc */
 				int index = 0;
 				for (Character out : outputs) {
-					BitVecExpr outMoveNum = (BitVecNum) ctx.mkNumeral(alphabetMap.get(out), BV);
+					BitVecExpr outMoveNum = terms.mkNumeral(alphabetMap.get(out));
 
-					Expr d1exp = d1.apply(q, qL, a, (BitVecNum) ctx.mkNumeral(index, BV));
+					Expr d1exp = terms.apply(d1, q, qL, a, terms.mkNumeral(index));
 					negModel = ctx.mkAnd(negModel, ctx.mkEq(d1exp, outMoveNum));
 				}
 				
@@ -938,12 +934,12 @@ public class ConstraintsSolverLookahead {
 				Character input = transition.input;
 				Integer stateTo = transition.to;
 				
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(input), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+				BitVecExpr q = terms.mkNumeral(stateFrom);
+				BitVecExpr a = terms.mkNumeral(alphabetMap.get(input));
+				BitVecExpr qPrime = terms.mkNumeral(stateTo);
 				
 				/* dLexp */
-				Expr dLexp = dL.apply(q, a);
+				Expr dLexp = terms.apply(dL, q, a);
 				negModel = ctx.mkAnd(negModel, ctx.mkEq(dLexp, qPrime));
 			}
 			
@@ -970,15 +966,13 @@ public class ConstraintsSolverLookahead {
 	
 	public FSA<Character> extractLookaheadAut(Model m) {
 		Collection<FSAMove<Character>> transitions = new HashSet<FSAMove<Character>>();
+		int numChars = alphabetMap.size();
+		int[] dLValues = terms.funcValues(m, dL, numLookaheadStates, numChars);
+		
 		for (int qL = 0; qL < numLookaheadStates; qL++) {
-			BitVecExpr stateLookahead = (BitVecNum) ctx.mkNumeral(qL, BV);
-
 			for (int move : alphabetMap.values())  { 
 				Character input = revAlphabetMap.get(move);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV);
-				
-				Expr dLexp = dL.apply(stateLookahead, a);
-				int qLPrime = ((BitVecNum) m.evaluate(dLexp, false)).getInt();
+				int qLPrime = dLValues[qL * numChars + move];
 				
 				transitions.add(new FSAMove<Character>(qL, qLPrime, input));
 			}
@@ -993,32 +987,29 @@ public class ConstraintsSolverLookahead {
 		Collection<FSTMove<Pair<Character, Integer>, Character>> transitions = 
 				new HashSet<FSTMove<Pair<Character, Integer>, Character>>();
 		
+		/* Read d2, out_len and d1 from the model in one pass */
+		int numChars = alphabetMap.size();
+		int[] d2Values = terms.funcValues(m, d2, numStates, numLookaheadStates, numChars);
+		int[] outLenValues = terms.funcValues(m, out_len, numStates, numLookaheadStates, numChars);
+		int[] d1Values = terms.funcValues(m, d1, numStates, numLookaheadStates, numChars, outputBound);
+		
 		for (int q1 = 0; q1 < numStates; q1++) {
 			for (int qL = 0; qL < numLookaheadStates; qL++) {
 			
 				for (int move : alphabetMap.values())  { 
 					Character input = revAlphabetMap.get(move);
-					BitVecExpr state = (BitVecNum) ctx.mkNumeral(q1, BV);
-					BitVecExpr stateLookahead = (BitVecNum) ctx.mkNumeral(qL, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV); 
+					int transition = (q1 * numLookaheadStates + qL) * numChars + move;
 
 					/* get state to */
-					Expr d2exp = d2.apply(state, stateLookahead, a);
-					BitVecNum q2num = (BitVecNum) m.evaluate(d2exp, false);
-					int q2 = q2num.getInt();
+					int q2 = d2Values[transition];
 
 					/* output_len */
-					Expr outputLenExpr = out_len.apply(state, stateLookahead, a);
-					BitVecNum outputLenNum = (BitVecNum) m.evaluate(outputLenExpr, false);
-					int outputLen = outputLenNum.getInt();
+					int outputLen = outLenValues[transition];
 
 					/* get output */
 					List<Character> outputs = new ArrayList<Character>();
 					for (int i = 0; i < outputLen; i++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-						Expr d1exp = d1.apply(state, stateLookahead, a, index);
-						BitVecNum outMoveNum = (BitVecNum) m.evaluate(d1exp, false);
-						int outMove = outMoveNum.getInt();
+						int outMove = d1Values[transition * outputBound + i];
 						Character output = revAlphabetMap.get(outMove);
 						outputs.add(output);
 					}
@@ -1096,26 +1087,26 @@ public class ConstraintsSolverLookahead {
 				/* d1 and d2 */	
 				for (int q1 = 0; q1 < numStates; q1++) {
 					for (int qL = 0; qL < numLookaheadStates; qL++) {
-						BitVecExpr state = (BitVecNum) ctx.mkNumeral(q1, BV);
-						BitVecExpr stateLookahead = (BitVecNum) ctx.mkNumeral(qL, BV);
+						BitVecExpr state = terms.mkNumeral(q1);
+						BitVecExpr stateLookahead = terms.mkNumeral(qL);
 
 						for (int move : alphabetMap.values())  { 
 							Character input = revAlphabetMap.get(move);
-							BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV); 
+							BitVecExpr a = terms.mkNumeral(move); 
 
 							/* get state to */
-							Expr d2exp = d2.apply(state, stateLookahead, a);
+							Expr d2exp = terms.apply(d2, state, stateLookahead, a);
 							int q2 = ((BitVecNum) m.evaluate(d2exp, false)).getInt();
 
 							/* output_len */
-							Expr outputLenExpr = out_len.apply(state, stateLookahead, a);
+							Expr outputLenExpr = terms.apply(out_len, state, stateLookahead, a);
 							int outputLen = ((BitVecNum) m.evaluate(outputLenExpr, false)).getInt();
 
 							/* get output */
 							StringBuilder outputStr = new StringBuilder("");
 							for (int i = 0; i < outputLen; i++) {
-								BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-								Expr d1exp = d1.apply(state, stateLookahead, a, index);
+								BitVecExpr index = terms.mkNumeral(i);
+								Expr d1exp = terms.apply(d1, state, stateLookahead, a, index);
 								int outMove = ((BitVecNum) m.evaluate(d1exp, false)).getInt();
 								Character output = revAlphabetMap.get(outMove);
 								outputStr.append(output);
@@ -1125,7 +1116,7 @@ public class ConstraintsSolverLookahead {
 							System.out.println("d(" + q1 + ", " + input + ", " + outputStr + ", " + q2 + ")");
 
 							/* edit-distance of transitions */
-							Expr edDistExpr = edDist.apply(state, stateLookahead, a);
+							Expr edDistExpr = terms.apply(edDist, state, stateLookahead, a);
 							int editDist = ((BitVecNum) m.evaluate(edDistExpr, false)).getInt();
 							System.out.println("edit-distance(" + q1 + ", " + input + ", " + outputStr + ") = " + editDist);
 						}
@@ -1134,13 +1125,13 @@ public class ConstraintsSolverLookahead {
 				
 				/* d_L */
 				for (int qL = 0; qL < numLookaheadStates; qL++) {
-					BitVecExpr stateLookahead = (BitVecNum) ctx.mkNumeral(qL, BV);
+					BitVecExpr stateLookahead = terms.mkNumeral(qL);
 
 					for (int move : alphabetMap.values())  { 
 						Character input = revAlphabetMap.get(move);
-						BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV);
+						BitVecExpr a = terms.mkNumeral(move);
 						
-						Expr dLexp = dL.apply(stateLookahead, a);
+						Expr dLexp = terms.apply(dL, stateLookahead, a);
 						int qLPrime = ((BitVecNum) m.evaluate(dLexp, false)).getInt();
 						
 						/* print d_L */
@@ -1151,11 +1142,11 @@ public class ConstraintsSolverLookahead {
 				/* values of r_k(i) */
 				int exampleCount = 0;
 				for (Pair<String, String> example : ioExamples) {
-					FuncDecl r = rFuncs[exampleCount];
+					BitVecExpr[] r = rVars[exampleCount];
 					String inputString = example.first;
 					
 					for (int i = 0; i < inputString.length(); i++) {
-						Expr stateLookahead = r.apply((BitVecNum) ctx.mkNumeral(i, BV));
+						Expr stateLookahead = r[i];
 						int qL = ((BitVecNum) m.evaluate(stateLookahead, false)).getInt();
 						
 						/* print */
@@ -1170,15 +1161,15 @@ public class ConstraintsSolverLookahead {
 				for (int i = 0; i < numStates; i++) {
 					for (Integer sourceState : source.getStates()) {
 						for (Integer targetState : target.getStates()) {
-							BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-							BitVecNum stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-							BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
+							BitVecExpr sourceInt = terms.mkNumeral(sourceState);
+							BitVecNum stateInt = terms.mkNumeral(i);
+							BitVecExpr targetInt = terms.mkNumeral(targetState);
 
 							for (int j = 0; j < numLookaheadStates; j++) {
-								BitVecExpr lookaheadInt = (BitVecNum) ctx.mkNumeral(j, BV);
+								BitVecExpr lookaheadInt = terms.mkNumeral(j);
 								
-								Expr exp1 = x.apply(sourceInt, stateInt, targetInt, lookaheadInt);
-								Expr exp2 = energy.apply(sourceInt, stateInt, targetInt);
+								Expr exp1 = terms.apply(x, sourceInt, stateInt, targetInt, lookaheadInt);
+								Expr exp2 = terms.apply(energy, sourceInt, stateInt, targetInt);
 								int flag = 0;
 								if (m.evaluate(exp1, false).isTrue()) {
 									System.out.println("x(" + sourceState + ", " + stateInt.getInt() + ", " + targetState + ")");
@@ -0,0 +1,534 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.sat4j.core.VecInt;
+import org.sat4j.minisat.SolverFactory;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+import org.sat4j.specs.TimeoutException;
+
+import com.microsoft.z3.Status;
+
+import automata.SFAOperations;
+import automata.fst.FSTMove;
+import automata.sfa.SFAMove;
+import theory.characters.CharConstant;
+import theory.characters.CharFunc;
+import theory.characters.CharPred;
+import transducers.sft.SFT;
+import transducers.sft.SFTInputMove;
+import transducers.sft.SFTMove;
+import utilities.Pair;
+
+/*
+ * SAT backend of ConstraintsSolver: the example and type constraints over the finite automata, encoded into CNF
+ * and solved with sat4j, without Z3. The domains are small, so every value of d2, d1 and e_k is a one-hot
+ * variable and out_len is order encoded (ge(q, a, n) iff out_len(q, a) >= n). x and e_k are relations that
+ * contain the runs of the transducer, and t(q, a, q_T, l, t) holds if the first l outputs of (q, a) lead
+ * target from q_T to t. The distance constraints need arithmetic and are not supported; target must be total
+ */
+public class ConstraintsSolverSAT {
+
+	private ConstraintsSolver c;
+	private ISolver sat;
+	private boolean unsat; 		// a contradiction was found while adding clauses
+	private String reasonUnknown; 	// of the last check, null unless it was UNKNOWN
+	private int numVars;
+
+	private int numChars;
+	private Map<Integer, Integer> sourceIds; 	// states of source and target -> 0, 1, ...
+	private Map<Integer, Integer> targetIds;
+	private int[][] targetDelta; 	// targetDelta[t][b] is the id of dT(t, b), or -1
+
+	/* First variable of each function, see the index methods below */
+	private int d2Base;
+	private int geBase;
+	private int d1Base;
+	private int xBase;
+	private int tBase;
+	private int[] eBases; 		// one per example, 0 if the example is skipped
+	private int[][][] bands;
+
+	ConstraintsSolverSAT(ConstraintsSolver c) {
+		this.c = c;
+	}
+
+	/* Encodes the constraints of c, including the solution to block if there is one, and solves them */
+	public Pair<SFT<CharPred, CharFunc, Character>, Long> solve() throws TimeoutException {
+		if (c.config == null || c.config.get(2)) {
+			throw new IllegalArgumentException("The SAT backend does not support the distance constraints");
+		}
+		if (c.template != null && c.numStates != c.template.stateCount()) {
+			throw new IllegalArgumentException("If template is provided, then numStates must be the same as the number of states in the template");
+		}
+		if (c.ftTemplate != null && c.numStates != c.ftTemplate.getAut().stateCount()) {
+			throw new IllegalArgumentException("If ftTemplate is provided, then numStates must be the same as the number of states in the template");
+		}
+
+		mkVars();
+
+		sat = SolverFactory.newDefault();
+		sat.newVar(numVars);
+		unsat = false;
+
+		encodeFunctions();
+		if (c.config.get(0)) encodeExamples();
+		if (c.config.get(1)) encodeTypes();
+		encodeMinterms();
+		encodeTemplates();
+		if (c.solution != null) block(c.solution);
+
+		return check();
+	}
+
+	/* Blocks prev, which must come from this encoding, and solves again */
+	public Pair<SFT<CharPred, CharFunc, Character>, Long> next(SFT<CharPred, CharFunc, Character> prev) throws TimeoutException {
+		block(prev);
+
+		return check();
+	}
+
+	/* Number of variables and ids of the states */
+	private void mkVars() throws TimeoutException {
+		numChars = c.alphabetMap.size();
+		int numStates = c.numStates;
+		int outputBound = c.outputBound;
+
+		sourceIds = new HashMap<Integer, Integer>();
+		for (Integer state : c.source.getStates()) {
+			sourceIds.put(state, sourceIds.size());
+		}
+		targetIds = new HashMap<Integer, Integer>();
+		for (Integer state : c.target.getStates()) {
+			targetIds.put(state, targetIds.size());
+		}
+
+		targetDelta = new int[targetIds.size()][numChars];
+		for (int[] row : targetDelta) {
+			Arrays.fill(row, -1);
+		}
+		for (SFAMove<CharPred, Character> transition : c.target.getTransitions()) {
+			Character move = transition.getWitness(c.ba);
+			targetDelta[targetIds.get(transition.from)][c.alphabetMap.get(move)] = targetIds.get(transition.to);
+		}
+
+		int numTargetStates = targetIds.size();
+		numVars = 0;
+		d2Base = numVars + 1;
+		numVars += numStates * numChars * numStates;
+		geBase = numVars + 1;
+		numVars += numStates * numChars * outputBound;
+		d1Base = numVars + 1;
+		numVars += numStates * numChars * outputBound * numChars;
+		xBase = numVars + 1;
+		numVars += sourceIds.size() * numStates * numTargetStates;
+		tBase = numVars + 1;
+		numVars += numStates * numChars * numTargetStates * (outputBound + 1) * numTargetStates;
+
+		eBases = new int[c.ioExamples.size()];
+		bands = new int[c.ioExamples.size()][][];
+		for (int k = 0; k < c.ioExamples.size(); k++) {
+			Pair<String, String> example = c.ioExamples.get(k);
+			if (!isLegal(example)) continue;
+
+			int inputLen = example.first.length();
+			int outputLen = example.second.length();
+			bands[k] = ConstraintsSolver.outputPositionBand(inputLen, outputLen, outputBound);
+			eBases[k] = numVars + 1;
+			numVars += (inputLen + 1) * (outputLen + 1) * numStates;
+		}
+	}
+
+	private boolean isLegal(Pair<String, String> example) throws TimeoutException {
+		return SFAOperations.getStateInFA(c.source, c.source.getInitialState(), example.first, c.ba) != -1 &&
+				SFAOperations.getStateInFA(c.target, c.target.getInitialState(), example.second, c.ba) != -1;
+	}
+
+	/* d2(q, a) = p */
+	private int d2(int q, int a, int p) {
+		return d2Base + (q * numChars + a) * c.numStates + p;
+	}
+
+	/* out_len(q, a) >= n, for 1 <= n <= outputBound */
+	private int ge(int q, int a, int n) {
+		return geBase + (q * numChars + a) * c.outputBound + (n - 1);
+	}
+
+	/* d1(q, a, l) = b */
+	private int d1(int q, int a, int l, int b) {
+		return d1Base + ((q * numChars + a) * c.outputBound + l) * numChars + b;
+	}
+
+	/* x(q_R, q, q_T), with the ids of q_R and q_T */
+	private int x(int qR, int q, int qT) {
+		return xBase + (qR * c.numStates + q) * targetIds.size() + qT;
+	}
+
+	/* the first l outputs of (q, a) lead target from q_T to t, with the ids of q_T and t */
+	private int t(int q, int a, int qT, int l, int t) {
+		int numTargetStates = targetIds.size();
+		return tBase + (((q * numChars + a) * numTargetStates + qT) * (c.outputBound + 1) + l) * numTargetStates + t;
+	}
+
+	/* e_k(i) = (j, q), or 0 if j is not in the band of i */
+	private int e(int k, int i, int j, int q) {
+		if (j < bands[k][i][0] || j > bands[k][i][1]) return 0;
+
+		int outputLen = c.ioExamples.get(k).second.length();
+		return eBases[k] + (i * (outputLen + 1) + j) * c.numStates + q;
+	}
+
+	/* Literals of out_len(q, a) != n */
+	private int[] lenNeq(int q, int a, int n) {
+		if (n == 0) return new int[] { ge(q, a, 1) };
+		if (n == c.outputBound) return new int[] { -ge(q, a, n) };
+		return new int[] { -ge(q, a, n), ge(q, a, n + 1) };
+	}
+
+	/* Literals of out_len(q, a) = n */
+	private int[] lenEq(int q, int a, int n) {
+		int[] neq = lenNeq(q, a, n);
+		for (int i = 0; i < neq.length; i++) {
+			neq[i] = -neq[i];
+		}
+		return neq;
+	}
+
+	/* Clause of the literals except the 0s, which stand for false */
+	private void addClause(int... literals) {
+		List<int[]> parts = new ArrayList<int[]>();
+		parts.add(literals);
+		addClause(parts);
+	}
+
+	private void addClause(List<int[]> parts) {
+		int size = 0;
+		for (int[] part : parts) {
+			for (int literal : part) {
+				if (literal != 0) size++;
+			}
+		}
+
+		int[] literals = new int[size];
+		int i = 0;
+		for (int[] part : parts) {
+			for (int literal : part) {
+				if (literal != 0) literals[i++] = literal;
+			}
+		}
+
+		if (size == 0) {
+			unsat = true;
+			return;
+		}
+		try {
+			sat.addClause(new VecInt(literals));
+		} catch (ContradictionException e) {
+			unsat = true;
+		}
+	}
+
+	private void addExactlyOne(int[] vars) {
+		try {
+			sat.addExactly(new VecInt(vars), 1);
+		} catch (ContradictionException e) {
+			unsat = true;
+		}
+	}
+
+	/* d2 and d1 are functions and ge is monotone */
+	private void encodeFunctions() {
+		for (int q = 0; q < c.numStates; q++) {
+			for (int a = 0; a < numChars; a++) {
+				int[] d2Vars = new int[c.numStates];
+				for (int p = 0; p < c.numStates; p++) {
+					d2Vars[p] = d2(q, a, p);
+				}
+				addExactlyOne(d2Vars);
+
+				for (int n = 2; n <= c.outputBound; n++) {
+					addClause(-ge(q, a, n), ge(q, a, n - 1));
+				}
+
+				for (int l = 0; l < c.outputBound; l++) {
+					int[] d1Vars = new int[numChars];
+					for (int b = 0; b < numChars; b++) {
+						d1Vars[b] = d1(q, a, l, b);
+					}
+					addExactlyOne(d1Vars);
+				}
+			}
+		}
+	}
+
+	/* e_k(0) = (0, q^0), e_k(i) = (j, q) implies e_k(i + 1) = (j + out_len(q, a), d2(q, a)) with matching outputs */
+	private void encodeExamples() throws TimeoutException {
+		for (int k = 0; k < c.ioExamples.size(); k++) {
+			Pair<String, String> example = c.ioExamples.get(k);
+			if (eBases[k] == 0) {
+				System.err.println("Illegal example: " + example.first + ", " + example.second);
+				continue;
+			}
+
+			int[] inputArr = ConstraintsSolver.stringToIntArray(c.alphabetMap, example.first);
+			int[] outputArr = ConstraintsSolver.stringToIntArray(c.alphabetMap, example.second);
+			int inputLen = inputArr.length;
+			int outputLen = outputArr.length;
+
+			/* initial position, an empty clause if the output cannot be produced */
+			addClause(e(k, 0, 0, 0));
+
+			for (int i = 0; i < inputLen; i++) {
+				int a = inputArr[i];
+
+				for (int j = bands[k][i][0]; j <= bands[k][i][1]; j++) {
+					int possibleOutputLen = Math.min(outputLen - j, c.outputBound);
+
+					for (int q = 0; q < c.numStates; q++) {
+						int eVar = e(k, i, j, q);
+
+						/* out_len(q, a) <= outputLen - j */
+						if (possibleOutputLen < c.outputBound) {
+							addClause(-eVar, -ge(q, a, possibleOutputLen + 1));
+						}
+
+						/* out_len(q, a) >= l ==> d1(q, a, l - 1) = output[j + l - 1] */
+						for (int l = 1; l <= possibleOutputLen; l++) {
+							addClause(-eVar, -ge(q, a, l), d1(q, a, l - 1, outputArr[j + l - 1]));
+						}
+
+						/* out_len(q, a) = n /\ d2(q, a) = p ==> e_k(i + 1) = (j + n, p) */
+						for (int n = 0; n <= possibleOutputLen; n++) {
+							for (int p = 0; p < c.numStates; p++) {
+								List<int[]> clause = new ArrayList<int[]>();
+								clause.add(new int[] { -eVar, -d2(q, a, p), e(k, i + 1, j + n, p) });
+								clause.add(lenNeq(q, a, n));
+								addClause(clause);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * x(q^0_R, q^0, q^0_T), x(q_R, q, q_T) /\ d2(q, a) = p /\ out_len(q, a) = n /\ t(q, a, q_T, n, t) ==> x(d_R(q_R, a), p, t)
+	 * and x(q_R, q, q_T) /\ f_R(q_R) ==> f_T(q_T)
+	 */
+	private void encodeTypes() throws TimeoutException {
+		int numTargetStates = targetIds.size();
+
+		addClause(x(sourceIds.get(c.source.getInitialState()), 0, targetIds.get(c.target.getInitialState())));
+
+		/* runs of target on the outputs of each transition */
+		for (int q = 0; q < c.numStates; q++) {
+			for (int a = 0; a < numChars; a++) {
+				for (int qT = 0; qT < numTargetStates; qT++) {
+					addClause(t(q, a, qT, 0, qT));
+
+					for (int l = 0; l < c.outputBound; l++) {
+						for (int t = 0; t < numTargetStates; t++) {
+							for (int b = 0; b < numChars; b++) {
+								int next = targetDelta[t][b];
+								if (next == -1) {
+									addClause(-t(q, a, qT, l, t), -d1(q, a, l, b));
+								} else {
+									addClause(-t(q, a, qT, l, t), -d1(q, a, l, b), t(q, a, qT, l + 1, next));
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+
+		Collection<SFAMove<CharPred, Character>> sourceTransitions = c.source.getTransitions();
+		for (int q = 0; q < c.numStates; q++) {
+			for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
+				int qR = sourceIds.get(sourceTransition.from);
+				int qRPrime = sourceIds.get(sourceTransition.to);
+				int a = c.alphabetMap.get(sourceTransition.getWitness(c.ba));
+
+				for (int qT = 0; qT < numTargetStates; qT++) {
+					for (int n = 0; n <= c.outputBound; n++) {
+						for (int p = 0; p < c.numStates; p++) {
+							for (int t = 0; t < numTargetStates; t++) {
+								List<int[]> clause = new ArrayList<int[]>();
+								clause.add(new int[] { -x(qR, q, qT), -d2(q, a, p), -t(q, a, qT, n, t), x(qRPrime, p, t) });
+								clause.add(lenNeq(q, a, n));
+								addClause(clause);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		for (Integer sourceState : c.source.getFinalStates()) {
+			for (Integer targetState : c.target.getStates()) {
+				if (c.target.isFinalState(targetState)) continue;
+
+				for (int q = 0; q < c.numStates; q++) {
+					addClause(-x(sourceIds.get(sourceState), q, targetIds.get(targetState)));
+				}
+			}
+		}
+	}
+
+	/* Single-char minterm cannot output multiple-char minterm */
+	private void encodeMinterms() throws TimeoutException {
+		if (c.idToMinterms == null) return;
+
+		Set<Character> singleChars = new HashSet<Character>();
+		Set<Character> multipleChars = new HashSet<Character>();
+		for (Character a : c.alphabet) {
+			CharPred minterm = SFAOperations.findSatisfyingMinterm(a, c.idToMinterms).first;
+			if (minterm.intervals.size() == 1) {
+				ImmutablePair<Character, Character> interval = minterm.intervals.get(0);
+				if (interval.right - interval.left == 0) {
+					singleChars.add(a);
+				} else {
+					multipleChars.add(a);
+				}
+			} else {
+				multipleChars.add(a);
+			}
+		}
+
+		for (int q = 0; q < c.numStates; q++) {
+			for (Character move : singleChars) {
+				for (int l = 0; l < c.outputBound; l++) {
+					for (Character out : multipleChars) {
+						addClause(-d1(q, c.alphabetMap.get(move), l, c.alphabetMap.get(out)));
+					}
+				}
+			}
+		}
+	}
+
+	/* d2 of the template, and d2 and d1 of the good transitions and d2 of the bad transitions of ftTemplate */
+	private void encodeTemplates() throws TimeoutException {
+		if (c.template != null) {
+			for (SFAMove<CharPred, Character> transition : c.template.getTransitions()) {
+				int a = c.alphabetMap.get(transition.getWitness(c.ba));
+				addClause(d2(transition.from, a, transition.to));
+			}
+		}
+
+		if (c.ftTemplate != null) {
+			for (FSTMove<Character, Character> transition : c.ftTemplate.getGoodTransitions()) {
+				if (transition.outputs.size() > c.outputBound) {
+					throw new IllegalArgumentException("Template includes outputs larger than permitted output bound.");
+				}
+
+				int a = c.alphabetMap.get(transition.input);
+				addClause(d2(transition.from, a, transition.to));
+
+				int l = 0;
+				for (Character out : transition.outputs) {
+					addClause(d1(transition.from, a, l, c.alphabetMap.get(out)));
+					l++;
+				}
+			}
+
+			for (FSTMove<Character, Character> transition : c.ftTemplate.getBadTransitions()) {
+				addClause(d2(transition.from, c.alphabetMap.get(transition.input), transition.to));
+			}
+		}
+	}
+
+	/* At least one of d2, out_len and d1 differs from prev on some transition */
+	private void block(SFT<CharPred, CharFunc, Character> prev) throws TimeoutException {
+		List<int[]> clause = new ArrayList<int[]>();
+
+		for (SFTInputMove<CharPred, CharFunc, Character> transition : prev.getInputMovesFrom(prev.getStates())) {
+			int q = transition.from;
+			int a = c.alphabetMap.get(transition.getWitness(c.ba));
+			List<CharFunc> outputFunc = transition.outputFunctions;
+
+			clause.add(new int[] { -d2(q, a, transition.to) });
+			clause.add(lenNeq(q, a, outputFunc.size()));
+
+			int l = 0;
+			for (CharFunc f : outputFunc) {
+				if (f != null && f instanceof CharConstant) { 	// all the CharFuncs should be constants
+					clause.add(new int[] { -d1(q, a, l, c.alphabetMap.get(((CharConstant) f).c)) });
+				}
+				l++;
+			}
+		}
+
+		addClause(clause);
+	}
+
+	/* Solves and reads the transducer from the model; sets the status of c, UNKNOWN on timeout */
+	private Pair<SFT<CharPred, CharFunc, Character>, Long> check() throws TimeoutException {
+		HashMap<Integer, Character> revAlphabetMap = ConstraintsSolver.reverseMap(c.alphabetMap);
+		Set<SFTMove<CharPred, CharFunc, Character>> transitionsFT = new HashSet<SFTMove<CharPred, CharFunc, Character>>();
+
+		long startTime = System.nanoTime();
+		reasonUnknown = null;
+		if (c.timeout > 0) sat.setTimeoutMs(c.timeout);
+		try {
+			c.status = (!unsat && sat.isSatisfiable()) ? Status.SATISFIABLE : Status.UNSATISFIABLE;
+		} catch (TimeoutException e) {
+			c.status = Status.UNKNOWN;
+			reasonUnknown = "sat4j timeout: " + e.getMessage();
+		}
+		long stopTime = System.nanoTime();
+
+		if (c.status == Status.SATISFIABLE) {
+			int[] d2Values = new int[c.numStates * numChars];
+			int[] outLenValues = new int[c.numStates * numChars];
+			int[] d1Values = new int[c.numStates * numChars * c.outputBound];
+
+			for (int q = 0; q < c.numStates; q++) {
+				for (int a = 0; a < numChars; a++) {
+					int transition = q * numChars + a;
+
+					for (int p = 0; p < c.numStates; p++) {
+						if (sat.model(d2(q, a, p))) d2Values[transition] = p;
+					}
+					for (int n = 1; n <= c.outputBound; n++) {
+						if (sat.model(ge(q, a, n))) outLenValues[transition] = n;
+					}
+					for (int l = 0; l < c.outputBound; l++) {
+						for (int b = 0; b < numChars; b++) {
+							if (sat.model(d1(q, a, l, b))) d1Values[transition * c.outputBound + l] = b;
+						}
+					}
+				}
+			}
+
+			c.addTransitions(transitionsFT, d2Values, outLenValues, d1Values, revAlphabetMap);
+		}
+
+		HashMap<Integer, Set<List<Character>>> finStates = new HashMap<Integer, Set<List<Character>>>();
+		SFT<CharPred, CharFunc, Character> mySFT = SFT.MkSFT(transitionsFT, 0, finStates, c.ba);
+
+		return new Pair<SFT<CharPred, CharFunc, Character>, Long>(mySFT, ((stopTime - startTime) / 1000000));
+	}
+
+	public String getReasonUnknown() {
+		return reasonUnknown;
+	}
+
+	public int getNumVars() {
+		return numVars;
+	}
+
+	public int getNumConstraints() {
+		return sat.nConstraints();
+	}
+
+}
@@ -0,0 +1,145 @@
+package solver;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Native;
+
+/*
+ * Pool of Z3 contexts (with model generation) for callers that solve one problem at a time on a context, e.g., a
+ * ConstraintsSolver. A context is used by a single thread between acquire and release, at most maxLive contexts
+ * exist at a time and a context is closed after maxUses uses, since the terms of earlier problems stay in its tables.
+ * Each user makes its own solvers, so a reused context starts from an empty solver
+ */
+public class ContextPool {
+
+	private final int maxLive;
+	private final int maxUses;
+
+	private Deque<Context> idle;
+	private Map<Context, Integer> uses; 	// uses of every live context
+	private boolean closed;
+
+	/* Metrics */
+	private int created;
+	private int acquired;
+	private int reused;
+	private int discarded; 		// closed before reaching maxUses
+
+	public ContextPool(int maxLive, int maxUses) {
+		if (maxLive < 1 || maxUses < 1) {
+			throw new IllegalArgumentException("maxLive and maxUses must be positive");
+		}
+
+		this.maxLive = maxLive;
+		this.maxUses = maxUses;
+		this.idle = new ArrayDeque<Context>();
+		this.uses = new IdentityHashMap<Context, Integer>();
+	}
+
+	/* Idle context, or a new one if there is none and fewer than maxLive exist; waits otherwise */
+	public synchronized Context acquire() throws InterruptedException {
+		while (!closed && idle.isEmpty() && uses.size() >= maxLive) {
+			wait();
+		}
+		if (closed) {
+			throw new IllegalStateException("Context pool is closed");
+		}
+
+		Context ctx;
+		if (!idle.isEmpty()) {
+			ctx = idle.pop();
+			reused++;
+		} else {
+			HashMap<String, String> cfg = new HashMap<String, String>();
+			cfg.put("model", "true");
+			ctx = new Context(cfg);
+			uses.put(ctx, 0);
+			created++;
+		}
+
+		uses.put(ctx, uses.get(ctx) + 1);
+		acquired++;
+		return ctx;
+	}
+
+	/* Returns ctx to the pool, or closes it if it has been used maxUses times */
+	public synchronized void release(Context ctx) {
+		if (!uses.containsKey(ctx)) {
+			throw new IllegalArgumentException("Context does not belong to the pool");
+		}
+
+		if (closed || uses.get(ctx) >= maxUses) {
+			close(ctx);
+		} else {
+			idle.push(ctx);
+		}
+		notifyAll();
+	}
+
+	/* Closes ctx instead of returning it, e.g., if a check on it was interrupted */
+	public synchronized void discard(Context ctx) {
+		if (!uses.containsKey(ctx)) {
+			throw new IllegalArgumentException("Context does not belong to the pool");
+		}
+
+		if (uses.get(ctx) < maxUses) discarded++;
+		close(ctx);
+		notifyAll();
+	}
+
+	private void close(Context ctx) {
+		uses.remove(ctx);
+		ctx.close();
+	}
+
+	/* Closes the idle contexts, and every other one when it is released */
+	public synchronized void close() {
+		closed = true;
+		while (!idle.isEmpty()) {
+			close(idle.pop());
+		}
+		notifyAll();
+	}
+
+	/* Contexts that are open, idle or in use */
+	public synchronized int getLive() {
+		return uses.size();
+	}
+
+	public synchronized int getIdle() {
+		return idle.size();
+	}
+
+	public synchronized int getCreated() {
+		return created;
+	}
+
+	public synchronized int getAcquired() {
+		return acquired;
+	}
+
+	public synchronized int getReused() {
+		return reused;
+	}
+
+	public synchronized int getDiscarded() {
+		return discarded;
+	}
+
+	/* Estimate of the memory allocated by Z3, over all contexts, in bytes */
+	public static long getNativeMemory() {
+		return Native.getEstimatedAllocSize();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("live: %d, idle: %d, created: %d, acquired: %d, reused: %d, discarded: %d, native memory: %d",
+				uses.size(), idle.size(), created, acquired, reused, discarded, getNativeMemory());
+	}
+
+}
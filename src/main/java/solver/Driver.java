@@ -9,11 +9,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -22,7 +23,9 @@ import java.util.concurrent.TimeUnit;
 import org.sat4j.specs.TimeoutException;
 
 import com.microsoft.z3.Context;
+import com.microsoft.z3.Status;
 
+import automata.MintermIndex;
 import automata.SFAOperations;
 import automata.SFTOperations;
 import automata.SFTTemplate;
@@ -39,9 +42,33 @@ public class Driver {
 	
 	private static UnaryCharIntervalSolver ba = new UnaryCharIntervalSolver();
 	
+	/* Default limit of a check in runAlgorithm, in seconds */
+	public static final long DEFAULT_TIMEOUT = 300L;
+	
+	/* How often a check that is past its deadline is interrupted again, in milliseconds */
+	private static final long INTERRUPT_INTERVAL = 100L;
+	
+	/* Finite versions of the source and target automata, reused across calls */
+	private static FinitizationCache finitizations = new FinitizationCache(32);
+	
+	public static FinitizationCache getFinitizationCache() {
+		return finitizations;
+	}
+	
+	/* Z3 contexts, reused across calls */
+	private static ContextPool contextPool = new ContextPool(2 * Runtime.getRuntime().availableProcessors(), 64);
+	
+	public static ContextPool getContextPool() {
+		return contextPool;
+	}
+	
 	/* Convert example strings to their 'finite' versions using minterms (this is duplicated) */
 	static List<Pair<String, String>> finitizeExamples(List<Pair<String, String>> ioExamples, 
 			Map<CharPred, Pair<CharPred, ArrayList<Integer>>> minterms) throws TimeoutException {
+		return finitizeExamples(ioExamples, MintermIndex.of(minterms));
+	}
+	
+	static List<Pair<String, String>> finitizeExamples(List<Pair<String, String>> ioExamples, MintermIndex minterms) throws TimeoutException {
 		List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
 		
 		for (Pair<String, String> example : ioExamples) {
@@ -65,98 +92,300 @@ public class Driver {
 		/* Start with output length = 1*/
 		int outputLength = 1;
 		
-		HashMap<String, String> cfg = new HashMap<String, String>();
-        cfg.put("model", "true");
-        Context ctx = new Context(cfg);
-		
 		// Make finite automata out of source and target
-		Triple<SFA<CharPred, Character>, SFA<CharPred, Character>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> triple = 
-				SFA.MkFiniteSFA(source, target, ba);
-		
-		SFA<CharPred, Character> sourceFinite = triple.first;
-		SFA<CharPred, Character> targetFinite = triple.second;
+		FinitizationCache.Finitization finitization = finitizations.get(source, target, null, ba);
 		
-		Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm = triple.third;
+		SFA<CharPred, Character> sourceFinite = finitization.sourceFinite;
 		
-		List<Pair<String, String>> examplesFinite = finitizeExamples(examples, idToMinterm);
+		Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm = finitization.idToMinterm;
 		
-		Set<Character> sourceAlphabetSet = SFAOperations.alphabetSet(sourceFinite, ba);
-		Set<Character> targetAlphabetSet = SFAOperations.alphabetSet(targetFinite, ba);
-		Set<Character> alphabetSet = new HashSet<Character>();
-		alphabetSet.addAll(sourceAlphabetSet);
-		alphabetSet.addAll(targetAlphabetSet);
+		List<Pair<String, String>> examplesFinite = finitizeExamples(examples, finitization.mintermIndex);
 		
-		HashMap<Character, Integer> alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
+		HashMap<Character, Integer> alphabetMap = finitization.alphabetMap;
 		
 		// Make target FA total
-		SFA<CharPred, Character> targetTotal = SFAOperations.mkTotalFinite(targetFinite, alphabetSet, ba);
+		SFA<CharPred, Character> targetTotal = finitization.targetTotal;
 		
-		ConstraintsBV c = new ConstraintsBV(ctx, sourceFinite, targetTotal, alphabetMap, ba);
+		Context ctx;
+		try {
+			ctx = contextPool.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
 		
-		while (true) {
-			/* Call solver */
-			SFT<CharPred, CharFunc, Character> mySFT = c.mkConstraints(numStates, outputLength, fraction, examplesFinite, null, null, null, false).first;
+		boolean reusable = false;
+		try {
+			/* 
+			 * Single solver for the whole search; only the constraints of new states/output lengths are added. 
+			 * No minterms, so the constraints are those of ConstraintsBV (types, distance, examples)
+			 */
+			ConstraintsSolver c = new ConstraintsSolver(ctx, sourceFinite, targetTotal, alphabetMap, numStates, outputLength, examplesFinite, "mean", fraction, null, null, null, null, null, ba);
 			
-			if (mySFT.getTransitions().size() == 0) { // if UNSAT
-				if (numStates < sourceFinite.stateCount()) {
-					numStates++;
-				} else if (outputLength < 4) { 	// too much?
-					outputLength++;
+			while (true) {
+				/* Call solver */
+				SFT<CharPred, CharFunc, Character> mySFT = c.mkConstraintsIncremental(numStates, outputLength, false).first;
+				
+				if (mySFT.getTransitions().size() == 0) { // if UNSAT
+					if (numStates < sourceFinite.stateCount()) {
+						numStates++;
+					} else if (outputLength < 4) { 	// too much?
+						outputLength++;
+					} else {
+						reusable = true;
+						return null;
+					}
 				} else {
-					return null;
+					reusable = true;
+					return SFTOperations.mintermExpansion(mySFT, idToMinterm);
 				}
+			}
+		} finally {
+			/* the context is not reused after an exception */
+			if (reusable) {
+				contextPool.release(ctx);
 			} else {
-				return SFTOperations.mintermExpansion(mySFT, triple.third);
+				contextPool.discard(ctx);
+			}
+		}
+	}
+
+	/*
+	 * Portfolio version of runBasicAlgorithm: every configuration (numStates, outputBound, fraction) is solved by its own
+	 * ConstraintsSolver on a separate Context, at most numThreads at a time. Configurations are listed in order of
+	 * increasing cost, so a SAT result is returned as soon as all configurations before it are UNSAT; the remaining
+	 * solvers are then interrupted. Returns null if every configuration is UNSAT, or the cheapest SAT result found
+	 * before the timeout (in seconds).
+	 */
+	@SuppressWarnings("unchecked")
+	public static Pair<SFT<CharPred, CharFunc, Character>, Triple<Integer, Integer, int[]>> runPortfolio(SFA<CharPred, Character> source,
+			SFA<CharPred, Character> target, List<Pair<String, String>> examples, List<Triple<Integer, Integer, int[]>> configs,
+			int numThreads, long timeout) throws TimeoutException {
+		// Make finite automata out of source and target
+		FinitizationCache.Finitization finitization = finitizations.get(source, target, null, ba);
+
+		SFA<CharPred, Character> sourceFinite = finitization.sourceFinite;
+
+		Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm = finitization.idToMinterm;
+
+		List<Pair<String, String>> examplesFinite = finitizeExamples(examples, finitization.mintermIndex);
+
+		HashMap<Character, Integer> alphabetMap = finitization.alphabetMap;
+
+		// Make target FA total
+		SFA<CharPred, Character> targetTotal = finitization.targetTotal;
+
+		/* One context from the pool per configuration, so that each solver can be interrupted on its own */
+		int numConfigs = configs.size();
+		Context[] contexts = new Context[numConfigs];
+		boolean[] interrupted = new boolean[numConfigs];
+		SFT<CharPred, CharFunc, Character>[] results = new SFT[numConfigs];
+		boolean[] finished = new boolean[numConfigs];
+		boolean[] unknown = new boolean[numConfigs]; 	// finished without an answer, e.g., at the deadline
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, numConfigs)));
+		CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(executor);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+		for (int i = 0; i < numConfigs; i++) {
+			final int index = i;
+			Triple<Integer, Integer, int[]> config = configs.get(i);
+
+			Callable<Integer> call = () -> {
+				Context ctx = contextPool.acquire();
+				synchronized (contexts) {
+					contexts[index] = ctx;
+				}
+
+				try {
+					ConstraintsSolver c = new ConstraintsSolver(ctx, sourceFinite, targetTotal, alphabetMap, config.first, config.second,
+							examplesFinite, "mean", config.third, null, null, null, idToMinterm, null, ba);
+					c.setTimeout(remainingMillis(deadline));
+					results[index] = c.mkConstraints(null, false).first;
+					unknown[index] = (c.getStatus() == Status.UNKNOWN);
+				} finally {
+					synchronized (contexts) {
+						contexts[index] = null;
+						if (interrupted[index] || unknown[index] || results[index] == null) {
+							contextPool.discard(ctx);
+						} else {
+							contextPool.release(ctx);
+						}
+					}
+				}
+
+				return index;
+			};
+			futures.add(completion.submit(call));
+		}
+
+		int best = -1;
+		try {
+			for (int done = 0; done < numConfigs; done++) {
+				Future<Integer> future = completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if (future == null) break; 	// timeout
+
+				try {
+					finished[future.get()] = true;
+				} catch (ExecutionException e) {
+					/* a configuration that crashed is not UNSAT, it has no answer */
+					System.out.println(e.getCause());
+					int index = futures.indexOf(future);
+					finished[index] = true;
+					unknown[index] = true;
+				}
+
+				int first = cheapestSat(finished, unknown, results);
+				if (first == numConfigs) break; 	// cannot be decided any more
+
+				if (first != -1) { 	// provably the cheapest SAT configuration
+					best = first;
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			/* stop the solvers that are still running */
+			synchronized (contexts) {
+				for (int i = 0; i < numConfigs; i++) {
+					if (contexts[i] != null) {
+						contexts[i].interrupt();
+						interrupted[i] = true;
+					}
+				}
+			}
+			executor.shutdownNow();
+		}
+
+		/* On timeout, fall back to the cheapest SAT configuration seen so far */
+		if (best == -1) {
+			for (int i = 0; i < numConfigs; i++) {
+				if (finished[i] && results[i] != null && results[i].getTransitions().size() != 0) {
+					best = i;
+					break;
+				}
+			}
+		}
+
+		if (best == -1) return null;
+
+		SFT<CharPred, CharFunc, Character> mySFT = SFTOperations.mintermExpansion(results[best], idToMinterm);
+		return new Pair<SFT<CharPred, CharFunc, Character>, Triple<Integer, Integer, int[]>>(mySFT, configs.get(best));
+	}
+
+	/*
+	 * Cheapest SAT configuration of runPortfolio, if every configuration before it finished UNSAT; -1 if that is still
+	 * open, and results.length if it cannot be decided any more (everything UNSAT, or one of the configurations before
+	 * the first SAT one finished without an answer)
+	 */
+	static int cheapestSat(boolean[] finished, boolean[] unknown, SFT<CharPred, CharFunc, Character>[] results) {
+		/* first configuration that is not known to be UNSAT */
+		int first = 0;
+		while (first < results.length && finished[first] && !unknown[first] && (results[first] == null || results[first].getTransitions().size() == 0)) {
+			first++;
+		}
+
+		if (first == results.length || unknown[first]) return results.length;
+
+		return finished[first] ? first : -1;
+	}
+
+	/*
+	 * Candidate configurations for runPortfolio, in order of increasing cost: fewer states first, then shorter outputs,
+	 * then the fractions in the order given
+	 */
+	public static List<Triple<Integer, Integer, int[]>> portfolioConfigs(int maxStates, int maxOutputBound, List<int[]> fractions) {
+		List<Triple<Integer, Integer, int[]>> configs = new ArrayList<Triple<Integer, Integer, int[]>>();
+
+		for (int numStates = 1; numStates <= maxStates; numStates++) {
+			for (int outputBound = 1; outputBound <= maxOutputBound; outputBound++) {
+				for (int[] fraction : fractions) {
+					configs.add(new Triple<Integer, Integer, int[]>(numStates, outputBound, fraction));
+				}
 			}
 		}
+
+		return configs;
 	}
 
+	/*
+	 * Runs call in a separate thread and returns its result, or throws a java.util.concurrent.TimeoutException if it 
+	 * is not done by the deadline (a System.nanoTime() value). The native check does not react to Java interrupts, 
+	 * so it is interrupted through ctx, and the thread is always waited for: ctx must not be closed while it runs
+	 */
+	static <T> T callBefore(Context ctx, Callable<T> call, long deadline) throws InterruptedException, ExecutionException, 
+			java.util.concurrent.TimeoutException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<T> future = executor.submit(call);
+		
+		try {
+			return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} finally {
+			executor.shutdown();
+			
+			boolean interrupted = false;
+			while (true) {
+				try {
+					if (executor.awaitTermination(INTERRUPT_INTERVAL, TimeUnit.MILLISECONDS)) break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+				ctx.interrupt();
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+	
+	/* A check that hits its limit returns UNKNOWN, which must not be mistaken for UNSAT */
+	static void checkKnown(ConstraintsSolver c) throws java.util.concurrent.TimeoutException {
+		if (c.getStatus() == Status.UNKNOWN) {
+			throw new java.util.concurrent.TimeoutException("Solver returned unknown: " + c.getReasonUnknown());
+		}
+	}
+	
+	static long remainingMillis(long deadline) {
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+	}
 	
+	/* runAlgorithm with DEFAULT_TIMEOUT seconds for each check */
 	public static Triple<Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, String> 
 	runAlgorithm(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
 			int numStates, int outputBound, int numLookaheadStates, int[] fraction, 
 			List<Pair<String, String>> examples, SFA<CharPred, Character> template, 
 			SFTTemplate sftTemplate, Collection<Pair<CharPred, ArrayList<Integer>>> minterms, ArrayList<Boolean> config, 
 			String filename, String benchmarkName) throws TimeoutException, IOException {
-		HashMap<String, String> cfg = new HashMap<String, String>();
-        cfg.put("model", "true");
-        Context ctx = new Context(cfg);
-		
+		return runAlgorithm(source, target, numStates, outputBound, numLookaheadStates, fraction, examples, template, sftTemplate, 
+				minterms, config, filename, benchmarkName, DEFAULT_TIMEOUT);
+	}
+	
+	/* 
+	 * Synthesizes a transducer and, if there is one, looks for a second, different one. Each of the two checks is 
+	 * limited to timeout seconds, by Z3 itself and by interrupting it; returns null if the first one fails. If the 
+	 * second one times out, the first transducer is returned without a second one 
+	 */
+	public static Triple<Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, String> 
+	runAlgorithm(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
+			int numStates, int outputBound, int numLookaheadStates, int[] fraction, 
+			List<Pair<String, String>> examples, SFA<CharPred, Character> template, 
+			SFTTemplate sftTemplate, Collection<Pair<CharPred, ArrayList<Integer>>> minterms, ArrayList<Boolean> config, 
+			String filename, String benchmarkName, long timeout) throws TimeoutException, IOException {
 		// Make finite automata out of source and target
-        SFA<CharPred, Character> sourceFinite = null;
-        SFA<CharPred, Character> targetFinite = null;
-        
-        Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId = null;
-        Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm = null;
-        if (minterms == null) {
-        	Triple<SFA<CharPred, Character>, SFA<CharPred, Character>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> triple = 
-        			SFA.MkFiniteSFA(source, target, ba);
-
-        	sourceFinite = triple.first;
-        	targetFinite = triple.second;
-
-        	idToMinterm = triple.third;
-        } else {
-        	Pair<Map<Pair<CharPred, ArrayList<Integer>>, CharPred>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> mintermMaps =
-        			SFAOperations.constructMintermMap(minterms, ba);
-        	mintermToId = mintermMaps.first;
-        	idToMinterm = mintermMaps.second;
-        	
-        	sourceFinite = SFAOperations.MkFiniteSFA(source, minterms, mintermToId, ba);
-        	targetFinite = SFAOperations.MkFiniteSFA(target, minterms, mintermToId, ba);
-        }
-		List<Pair<String, String>> examplesFinite = finitizeExamples(examples, idToMinterm);
+		FinitizationCache.Finitization finitization = finitizations.get(source, target, minterms, ba);
 		
-		Set<Character> sourceAlphabetSet = SFAOperations.alphabetSet(sourceFinite, ba);
-		Set<Character> targetAlphabetSet = SFAOperations.alphabetSet(targetFinite, ba);
-		Set<Character> alphabetSet = new HashSet<Character>();
-		alphabetSet.addAll(sourceAlphabetSet);
-		alphabetSet.addAll(targetAlphabetSet);
+        SFA<CharPred, Character> sourceFinite = finitization.sourceFinite;
+        SFA<CharPred, Character> targetFinite = finitization.targetFinite;
+        
+        Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId = finitization.mintermToId;
+        Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm = finitization.idToMinterm;
+        
+		List<Pair<String, String>> examplesFinite = finitizeExamples(examples, finitization.mintermIndex);
 		
-		HashMap<Character, Integer> alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
+		HashMap<Character, Integer> alphabetMap = finitization.alphabetMap;
 		
 		// Make target FA total
-		SFA<CharPred, Character> targetTotal = SFAOperations.mkTotalFinite(targetFinite, alphabetSet, ba);
+		SFA<CharPred, Character> targetTotal = finitization.targetTotal;
 		
 		// Make template finite
 		if (template != null) {
@@ -194,59 +423,41 @@ public class Driver {
 		// Variables to be set later
 		SFT<CharPred, CharFunc, Character> mySFT = null;
 		SFT<CharPred, CharFunc, Character> mySFT2 = null;
+		boolean secondUnknown = false; 	// the second check ran out of time or resources
 		String witness = null;
 		long solvingTime1 = 0;
 		long solvingTime2 = 0;
+		long time1 = 0;
 		
-		long startTime = System.nanoTime();
-		ConstraintsSolver c1 = new ConstraintsSolver(ctx, sourceFinite, targetTotal, alphabetMap, numStates, outputBound, examplesFinite, "mean", fraction, template, ftTemplate, null, idToMinterm, config, ba);
-		Pair<SFT<CharPred, CharFunc, Character>, Long> res = null;
-		
-		// Use ExecutorService to call mkConstraints in a new thread
-		ExecutorService executor = Executors.newSingleThreadExecutor();
-		Callable<Pair<SFT<CharPred, CharFunc, Character>, Long>> call = () -> {
-			return c1.mkConstraints(null, false);
-		};
-		Future<Pair<SFT<CharPred, CharFunc, Character>, Long>> future = executor.submit(call);
-		
+		Context ctx;
 		try {
-			res = future.get(300L, TimeUnit.SECONDS);
-		} catch (Exception e) {
+			ctx = contextPool.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 			System.out.println(e);
-			if (filename != null) {
-				BufferedWriter br = new BufferedWriter(new FileWriter(new File(filename), true));
-				
-				if (benchmarkName != null) {
-					br.write(benchmarkName + " failed because of exception: " + e.toString());
-					br.close();
-				}
-			}
 			return null;
-		} finally {
-		    executor.shutdownNow();
 		}
 		
-		mySFT = res.first;
-		solvingTime1 = res.second;
-	
-		long stopTime = System.nanoTime();
-		long time1 = (stopTime - startTime) / 1000000;
-		
-		if (mySFT.getTransitions().size() != 0) { // if SAT
-			// Get second solution, if there is one
-			startTime = System.nanoTime();
-			ConstraintsSolver c2 = new ConstraintsSolver(ctx, sourceFinite, targetTotal, alphabetMap, numStates, outputBound, examplesFinite, "mean", fraction, template, ftTemplate, mySFT, idToMinterm, config, ba);
+		long startTime = System.nanoTime();
+		long stopTime = 0;
+		boolean reusable = false; 	// no check was interrupted
+		try {
+			ConstraintsSolver c1 = new ConstraintsSolver(ctx, sourceFinite, targetTotal, alphabetMap, numStates, outputBound, examplesFinite, "mean", fraction, template, ftTemplate, null, idToMinterm, config, ba);
+			Pair<SFT<CharPred, CharFunc, Character>, Long> res = null;
 			
-			// Again call mkConstraints in a separate thread
-			executor = Executors.newSingleThreadExecutor();
-			call = () -> {
-				return c2.mkConstraints(null, false);
+			// Call mkConstraints in a new thread
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+			c1.setTimeout(remainingMillis(deadline));
+			Callable<Pair<SFT<CharPred, CharFunc, Character>, Long>> call = () -> {
+				Pair<SFT<CharPred, CharFunc, Character>, Long> first = c1.mkConstraints(null, false);
+				checkKnown(c1);
+				return first;
 			};
-			future = executor.submit(call);
 			
 			try {
-				res = future.get(300L, TimeUnit.SECONDS);
+				res = callBefore(ctx, call, deadline);
 			} catch (Exception e) {
+				System.out.println(e);
 				if (filename != null) {
 					BufferedWriter br = new BufferedWriter(new FileWriter(new File(filename), true));
 					
@@ -254,15 +465,62 @@ public class Driver {
 						br.write(benchmarkName + " failed because of exception: " + e.toString());
 						br.close();
 					}
-				return null;
 				}
-			} finally {
-			    executor.shutdownNow();
+				return null;
 			}
 			
+			mySFT = res.first;
+			solvingTime1 = res.second;
+		
 			stopTime = System.nanoTime();
-			mySFT2 = res.first;
-			solvingTime2 = res.second;
+			time1 = (stopTime - startTime) / 1000000;
+			
+			if (mySFT.getTransitions().size() != 0) { // if SAT
+				// Get second solution, if there is one
+				startTime = System.nanoTime();
+				SFT<CharPred, CharFunc, Character> firstSFT = mySFT;
+				
+				// Block the first solution on the same solver and check again in a separate thread
+				deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+				c1.setTimeout(remainingMillis(deadline));
+				call = () -> {
+					Pair<SFT<CharPred, CharFunc, Character>, Long> next = c1.mkNextSolution(firstSFT, false);
+					checkKnown(c1);
+					return next;
+				};
+				
+				try {
+					res = callBefore(ctx, call, deadline);
+					mySFT2 = res.first;
+					solvingTime2 = res.second;
+				} catch (Exception e) {
+					Throwable cause = (e instanceof ExecutionException) ? e.getCause() : e;
+					if (!(cause instanceof java.util.concurrent.TimeoutException)) {
+						if (filename != null) {
+							BufferedWriter br = new BufferedWriter(new FileWriter(new File(filename), true));
+							
+							if (benchmarkName != null) {
+								br.write(benchmarkName + " failed because of exception: " + e.toString());
+								br.close();
+							}
+						}
+						return null;
+					}
+					
+					/* the first repair stands, only whether it is the only one is unknown */
+					System.out.println("Second solution unknown: " + cause.getMessage());
+					secondUnknown = true;
+				}
+				
+				stopTime = System.nanoTime();
+			}
+			reusable = !secondUnknown;
+		} finally {
+			if (reusable) {
+				contextPool.release(ctx);
+			} else {
+				contextPool.discard(ctx);
+			}
 		}
 		long time2 = (stopTime - startTime) / 1000000;
 		
@@ -339,6 +597,7 @@ public class Driver {
 				br.write("Output2: " + witnessOutput2 + "\n");
 			} else {
 				if (mySFT2restricted != null) br.write("Equivalent results");
+				else if (secondUnknown) br.write("Second solution unknown\n");
 				else br.write("No other solution\n");
 			}
 			
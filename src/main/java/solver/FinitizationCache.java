@@ -0,0 +1,236 @@
+package solver;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.sat4j.specs.TimeoutException;
+
+import automata.MintermIndex;
+import automata.SFAOperations;
+import automata.sfa.SFA;
+import automata.sfa.SFAInputMove;
+import theory.BooleanAlgebra;
+import theory.characters.CharPred;
+import utilities.Pair;
+import utilities.Triple;
+
+/*
+ * LRU cache of the finite versions of (source, target) pairs, i.e., the minterms, the finite and total automata and
+ * the alphabet, keyed by fingerprints of the minimized automata so that equivalent automata share an entry.
+ * The cached objects are shared between callers and must not be modified
+ */
+public class FinitizationCache {
+
+	/* Finite version of a (source, target) pair */
+	public static class Finitization {
+		public final SFA<CharPred, Character> sourceFinite;
+		public final SFA<CharPred, Character> targetFinite;
+		public final SFA<CharPred, Character> targetTotal;
+		public final Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm;
+		public final MintermIndex mintermIndex; 	// of idToMinterm
+		public final Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId; 	// null if the minterms were not given
+		public final Set<Character> alphabetSet;
+		public final HashMap<Character, Integer> alphabetMap;
+
+		Finitization(SFA<CharPred, Character> sourceFinite, SFA<CharPred, Character> targetFinite,
+				Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm,
+				Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId, BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
+			this.sourceFinite = sourceFinite;
+			this.targetFinite = targetFinite;
+			this.idToMinterm = idToMinterm;
+			this.mintermIndex = MintermIndex.of(idToMinterm); 	// also used by the lookups on idToMinterm
+			this.mintermToId = mintermToId;
+
+			Set<Character> alphabetSet = new HashSet<Character>();
+			alphabetSet.addAll(SFAOperations.alphabetSet(sourceFinite, ba));
+			alphabetSet.addAll(SFAOperations.alphabetSet(targetFinite, ba));
+			this.alphabetSet = Collections.unmodifiableSet(alphabetSet);
+			this.alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
+
+			// Make target FA total
+			this.targetTotal = SFAOperations.mkTotalFinite(targetFinite, alphabetSet, ba);
+		}
+	}
+
+	private LinkedHashMap<String, Finitization> entries;
+	private int hits;
+	private int misses;
+
+	public FinitizationCache(final int capacity) {
+		this.entries = new LinkedHashMap<String, Finitization>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Finitization> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/* 
+	 * Finite version of source and target, over the given minterms or over the minterms of their guards if null. 
+	 * Only the latter is cached, since given minterms are tied to the caller's other data (e.g., templates)
+	 */
+	public Finitization get(SFA<CharPred, Character> source, SFA<CharPred, Character> target,
+			Collection<Pair<CharPred, ArrayList<Integer>>> minterms, BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
+		if (minterms != null) {
+			return mkFinitization(source, target, minterms, ba);
+		}
+
+		String key = fingerprint(source, ba) + ":" + fingerprint(target, ba);
+		synchronized (this) {
+			Finitization finitization = entries.get(key);
+			if (finitization != null) {
+				hits++;
+				return finitization;
+			}
+			misses++;
+		}
+
+		Finitization finitization = mkFinitization(source, target, null, ba);
+		synchronized (this) {
+			entries.put(key, finitization);
+		}
+
+		return finitization;
+	}
+
+	static Finitization mkFinitization(SFA<CharPred, Character> source, SFA<CharPred, Character> target,
+			Collection<Pair<CharPred, ArrayList<Integer>>> minterms, BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
+		if (minterms == null) {
+			Triple<SFA<CharPred, Character>, SFA<CharPred, Character>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> triple =
+					SFAOperations.MkFiniteSFA(source, target, ba);
+			return new Finitization(triple.first, triple.second, triple.third, null, ba);
+		}
+
+		Pair<Map<Pair<CharPred, ArrayList<Integer>>, CharPred>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> mintermMaps =
+				SFAOperations.constructMintermMap(minterms, ba);
+		Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId = mintermMaps.first;
+
+		return new Finitization(SFAOperations.MkFiniteSFA(source, minterms, mintermToId, ba),
+				SFAOperations.MkFiniteSFA(target, minterms, mintermToId, ba), mintermMaps.second, mintermToId, ba);
+	}
+
+	/*
+	 * Fingerprint of the language of aut: a digest of its minimal automaton, with the states numbered in BFS order and
+	 * the transitions of each state grouped by target, their guards merged and ordered by the smallest character
+	 */
+	public static String fingerprint(SFA<CharPred, Character> aut, BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
+		SFA<CharPred, Character> min = aut.minimize(ba);
+
+		StringBuilder canonical = new StringBuilder();
+		Map<Integer, Integer> ids = new HashMap<Integer, Integer>();
+		Queue<Integer> queue = new ArrayDeque<Integer>();
+		ids.put(min.getInitialState(), 0);
+		queue.add(min.getInitialState());
+
+		while (!queue.isEmpty()) {
+			Integer state = queue.remove();
+			canonical.append(min.isFinalState(state) ? "F" : "N");
+
+			/* intervals of the guards to each target */
+			Map<Integer, List<int[]>> guards = new HashMap<Integer, List<int[]>>();
+			for (SFAInputMove<CharPred, Character> transition : min.getInputMovesFrom(state)) {
+				if (!guards.containsKey(transition.to)) {
+					guards.put(transition.to, new ArrayList<int[]>());
+				}
+				for (ImmutablePair<Character, Character> interval : transition.guard.intervals) {
+					guards.get(transition.to).add(new int[] { interval.left, interval.right });
+				}
+			}
+
+			/* the guards of a deterministic automaton are disjoint, so the smallest characters order them */
+			TreeMap<Integer, Pair<Integer, List<int[]>>> ordered = new TreeMap<Integer, Pair<Integer, List<int[]>>>();
+			for (Map.Entry<Integer, List<int[]>> entry : guards.entrySet()) {
+				List<int[]> merged = mergeIntervals(entry.getValue());
+				if (!merged.isEmpty()) {
+					ordered.put(merged.get(0)[0], new Pair<Integer, List<int[]>>(entry.getKey(), merged));
+				}
+			}
+
+			for (Pair<Integer, List<int[]>> guard : ordered.values()) {
+				if (!ids.containsKey(guard.first)) {
+					ids.put(guard.first, ids.size());
+					queue.add(guard.first);
+				}
+
+				canonical.append('(');
+				for (int[] interval : guard.second) {
+					canonical.append(interval[0]).append('-').append(interval[1]).append(',');
+				}
+				canonical.append(')').append(ids.get(guard.first));
+			}
+			canonical.append(';');
+		}
+
+		return digest(canonical.toString());
+	}
+
+	/* Sorted, disjoint and non-adjacent union of intervals */
+	private static List<int[]> mergeIntervals(List<int[]> intervals) {
+		Collections.sort(intervals, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] i1, int[] i2) {
+				return Integer.compare(i1[0], i2[0]);
+			}
+		});
+
+		List<int[]> merged = new ArrayList<int[]>();
+		for (int[] interval : intervals) {
+			int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if (last != null && interval[0] <= last[1] + 1) {
+				last[1] = Math.max(last[1], interval[1]);
+			} else {
+				merged.add(new int[] { interval[0], interval[1] });
+			}
+		}
+
+		return merged;
+	}
+
+	private static String digest(String s) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+
+			StringBuilder hex = new StringBuilder();
+			for (byte b : hash) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+}
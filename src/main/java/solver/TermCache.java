@@ -0,0 +1,159 @@
+package solver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.microsoft.z3.BitVecNum;
+import com.microsoft.z3.BitVecSort;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.FuncDecl;
+import com.microsoft.z3.FuncInterp;
+import com.microsoft.z3.Model;
+import com.microsoft.z3.Sort;
+
+/* Cache of bit-vector numerals and function applications, so that each distinct term is built once per context and sort */
+public class TermCache {
+
+	Context ctx;
+	BitVecSort BV;
+
+	HashMap<Integer, BitVecNum> numerals; 	// numerals by value
+	HashMap<Application, Expr<?>> applications;
+
+	public TermCache(Context ctx, BitVecSort BV) {
+		this.ctx = ctx;
+		this.BV = BV;
+		this.numerals = new HashMap<Integer, BitVecNum>();
+		this.applications = new HashMap<Application, Expr<?>>();
+	}
+
+	/* The numeral i of sort BV */
+	public BitVecNum mkNumeral(int i) {
+		BitVecNum num = numerals.get(i);
+		if (num == null) {
+			num = (BitVecNum) ctx.mkNumeral(i, BV);
+			numerals.put(i, num);
+		}
+
+		return num;
+	}
+
+	/* f(args), the arguments are compared by reference so they should come from this cache as well */
+	@SuppressWarnings("unchecked")
+	public <R extends Sort> Expr<R> apply(FuncDecl<R> f, Expr<?>... args) {
+		Application key = new Application(f, args);
+
+		Expr<R> res = (Expr<R>) applications.get(key);
+		if (res == null) {
+			res = f.apply(args);
+			applications.put(key, res);
+		}
+
+		return res;
+	}
+
+	/*
+	 * Values of f on [0, dims[0]) x [0, dims[1]) x ... in m, in row-major order. Reads the interpretation of f 
+	 * in one pass and only evaluates the points that are covered neither by its entries nor by a constant else-value
+	 */
+	public <R extends Sort> int[] funcValues(Model m, FuncDecl<R> f, int... dims) {
+		int size = 1;
+		for (int dim : dims) {
+			size *= dim;
+		}
+		int[] values = new int[size];
+		boolean[] known = new boolean[size];
+
+		FuncInterp<R> interp = m.getFuncInterp(f);
+		if (interp != null) {
+			for (FuncInterp.Entry<R> entry : interp.getEntries()) {
+				Expr<?>[] args = entry.getArgs();
+				Expr<R> value = entry.getValue();
+				if (args.length != dims.length || !value.isNumeral()) continue;
+
+				int index = 0;
+				for (int i = 0; i < dims.length && index >= 0; i++) {
+					long arg = args[i].isNumeral() ? ((BitVecNum) args[i]).getLong() : -1;
+					index = (arg >= 0 && arg < dims[i]) ? index * dims[i] + (int) arg : -1;
+				}
+
+				if (index >= 0 && !known[index]) {
+					values[index] = ((BitVecNum) value).getInt();
+					known[index] = true;
+				}
+			}
+
+			Expr<R> elseValue = interp.getElse();
+			if (elseValue != null && elseValue.isNumeral()) {
+				int elseInt = ((BitVecNum) elseValue).getInt();
+				for (int index = 0; index < size; index++) {
+					if (!known[index]) {
+						values[index] = elseInt;
+						known[index] = true;
+					}
+				}
+			}
+		}
+
+		/* remaining points */
+		for (int index = 0; index < size; index++) {
+			if (!known[index]) {
+				Expr<?>[] args = new Expr<?>[dims.length];
+				int rest = index;
+				for (int i = dims.length - 1; i >= 0; i--) {
+					args[i] = mkNumeral(rest % dims[i]);
+					rest /= dims[i];
+				}
+				values[index] = ((BitVecNum) m.evaluate(apply(f, args), true)).getInt();
+			}
+		}
+
+		return values;
+	}
+
+	public int size() {
+		return numerals.size() + applications.size();
+	}
+
+	/* Key for a function application, uses reference equality to avoid native calls */
+	static class Application {
+		FuncDecl<?> f;
+		Expr<?>[] args;
+		int hash;
+
+		Application(FuncDecl<?> f, Expr<?>[] args) {
+			this.f = f;
+			this.args = args;
+
+			int h = System.identityHashCode(f);
+			for (Expr<?> arg : args) {
+				h = 31 * h + System.identityHashCode(arg);
+			}
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Application)) return false;
+
+			Application app = (Application) other;
+			if (app.f != f || app.args.length != args.length) return false;
+			for (int i = 0; i < args.length; i++) {
+				if (app.args[i] != args[i]) return false;
+			}
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return f.getName() + Arrays.toString(args);
+		}
+	}
+
+}
@@ -2,7 +2,17 @@ package automata;
 
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -12,11 +22,19 @@ import java.util.Set;
 
 import org.sat4j.specs.TimeoutException;
 
+import automata.fsa.FSA;
+import automata.fsa.FSAMove;
+import automata.fst.FST;
+import automata.fst.FSTLookahead;
+import automata.fst.FSTMove;
+import automata.fst.FSTOperations;
+import automata.fst.FSTTemplate;
 import automata.sfa.SFA;
 import automata.sfa.SFAInputMove;
 import automata.sfa.SFAMove;
 import theory.characters.CharConstant;
 import theory.characters.CharFunc;
+import theory.characters.CharOffset;
 import theory.characters.CharPred;
 import theory.intervals.UnaryCharIntervalSolver;
 import transducers.sft.SFT;
@@ -138,12 +156,305 @@ private static UnaryCharIntervalSolver ba = new UnaryCharIntervalSolver();
 		assertTrue(outputStr.equals("bb"));
 	}
 	
+	public static void compiledSFTTest() throws TimeoutException {
+		CompiledSFT compiled01 = new CompiledSFT(mySFT01);
+		assertTrue(compiled01.apply("aa").equals(SFTOperations.getOutputString(mySFT01, "aa")));
+		
+		/* SFT that shifts the Greek lower-case letters to upper-case and writes x for digits, in two states */
+		List<SFTMove<CharPred, CharFunc, Character>> transitions = new LinkedList<SFTMove<CharPred, CharFunc, Character>>();
+		List<CharFunc> shift = new ArrayList<CharFunc>();
+		shift.add(new CharOffset(-32));
+		List<CharFunc> constant = new ArrayList<CharFunc>();
+		constant.add(new CharConstant('x'));
+		transitions.add(new SFTInputMove<CharPred, CharFunc, Character>(0, 1, new CharPred('\u03b1', '\u03c9'), shift));
+		transitions.add(new SFTInputMove<CharPred, CharFunc, Character>(1, 0, new CharPred('0', '9'), constant));
+		Map<Integer, Set<List<Character>>> finStatesAndTails = new HashMap<Integer, Set<List<Character>>>();
+		finStatesAndTails.put(0, new HashSet<List<Character>>());
+		SFT<CharPred, CharFunc, Character> sft = SFT.MkSFT(transitions, 0, finStatesAndTails, ba);
+		
+		CompiledSFT compiled = new CompiledSFT(sft);
+		String input = "\u03b11\u03b22";
+		StringBuilder out = new StringBuilder();
+		compiled.apply(input, out);
+		assertTrue(out.toString().equals(SFTOperations.getOutputString(sft, input)));
+		assertTrue(out.toString().equals("\u0391x\u0392x"));
+		assertTrue(compiled.getTransitionsTaken(input).size() == 4);
+	}
+	
 	public static void transformTest() throws TimeoutException {
 		SFA<CharPred, Character> newSFA = SFAOperations.pseudoNormalize(mySFA11, ba);
 		System.out.println(newSFA.toDotString(ba));
 	}
 	
-	public static void main(String[] args) throws TimeoutException {
+	/* FST that reads ab* and writes a for a, bc for b */
+	static FST<Character, Character> mkFST() {
+		List<FSTMove<Character, Character>> transitions = new ArrayList<FSTMove<Character, Character>>();
+		List<Character> outputA = new ArrayList<Character>();
+		outputA.add('a');
+		List<Character> outputB = new ArrayList<Character>();
+		outputB.add('b');
+		outputB.add('c');
+		transitions.add(new FSTMove<Character, Character>(1, 1, 'b', outputB));
+		transitions.add(new FSTMove<Character, Character>(0, 1, 'a', outputA));
+		List<Integer> finStates = new ArrayList<Integer>();
+		finStates.add(1);
+		
+		return FST.MkFST(transitions, 0, finStates);
+	}
+	
+	public static void packedFSTTest() {
+		FST<Character, Character> fst = mkFST();
+		assertTrue(fst.stateCount() == 2 && fst.transitionCount() == 2);
+		
+		assertTrue(fst.getTransitionsFrom(0).size() == 1);
+		assertTrue(fst.getTransitionsTo(1).size() == 2);
+		assertTrue(fst.getTransitionsFrom(5).isEmpty());
+		
+		FSTMove<Character, Character> move = fst.getTransitionsFrom(1).iterator().next();
+		assertTrue(move.from == 1 && move.to == 1 && move.input == 'b');
+		assertTrue(move.outputs.size() == 2 && move.outputs.get(1) == 'c');
+		
+		List<Character> inputs = new ArrayList<Character>();
+		inputs.add('a');
+		inputs.add('b');
+		inputs.add('b');
+		assertTrue(fst.outputOn(inputs).size() == 5);
+	}
+	
+	public static void packedFSATest() {
+		List<FSAMove<Character>> transitions = new ArrayList<FSAMove<Character>>();
+		transitions.add(new FSAMove<Character>(0, 1, 'a'));
+		transitions.add(new FSAMove<Character>(1, 1, 'b'));
+		transitions.add(new FSAMove<Character>(2, 1, 'b'));
+		FSA<Character> fsa = FSA.MkFSA(transitions, 0, new ArrayList<Integer>());
+		
+		assertTrue(fsa.getSuccessorState(0, 'a') == 1);
+		assertTrue(fsa.getSuccessorState(0, 'b') == -1);
+		assertTrue(fsa.inverseDeltaStates(1, 'b').size() == 2);
+		
+		fsa.addTransition(new FSAMove<Character>(1, 3, 'a'));
+		assertTrue(fsa.getSuccessorState(1, 'a') == 3);
+		assertTrue(fsa.transitionCount() == 4);
+	}
+	
+	/* FST with lookahead that writes x for an a followed by b and y otherwise */
+	static FSTLookahead<Character, Character> mkFSTLookahead() {
+		/* lookahead automaton reading (a|b)* right to left: state 1 after a, state 2 after b */
+		List<FSAMove<Character>> lookaheadTransitions = new ArrayList<FSAMove<Character>>();
+		for (int q = 0; q < 3; q++) {
+			lookaheadTransitions.add(new FSAMove<Character>(q, 1, 'a'));
+			lookaheadTransitions.add(new FSAMove<Character>(q, 2, 'b'));
+		}
+		FSA<Character> aut = FSA.MkFSA(lookaheadTransitions, 0, new ArrayList<Integer>());
+		
+		List<FSTMove<Pair<Character, Integer>, Character>> transitions = new ArrayList<FSTMove<Pair<Character, Integer>, Character>>();
+		List<Character> outputX = new ArrayList<Character>();
+		outputX.add('x');
+		List<Character> outputY = new ArrayList<Character>();
+		outputY.add('y');
+		transitions.add(new FSTMove<Pair<Character, Integer>, Character>(0, 0, new Pair<Character, Integer>('a', 2), outputX));
+		transitions.add(new FSTMove<Pair<Character, Integer>, Character>(0, 0, new Pair<Character, Integer>('a', 1), outputY));
+		transitions.add(new FSTMove<Pair<Character, Integer>, Character>(0, 0, new Pair<Character, Integer>('b', 1), outputY));
+		List<Integer> finStates = new ArrayList<Integer>();
+		finStates.add(0);
+		
+		return new FSTLookahead<Character, Character>(FST.MkFST(transitions, 0, finStates), aut);
+	}
+	
+	public static void transitionTableTest() {
+		FSTLookahead<Character, Character> fstLookahead = mkFSTLookahead();
+		
+		List<Character> inputs = new ArrayList<Character>();
+		inputs.add('a');
+		inputs.add('b');
+		inputs.add('a');
+		List<Integer> run = fstLookahead.getAutomaton().getRunOn(inputs);
+		assertTrue(run.size() == 3 && run.get(0) == 1 && run.get(1) == 2 && run.get(2) == 1);
+		
+		List<Character> outputs = fstLookahead.outputOn(inputs);
+		assertTrue(outputs.size() == 3 && outputs.get(0) == 'x' && outputs.get(1) == 'y' && outputs.get(2) == 'x');
+		assertTrue(fstLookahead.getSuccessorState(0, 'b', 2) == -1);
+		
+		/* no dense table for a sparse automaton, which is then scanned */
+		int[] sources = new int[] {0, 999};
+		int[] inputIds = new int[] {0, 999};
+		assertTrue(PackedIndex.transitionTable(sources, inputIds, 1000, 1000) == null);
+		assertTrue(PackedIndex.transitionTable(sources, inputIds, 1000, 1) != null);
+		
+		List<FSAMove<Character>> transitions = new ArrayList<FSAMove<Character>>();
+		for (char a = 'a'; a < 'a' + 100; a++) {
+			transitions.add(new FSAMove<Character>(0, 1, a));
+		}
+		transitions.add(new FSAMove<Character>(99, 0, 'z'));
+		FSA<Character> sparse = FSA.MkFSA(transitions, 0, new ArrayList<Integer>());
+		assertTrue(sparse.getSuccessorState(0, 'c') == 1);
+		assertTrue(sparse.getSuccessorState(99, 'z') == 0);
+		assertTrue(sparse.getSuccessorState(99, 'c') == -1);
+	}
+	
+	public static void streamingTest() throws IOException {
+		StringWriter out = new StringWriter();
+		FSTOperations.apply(mkFST(), new StringReader("abb"), out);
+		assertTrue(out.toString().equals("abcbc"));
+		
+		out = new StringWriter();
+		FSTOperations.applyRecords(mkFSTLookahead(), new StringReader("aba\nab"), out, '\n');
+		assertTrue(out.toString().equals("xyx\nxy"));
+	}
+	
+	public static void streamingSFTTest() throws IOException {
+		CompiledSFT compiled = new CompiledSFT(mySFT01);
+		
+		/* the output buffer has room for two characters, so the input is consumed in two steps */
+		CharBuffer in = CharBuffer.wrap("aaa");
+		CharBuffer out = CharBuffer.allocate(2);
+		int state = compiled.apply(compiled.getInitialStateId(), in, out);
+		assertTrue(in.remaining() == 1 && out.position() == 2);
+		
+		out.clear();
+		compiled.apply(state, in, out);
+		assertTrue(!in.hasRemaining() && out.position() == 1);
+		
+		StringWriter writer = new StringWriter();
+		compiled.apply(new StringReader("aaaa"), writer);
+		assertTrue(writer.toString().equals("bbbb"));
+	}
+	
+	public static void moveHashTest() {
+		/* boxed values outside the small-integer cache */
+		List<Character> outputs1 = new ArrayList<Character>();
+		outputs1.add('\u00e9');
+		List<Character> outputs2 = new ArrayList<Character>();
+		outputs2.add('\u00e9');
+		FSTMove<Character, Character> move1 = new FSTMove<Character, Character>(1000, 2000, '\u00e8', outputs1);
+		FSTMove<Character, Character> move2 = new FSTMove<Character, Character>(1000, 2000, '\u00e8', outputs2);
+		assertTrue(move1.equals(move2) && move1.hashCode() == move2.hashCode());
+		
+		Set<FSAMove<Character>> fsaMoves = new HashSet<FSAMove<Character>>();
+		fsaMoves.add(new FSAMove<Character>(1000, 2000, '\u00e8'));
+		assertTrue(fsaMoves.contains(new FSAMove<Character>(1000, 2000, '\u00e8')));
+		
+		/* the bad transition is removed from the good ones */
+		FST<Character, Character> fst = mkFST();
+		List<FSTMove<Character, Character>> badTransitions = new ArrayList<FSTMove<Character, Character>>(fst.getTransitionsFrom(1));
+		FSTTemplate template = new FSTTemplate(fst, badTransitions);
+		assertTrue(template.getGoodTransitions().size() == 1);
+		assertTrue(template.getGoodTransitions().iterator().next().from == 0);
+	}
+	
+	public static void faultSpectrumTest() throws TimeoutException {
+		/* SFT that writes b for a and c for c, the second transition is buggy */
+		List<SFTMove<CharPred, CharFunc, Character>> transitions = new LinkedList<SFTMove<CharPred, CharFunc, Character>>();
+		List<CharFunc> outputB = new ArrayList<CharFunc>();
+		outputB.add(new CharConstant('b'));
+		List<CharFunc> outputC = new ArrayList<CharFunc>();
+		outputC.add(new CharConstant('c'));
+		SFTInputMove<CharPred, CharFunc, Character> good = new SFTInputMove<CharPred, CharFunc, Character>(0, 0, new CharPred('a'), outputB);
+		SFTInputMove<CharPred, CharFunc, Character> bad = new SFTInputMove<CharPred, CharFunc, Character>(0, 0, new CharPred('c'), outputC);
+		transitions.add(good);
+		transitions.add(bad);
+		Map<Integer, Set<List<Character>>> finStatesAndTails = new HashMap<Integer, Set<List<Character>>>();
+		finStatesAndTails.put(0, new HashSet<List<Character>>());
+		SFT<CharPred, CharFunc, Character> sft = SFT.MkSFT(transitions, 0, finStatesAndTails, ba);
+		
+		List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+		examples.add(new Pair<String, String>("a", "b"));
+		examples.add(new Pair<String, String>("c", "d"));
+		examples.add(new Pair<String, String>("ac", "bd"));
+		
+		Collection<SFTInputMove<CharPred, CharFunc, Character>> badTransitions = SFTOperations.localizeFaults(sft, examples);
+		assertTrue(badTransitions.size() == 1 && badTransitions.iterator().next().guard.isSatisfiedBy('c'));
+		
+		FaultSpectrum spectrum = SFTOperations.localizeFaultSpectrum(sft, examples);
+		assertTrue(spectrum.getTotalPassed() == 1 && spectrum.getTotalFailed() == 2);
+		
+		List<Double> scores = new ArrayList<Double>(spectrum.getScores().values());
+		assertTrue(scores.get(0) == 1.0 && scores.get(1) == 0.5);
+	}
+	
+	public static void mintermIndexTest() throws TimeoutException {
+		/* minterms [a-c] and [alpha-omega], with ids a and b */
+		Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm = new HashMap<CharPred, Pair<CharPred, ArrayList<Integer>>>();
+		Pair<CharPred, ArrayList<Integer>> latin = new Pair<CharPred, ArrayList<Integer>>(new CharPred('a', 'c'), new ArrayList<Integer>());
+		Pair<CharPred, ArrayList<Integer>> greek = new Pair<CharPred, ArrayList<Integer>>(new CharPred('\u03b1', '\u03c9'), new ArrayList<Integer>());
+		idToMinterm.put(new CharPred('a'), latin);
+		idToMinterm.put(new CharPred('b'), greek);
+		
+		MintermIndex index = MintermIndex.of(idToMinterm);
+		assertTrue(MintermIndex.of(idToMinterm) == index);
+		
+		/* lookups of another map, with the same contents, do not evict the index */
+		Map<CharPred, Pair<CharPred, ArrayList<Integer>>> copy = new HashMap<CharPred, Pair<CharPred, ArrayList<Integer>>>(idToMinterm);
+		MintermIndex copyIndex = MintermIndex.of(copy);
+		assertTrue(copyIndex != index && MintermIndex.of(copy) == copyIndex);
+		assertTrue(MintermIndex.of(idToMinterm) == index);
+		assertTrue(index.findSatisfyingMinterm('b') == latin);
+		assertTrue(index.findSatisfyingMinterm('\u03b2') == greek);
+		assertTrue(index.findSatisfyingMinterm('z') == null && index.findSatisfyingMinterm('\u03d0') == null);
+		
+		assertTrue(SFAOperations.findSatisfyingMinterm('c', idToMinterm) == latin);
+		assertTrue(SFAOperations.finitizeStringMinterms("b\u03b2z", idToMinterm, ba).equals("ab"));
+	}
+	
+	public static void mkFiniteSFATest() throws TimeoutException {
+		/* [a-z] and [a-c] give the minterms [a-c], [d-z] and the rest */
+		List<SFAMove<CharPred, Character>> transitions1 = new LinkedList<SFAMove<CharPred, Character>>();
+		transitions1.add(new SFAInputMove<CharPred, Character>(0, 1, new CharPred('a', 'z')));
+		List<SFAMove<CharPred, Character>> transitions2 = new LinkedList<SFAMove<CharPred, Character>>();
+		transitions2.add(new SFAInputMove<CharPred, Character>(0, 1, new CharPred('a', 'c')));
+		List<Integer> finStates = new LinkedList<Integer>();
+		finStates.add(1);
+		SFA<CharPred, Character> aut1 = SFA.MkSFA(transitions1, 0, finStates, ba);
+		SFA<CharPred, Character> aut2 = SFA.MkSFA(transitions2, 0, finStates, ba);
+		
+		Triple<SFA<CharPred, Character>, SFA<CharPred, Character>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> triple = 
+				SFAOperations.MkFiniteSFA(aut1, aut2, ba);
+		assertTrue(triple.third.size() == 3);
+		assertTrue(triple.first.getTransitionCount() == 2);
+		assertTrue(triple.second.getTransitionCount() == 1);
+		
+		/* minterms of both automata, applied to the first one only */
+		Collection<Pair<CharPred, ArrayList<Integer>>> minterms = new ArrayList<Pair<CharPred, ArrayList<Integer>>>(triple.third.values());
+		Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId = SFAOperations.constructMintermMap(minterms, ba).first;
+		assertTrue(SFAOperations.MkFiniteSFA(aut1, minterms, mintermToId, ba).getTransitionCount() == 2);
+	}
+	
+	public static void splitLinesTest() throws IOException {
+		Path file = Files.createTempFile("lines", ".txt");
+		Files.write(file, "aa\tbb\na\tc\nb\n".getBytes(StandardCharsets.UTF_8));
+		
+		/* 12 bytes, the lines start at 0, 6 and 10 */
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			/* ranges of 4 bytes: 4 and 10 are moved past the next newline */
+			long[] bounds = BatchEvaluator.splitLines(channel, 3);
+			assertTrue(bounds.length == 3 && bounds[0] == 0 && bounds[1] == 6 && bounds[2] == 12);
+			
+			/* ranges of 3 bytes: 3 is in the middle of the first line, 9 is its newline */
+			bounds = BatchEvaluator.splitLines(channel, 4);
+			assertTrue(bounds.length == 4 && bounds[1] == 6 && bounds[2] == 10 && bounds[3] == 12);
+			
+			bounds = BatchEvaluator.splitLines(channel, 1);
+			assertTrue(bounds.length == 2 && bounds[1] == 12);
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	public static void batchEvaluatorTest() throws IOException {
+		Path file = Files.createTempFile("examples", ".txt");
+		Files.write(file, "aa\tbb\na\tc\nb\n".getBytes(StandardCharsets.UTF_8));
+		
+		try {
+			BatchEvaluator.Result result = BatchEvaluator.evaluate(mySFT01, file, 2, 10);
+			assertTrue(result.lines == 3 && result.accepted == 2 && result.rejected == 1);
+			assertTrue(result.matched == 1 && result.mismatched == 1);
+			assertTrue(result.diffs.size() == 1 && result.diffs.get(0).line == 1 && result.diffs.get(0).actual.equals("b"));
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	public static void main(String[] args) throws TimeoutException, IOException {
 		mkSFAs();
 		mkSFTs();
 		
@@ -152,6 +463,18 @@ private static UnaryCharIntervalSolver ba = new UnaryCharIntervalSolver();
 		getPositionTest();
 		getOutputTest();
 		transformTest();
+		compiledSFTTest();
+		packedFSTTest();
+		packedFSATest();
+		transitionTableTest();
+		moveHashTest();
+		streamingTest();
+		streamingSFTTest();
+		faultSpectrumTest();
+		mintermIndexTest();
+		mkFiniteSFATest();
+		splitLinesTest();
+		batchEvaluatorTest();
 		
 		Triple<SFA<CharPred, Character>, SFA<CharPred, Character>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> triple = 
 				 SFA.MkFiniteSFA(mySFA01, mySFA02, ba);
@@ -0,0 +1,519 @@
+package solver;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.sat4j.specs.TimeoutException;
+
+import com.microsoft.z3.BitVecSort;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.FuncDecl;
+import com.microsoft.z3.Solver;
+import com.microsoft.z3.Sort;
+import com.microsoft.z3.Status;
+
+import automata.SFAOperations;
+import automata.SFTOperations;
+import automata.sfa.SFA;
+import automata.sfa.SFAInputMove;
+import automata.sfa.SFAMove;
+import theory.characters.CharFunc;
+import theory.characters.CharPred;
+import theory.intervals.UnaryCharIntervalSolver;
+import transducers.sft.SFT;
+import transducers.sft.SFTInputMove;
+import utilities.Pair;
+import utilities.Triple;
+
+/* Checks the number of assertions produced by the encoders, to catch constraints that are generated more than once */
+public class ConstraintsSizeTest {
+
+	private static UnaryCharIntervalSolver ba = new UnaryCharIntervalSolver();
+
+	private static SFA<CharPred, Character> mySFA03;
+	private static SFA<CharPred, Character> mySFA04;
+	private static SFA<CharPred, Character> mySFA05;
+
+	public static void mkSFAs() throws TimeoutException {
+		// SFA0.3: SFA that reads ab
+		List<SFAMove<CharPred, Character>> transitions03 = new LinkedList<SFAMove<CharPred, Character>>();
+		transitions03.add(new SFAInputMove<CharPred, Character>(0, 1, new CharPred('a')));
+		transitions03.add(new SFAInputMove<CharPred, Character>(1, 2, new CharPred('b')));
+		List<Integer> finStates03 = new LinkedList<Integer>();
+		finStates03.add(2);
+		mySFA03 = SFA.MkSFA(transitions03, 0, finStates03, ba);
+
+		// SFA0.4: SFA that reads bc
+		List<SFAMove<CharPred, Character>> transitions04 = new LinkedList<SFAMove<CharPred, Character>>();
+		transitions04.add(new SFAInputMove<CharPred, Character>(0, 1, new CharPred('b')));
+		transitions04.add(new SFAInputMove<CharPred, Character>(1, 2, new CharPred('c')));
+		List<Integer> finStates04 = new LinkedList<Integer>();
+		finStates04.add(2);
+		mySFA04 = SFA.MkSFA(transitions04, 0, finStates04, ba);
+
+		// SFA0.5: SFA that reads (bc | aaa), more states than SFA0.4
+		List<SFAMove<CharPred, Character>> transitions05 = new LinkedList<SFAMove<CharPred, Character>>();
+		transitions05.add(new SFAInputMove<CharPred, Character>(0, 1, new CharPred('b')));
+		transitions05.add(new SFAInputMove<CharPred, Character>(1, 2, new CharPred('c')));
+		transitions05.add(new SFAInputMove<CharPred, Character>(0, 3, new CharPred('a')));
+		transitions05.add(new SFAInputMove<CharPred, Character>(3, 4, new CharPred('a')));
+		transitions05.add(new SFAInputMove<CharPred, Character>(4, 5, new CharPred('a')));
+		List<Integer> finStates05 = new LinkedList<Integer>();
+		finStates05.add(2);
+		finStates05.add(5);
+		mySFA05 = SFA.MkSFA(transitions05, 0, finStates05, ba, false, false);
+	}
+
+	static HashMap<Character, Integer> mkAlphabetMap(SFA<CharPred, Character> source, SFA<CharPred, Character> target) throws TimeoutException {
+		Set<Character> alphabetSet = new HashSet<Character>();
+		alphabetSet.addAll(SFAOperations.alphabetSet(source, ba));
+		alphabetSet.addAll(SFAOperations.alphabetSet(target, ba));
+
+		return SFAOperations.mkAlphabetMap(alphabetSet);
+	}
+
+	/* number of assertions added by encodeStates, with only the example constraints enabled */
+	static int countExampleAssertions(Context ctx, SFA<CharPred, Character> source, SFA<CharPred, Character> target,
+			int numStates, int outputBound, List<Pair<String, String>> examples) throws TimeoutException {
+		HashMap<Character, Integer> alphabetMap = mkAlphabetMap(source, target);
+		SFA<CharPred, Character> targetTotal = SFAOperations.mkTotalFinite(target, alphabetMap.keySet(), ba);
+
+		ArrayList<Boolean> config = new ArrayList<Boolean>();
+		config.add(true); 	// examples
+		config.add(false); 	// types
+		config.add(false); 	// distance
+
+		ConstraintsSolver c = new ConstraintsSolver(ctx, source, targetTotal, alphabetMap, numStates, outputBound, examples,
+				"mean", new int[] {1, 1}, null, null, null, null, config, ba);
+		c.encodeAutomata();
+		int before = c.solver.getNumAssertions();
+		c.encodeStates();
+
+		return c.solver.getNumAssertions() - before;
+	}
+
+	static void exampleConstraintsTest(Context ctx) throws TimeoutException {
+		int numStates = 2;
+		int outputBound = 2;
+
+		List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+		examples.add(new Pair<String, String>("ab", "bc"));
+
+		int count04 = countExampleAssertions(ctx, mySFA03, mySFA04, numStates, outputBound, examples);
+		int count05 = countExampleAssertions(ctx, mySFA03, mySFA05, numStates, outputBound, examples);
+
+		/* ranges of out_len, d2 and d1 */
+		int alphabetSize = 3;
+		int expected = numStates * alphabetSize * (3 + 2 * outputBound);
+
+		/* e_k(0), ranges of e_k, final position and one implication per (q, i, j) with j in the band of i */
+		int inputLen = 2;
+		int outputLen = 2;
+		expected += 1 + 3 * (inputLen + 1) + 1;
+		
+		int[][] band = ConstraintsSolver.outputPositionBand(inputLen, outputLen, outputBound);
+		for (int i = 0; i < inputLen; i++) {
+			expected += numStates * (band[i][1] - band[i][0] + 1);
+		}
+
+		assertTrue(count04 == expected);
+		assertTrue(count05 == count04); 	// independent of the number of target states
+	}
+
+	/* number of assertions added by encodeTypes of the lookahead encoding */
+	static int countLookaheadTypeAssertions(Context ctx, SFA<CharPred, Character> source, SFA<CharPred, Character> target,
+			int numStates, int numLookaheadStates, int outputBound) throws TimeoutException {
+		HashMap<Character, Integer> alphabetMap = mkAlphabetMap(source, target);
+		SFA<CharPred, Character> targetTotal = SFAOperations.mkTotalFinite(target, alphabetMap.keySet(), ba);
+
+		ConstraintsSolverLookahead c = new ConstraintsSolverLookahead(ctx, source, targetTotal, alphabetMap, numStates,
+				numLookaheadStates, outputBound, new ArrayList<Pair<String, String>>(), new int[] {1, 1}, null, null, null, ba);
+		c.encodeAutomata();
+		int before = c.solver.getNumAssertions();
+		c.encodeTypes();
+
+		return c.solver.getNumAssertions() - before;
+	}
+
+	static void lookaheadTypeConstraintsTest(Context ctx) throws TimeoutException {
+		int numStates = 2;
+		int outputBound = 2;
+
+		HashMap<Character, Integer> alphabetMap = mkAlphabetMap(mySFA03, mySFA04);
+		int numTargetStates = SFAOperations.mkTotalFinite(mySFA04, alphabetMap.keySet(), ba).stateCount();
+		int numSourceTransitions = mySFA03.getTransitions().size();
+
+		for (int numLookaheadStates = 1; numLookaheadStates <= 3; numLookaheadStates++) {
+			int count = countLookaheadTypeAssertions(ctx, mySFA03, mySFA04, numStates, numLookaheadStates, outputBound);
+
+			/* initial states, one implication per (q, q_L, transition, q_T) and one final constraint per (q, q_R, q_T) */
+			int expected = 1 + numStates * numLookaheadStates * numSourceTransitions * numTargetStates
+					+ numStates * mySFA03.stateCount() * numTargetStates;
+
+			assertTrue(count == expected);
+		}
+	}
+
+	/* depth of the deepest term asserted by encodeExamples of the lookahead encoding */
+	static int lookaheadExampleDepth(Context ctx, SFA<CharPred, Character> source, SFA<CharPred, Character> target,
+			Pair<String, String> example) throws TimeoutException {
+		HashMap<Character, Integer> alphabetMap = mkAlphabetMap(source, target);
+		SFA<CharPred, Character> targetTotal = SFAOperations.mkTotalFinite(target, alphabetMap.keySet(), ba);
+
+		List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+		examples.add(example);
+
+		ConstraintsSolverLookahead c = new ConstraintsSolverLookahead(ctx, source, targetTotal, alphabetMap, 1, 2, 1,
+				examples, new int[] {1, 1}, null, null, null, ba);
+		c.encodeAutomata();
+		int before = c.solver.getNumAssertions();
+		c.encodeExamples();
+
+		Expr<?>[] assertions = c.solver.getAssertions();
+		int depth = 0;
+		for (int i = before; i < assertions.length; i++) {
+			depth = Math.max(depth, depth(assertions[i]));
+		}
+		return depth;
+	}
+
+	static int depth(Expr<?> e) {
+		int depth = 0;
+		for (Expr<?> arg : e.getArgs()) {
+			depth = Math.max(depth, depth(arg));
+		}
+		return depth + 1;
+	}
+
+	static void lookaheadExampleDepthTest(Context ctx) throws TimeoutException {
+		// a* and b*
+		List<SFAMove<CharPred, Character>> transitionsA = new LinkedList<SFAMove<CharPred, Character>>();
+		transitionsA.add(new SFAInputMove<CharPred, Character>(0, 0, new CharPred('a')));
+		List<SFAMove<CharPred, Character>> transitionsB = new LinkedList<SFAMove<CharPred, Character>>();
+		transitionsB.add(new SFAInputMove<CharPred, Character>(0, 0, new CharPred('b')));
+		List<Integer> finStates = new LinkedList<Integer>();
+		finStates.add(0);
+		SFA<CharPred, Character> sfaA = SFA.MkSFA(transitionsA, 0, finStates, ba);
+		SFA<CharPred, Character> sfaB = SFA.MkSFA(transitionsB, 0, finStates, ba);
+
+		StringBuilder shortInput = new StringBuilder();
+		StringBuilder longInput = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			if (i < 5) shortInput.append('a');
+			longInput.append('a');
+		}
+
+		int shortDepth = lookaheadExampleDepth(ctx, sfaA, sfaB, 
+				new Pair<String, String>(shortInput.toString(), shortInput.toString().replace('a', 'b')));
+		int longDepth = lookaheadExampleDepth(ctx, sfaA, sfaB, 
+				new Pair<String, String>(longInput.toString(), longInput.toString().replace('a', 'b')));
+
+		assertTrue(shortDepth == longDepth); 	// independent of the length of the example
+	}
+
+	static void outputPositionBandTest() {
+		/* 3 input characters, 4 output characters, at most 2 output characters per transition */
+		int[][] band = ConstraintsSolver.outputPositionBand(3, 4, 2);
+		
+		assertTrue(band[0][0] == 0 && band[0][1] == 0);
+		assertTrue(band[1][0] == 0 && band[1][1] == 2);
+		assertTrue(band[2][0] == 2 && band[2][1] == 4);
+		assertTrue(band[3][0] == 4 && band[3][1] == 4);
+	}
+
+	/* the width grows with the example lengths, numStates, the alphabet and the energy bound */
+	static void bitWidthTest() throws TimeoutException {
+		HashMap<Character, Integer> alphabetMap = mkAlphabetMap(mySFA03, mySFA04);
+		List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+		examples.add(new Pair<String, String>("ab", "bc"));
+		int base = ConstraintsSolver.bitWidth(mySFA03, mySFA04, alphabetMap, 1, 1, examples, 0);
+		
+		/* 201 input positions */
+		StringBuilder longInput = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			longInput.append('a');
+		}
+		List<Pair<String, String>> longExamples = new ArrayList<Pair<String, String>>();
+		longExamples.add(new Pair<String, String>(longInput.toString(), "bc"));
+		assertTrue(ConstraintsSolver.bitWidth(mySFA03, mySFA04, alphabetMap, 1, 1, longExamples, 0) > base);
+		
+		assertTrue(ConstraintsSolver.bitWidth(mySFA03, mySFA04, alphabetMap, 100, 1, examples, 0) > base);
+		
+		Set<Character> bigAlphabet = new HashSet<Character>();
+		for (char a = 'a'; a < 'a' + 300; a++) {
+			bigAlphabet.add(a);
+		}
+		assertTrue(ConstraintsSolver.bitWidth(mySFA03, mySFA04, SFAOperations.mkAlphabetMap(bigAlphabet), 1, 1, examples, 0) > base);
+		
+		assertTrue(ConstraintsSolver.bitWidth(mySFA03, mySFA04, alphabetMap, 1, 1, examples, 1000) > base);
+		
+		/* the energy bound grows with the product states and outputBound, "bounded" never exceeds the edits */
+		int[] fraction = new int[] {1, 1};
+		assertTrue(ConstraintsSolver.energyBound("mean", fraction, 10, 2) > ConstraintsSolver.energyBound("mean", fraction, 5, 2));
+		assertTrue(ConstraintsSolver.energyBound("mean", fraction, 10, 4) > ConstraintsSolver.energyBound("mean", fraction, 10, 2));
+		assertTrue(ConstraintsSolver.energyBound("bounded", new int[] {3}, 10, 4) == 3);
+		assertTrue(ConstraintsSolver.energyBound("mean", null, 10, 4) == 0);
+	}
+	
+	/* an example with more than 127 positions, which overflow signed 8-bit vectors, solves with the computed width */
+	static void longExampleTest(Context ctx) throws TimeoutException {
+		// a* and b*
+		List<SFAMove<CharPred, Character>> transitionsA = new LinkedList<SFAMove<CharPred, Character>>();
+		transitionsA.add(new SFAInputMove<CharPred, Character>(0, 0, new CharPred('a')));
+		List<SFAMove<CharPred, Character>> transitionsB = new LinkedList<SFAMove<CharPred, Character>>();
+		transitionsB.add(new SFAInputMove<CharPred, Character>(0, 0, new CharPred('b')));
+		List<Integer> finStates = new LinkedList<Integer>();
+		finStates.add(0);
+		SFA<CharPred, Character> sfaA = SFA.MkSFA(transitionsA, 0, finStates, ba);
+		SFA<CharPred, Character> sfaB = SFA.MkSFA(transitionsB, 0, finStates, ba);
+		
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 130; i++) {
+			input.append('a');
+		}
+		String output = input.toString().replace('a', 'b');
+		List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+		examples.add(new Pair<String, String>(input.toString(), output));
+		
+		HashMap<Character, Integer> alphabetMap = mkAlphabetMap(sfaA, sfaB);
+		SFA<CharPred, Character> sfaBTotal = SFAOperations.mkTotalFinite(sfaB, alphabetMap.keySet(), ba);
+		
+		ArrayList<Boolean> config = new ArrayList<Boolean>();
+		config.add(true); 	// examples
+		config.add(true); 	// types
+		config.add(false); 	// distance
+		
+		ConstraintsSolver c = new ConstraintsSolver(ctx, sfaA, sfaBTotal, alphabetMap, 1, 1, examples,
+				"mean", new int[] {1, 1}, null, null, null, null, config, ba);
+		assertTrue(c.computeBitWidth(1, 1) > 8);
+		
+		SFT<CharPred, CharFunc, Character> mySFT = c.mkConstraints(null, false).first;
+		assertTrue(c.getStatus() == Status.SATISFIABLE);
+		assertTrue(SFTOperations.getOutputString(mySFT, input.toString()).equals(output));
+	}
+
+	static void termCacheTest(Context ctx) {
+		BitVecSort BV = ctx.mkBitVecSort(8);
+		FuncDecl<BitVecSort> d2 = ctx.mkFuncDecl("d2", new Sort[]{ BV, BV }, BV);
+		TermCache terms = new TermCache(ctx, BV);
+
+		assertTrue(terms.mkNumeral(3) == terms.mkNumeral(3));
+		assertTrue(terms.mkNumeral(3) != terms.mkNumeral(4));
+
+		Expr<BitVecSort> app = terms.apply(d2, terms.mkNumeral(3), terms.mkNumeral(4));
+		assertTrue(app == terms.apply(d2, terms.mkNumeral(3), terms.mkNumeral(4)));
+		assertTrue(app != terms.apply(d2, terms.mkNumeral(4), terms.mkNumeral(3)));
+		assertTrue(terms.size() == 4);
+	}
+
+	static void funcValuesTest(Context ctx) {
+		BitVecSort BV = ctx.mkBitVecSort(8);
+		FuncDecl<BitVecSort> d2 = ctx.mkFuncDecl("d2", new Sort[]{ BV, BV }, BV);
+		TermCache terms = new TermCache(ctx, BV);
+
+		/* d2(q, a) = q + a for q < 2, a < 3 */
+		Solver solver = ctx.mkSolver();
+		for (int q = 0; q < 2; q++) {
+			for (int a = 0; a < 3; a++) {
+				solver.add(ctx.mkEq(terms.apply(d2, terms.mkNumeral(q), terms.mkNumeral(a)), terms.mkNumeral(q + a)));
+			}
+		}
+		assertTrue(solver.check() == Status.SATISFIABLE);
+
+		int[] values = terms.funcValues(solver.getModel(), d2, 2, 3);
+		for (int q = 0; q < 2; q++) {
+			for (int a = 0; a < 3; a++) {
+				assertTrue(values[q * 3 + a] == q + a);
+			}
+		}
+	}
+
+	/* status of the types constraints of SFA0.3 -> SFA0.4 with 3 states when d2(0, a) = 2 for the letter a with id 0 */
+	static Status forcedD2Status(Context ctx, boolean symmetryBreaking) throws TimeoutException {
+		HashMap<Character, Integer> alphabetMap = mkAlphabetMap(mySFA03, mySFA04);
+		SFA<CharPred, Character> targetTotal = SFAOperations.mkTotalFinite(mySFA04, alphabetMap.keySet(), ba);
+
+		ArrayList<Boolean> config = new ArrayList<Boolean>();
+		config.add(false); 	// examples
+		config.add(true); 	// types
+		config.add(false); 	// distance
+		config.add(symmetryBreaking);
+
+		ConstraintsSolver c = new ConstraintsSolver(ctx, mySFA03, targetTotal, alphabetMap, 3, 1, new ArrayList<Pair<String, String>>(),
+				"mean", new int[] {1, 1}, null, null, null, null, config, ba);
+		c.encodeAutomata();
+		c.encodeStates();
+		c.encodeStateBounds();
+		c.solver.add(ctx.mkEq(c.terms.apply(c.d2, c.terms.mkNumeral(0), c.terms.mkNumeral(0)), c.terms.mkNumeral(2)));
+		c.constructSFT(false);
+
+		return c.getStatus();
+	}
+
+	/* the states reached from 0, in the order of a BFS that takes the letters of each state by increasing id */
+	static List<Integer> bfsOrder(SFT<CharPred, CharFunc, Character> sft, final HashMap<Character, Integer> alphabetMap) {
+		List<Integer> order = new ArrayList<Integer>();
+		order.add(0);
+
+		for (int k = 0; k < order.size(); k++) {
+			List<SFTInputMove<CharPred, CharFunc, Character>> moves = 
+					new ArrayList<SFTInputMove<CharPred, CharFunc, Character>>(sft.getInputMovesFrom(order.get(k)));
+			Collections.sort(moves, new Comparator<SFTInputMove<CharPred, CharFunc, Character>>() {
+				@Override
+				public int compare(SFTInputMove<CharPred, CharFunc, Character> m1, SFTInputMove<CharPred, CharFunc, Character> m2) {
+					return Integer.compare(alphabetMap.get(m1.guard.intervals.get(0).left), alphabetMap.get(m2.guard.intervals.get(0).left));
+				}
+			});
+
+			for (SFTInputMove<CharPred, CharFunc, Character> move : moves) {
+				if (!order.contains(move.to)) order.add(move.to);
+			}
+		}
+
+		return order;
+	}
+
+	/* with symmetry breaking, the solutions number their states in BFS order and a non-canonical d2 is UNSAT */
+	static void symmetryBreakingTest(Context ctx) throws TimeoutException {
+		HashMap<Character, Integer> alphabetMap = mkAlphabetMap(mySFA03, mySFA04);
+		SFA<CharPred, Character> targetTotal = SFAOperations.mkTotalFinite(mySFA04, alphabetMap.keySet(), ba);
+
+		List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+		examples.add(new Pair<String, String>("ab", "bc"));
+
+		ArrayList<Boolean> config = new ArrayList<Boolean>();
+		config.add(true); 	// examples
+		config.add(true); 	// types
+		config.add(false); 	// distance
+		config.add(true); 	// symmetry breaking
+
+		ConstraintsSolver c = new ConstraintsSolver(ctx, mySFA03, targetTotal, alphabetMap, 3, 1, examples,
+				"mean", new int[] {1, 1}, null, null, null, null, config, ba);
+		List<Pair<SFT<CharPred, CharFunc, Character>, Long>> solutions = c.mkSolutions(5, null, false);
+		assertTrue(solutions.size() > 0);
+		
+		for (Pair<SFT<CharPred, CharFunc, Character>, Long> solution : solutions) {
+			assertTrue(SFTOperations.getOutputString(solution.first, "ab").equals("bc"));
+			
+			List<Integer> order = bfsOrder(solution.first, alphabetMap);
+			for (int k = 0; k < order.size(); k++) {
+				assertTrue(order.get(k) == k);
+			}
+		}
+
+		/* d2(0, a) = 2 skips state 1, which is only ruled out by symmetry breaking */
+		assertTrue(forcedD2Status(ctx, false) == Status.SATISFIABLE);
+		assertTrue(forcedD2Status(ctx, true) == Status.UNSATISFIABLE);
+	}
+
+	static void finitizationCacheTest() throws TimeoutException {
+		/* SFA0.4 with its states numbered differently and a duplicated transition */
+		List<SFAMove<CharPred, Character>> transitions = new LinkedList<SFAMove<CharPred, Character>>();
+		transitions.add(new SFAInputMove<CharPred, Character>(5, 7, new CharPred('b')));
+		transitions.add(new SFAInputMove<CharPred, Character>(5, 7, new CharPred('b')));
+		transitions.add(new SFAInputMove<CharPred, Character>(7, 3, new CharPred('c')));
+		List<Integer> finStates = new LinkedList<Integer>();
+		finStates.add(3);
+		SFA<CharPred, Character> mySFA04Copy = SFA.MkSFA(transitions, 5, finStates, ba, false, false);
+
+		assertTrue(FinitizationCache.fingerprint(mySFA04, ba).equals(FinitizationCache.fingerprint(mySFA04Copy, ba)));
+		assertTrue(!FinitizationCache.fingerprint(mySFA04, ba).equals(FinitizationCache.fingerprint(mySFA05, ba)));
+
+		FinitizationCache cache = new FinitizationCache(1);
+		FinitizationCache.Finitization finitization = cache.get(mySFA03, mySFA04, null, ba);
+		assertTrue(cache.get(mySFA03, mySFA04Copy, null, ba) == finitization);
+		assertTrue(cache.getHits() == 1 && cache.getMisses() == 1);
+
+		/* capacity 1, so the first entry is evicted */
+		cache.get(mySFA03, mySFA05, null, ba);
+		assertTrue(cache.size() == 1 && cache.get(mySFA03, mySFA04, null, ba) != finitization);
+	}
+
+	/* the cached finitization, from the minterm signatures, agrees with the one of the library */
+	static void finitizationTest() throws TimeoutException {
+		/* [a-z] then [0-9], and [a-c] then [5-9] */
+		List<SFAMove<CharPred, Character>> transitions1 = new LinkedList<SFAMove<CharPred, Character>>();
+		transitions1.add(new SFAInputMove<CharPred, Character>(0, 1, new CharPred('a', 'z')));
+		transitions1.add(new SFAInputMove<CharPred, Character>(1, 2, new CharPred('0', '9')));
+		List<SFAMove<CharPred, Character>> transitions2 = new LinkedList<SFAMove<CharPred, Character>>();
+		transitions2.add(new SFAInputMove<CharPred, Character>(0, 1, new CharPred('a', 'c')));
+		transitions2.add(new SFAInputMove<CharPred, Character>(1, 2, new CharPred('5', '9')));
+		List<Integer> finStates = new LinkedList<Integer>();
+		finStates.add(2);
+		SFA<CharPred, Character> aut1 = SFA.MkSFA(transitions1, 0, finStates, ba);
+		SFA<CharPred, Character> aut2 = SFA.MkSFA(transitions2, 0, finStates, ba);
+		
+		FinitizationCache.Finitization finitization = new FinitizationCache(1).get(aut1, aut2, null, ba);
+		Triple<SFA<CharPred, Character>, SFA<CharPred, Character>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> library = 
+				SFA.MkFiniteSFA(aut1, aut2, ba);
+		
+		Set<String> minterms = new HashSet<String>();
+		for (Pair<CharPred, ArrayList<Integer>> minterm : finitization.idToMinterm.values()) {
+			minterms.add(minterm.first.toString());
+		}
+		Set<String> libraryMinterms = new HashSet<String>();
+		for (Pair<CharPred, ArrayList<Integer>> minterm : library.third.values()) {
+			libraryMinterms.add(minterm.first.toString());
+		}
+		
+		assertTrue(minterms.equals(libraryMinterms));
+		assertTrue(finitization.sourceFinite.getTransitionCount() == library.first.getTransitionCount());
+		assertTrue(finitization.targetFinite.getTransitionCount() == library.second.getTransitionCount());
+	}
+
+	static void contextPoolTest() throws InterruptedException {
+		ContextPool pool = new ContextPool(2, 2);
+
+		Context ctx1 = pool.acquire();
+		Context ctx2 = pool.acquire();
+		assertTrue(ctx1 != ctx2 && pool.getLive() == 2 && pool.getIdle() == 0);
+
+		/* released contexts are reused until they have been used maxUses times */
+		pool.release(ctx1);
+		assertTrue(pool.acquire() == ctx1 && pool.getReused() == 1);
+		pool.release(ctx1);
+		assertTrue(pool.getLive() == 1 && pool.getIdle() == 0);
+
+		pool.discard(ctx2);
+		assertTrue(pool.getLive() == 0 && pool.getDiscarded() == 1);
+
+		Context ctx3 = pool.acquire();
+		assertTrue(ctx3 != ctx1 && ctx3 != ctx2 && pool.getCreated() == 3 && pool.getAcquired() == 4);
+
+		pool.close();
+		pool.release(ctx3);
+		assertTrue(pool.getLive() == 0);
+	}
+
+	public static void main(String[] args) throws TimeoutException, InterruptedException {
+		HashMap<String, String> cfg = new HashMap<String, String>();
+        cfg.put("model", "true");
+        Context ctx = new Context(cfg);
+
+        mkSFAs();
+
+        outputPositionBandTest();
+        bitWidthTest();
+        longExampleTest(ctx);
+        termCacheTest(ctx);
+        funcValuesTest(ctx);
+        exampleConstraintsTest(ctx);
+        lookaheadTypeConstraintsTest(ctx);
+        lookaheadExampleDepthTest(ctx);
+        symmetryBreakingTest(ctx);
+        finitizationCacheTest();
+        finitizationTest();
+        contextPoolTest();
+	}
+
+}
@@ -12,6 +12,7 @@ import java.util.Set;
 import org.sat4j.specs.TimeoutException;
 
 import com.microsoft.z3.Context;
+import com.microsoft.z3.Status;
 
 import automata.SFAOperations;
 import automata.SFTOperations;
@@ -22,7 +23,9 @@ import theory.characters.CharFunc;
 import theory.characters.CharPred;
 import theory.intervals.UnaryCharIntervalSolver;
 import transducers.sft.SFT;
+import transducers.sft.SFTMove;
 import utilities.Pair;
+import utilities.Triple;
 
 public class ConstraintsTest {
 	
@@ -346,6 +349,190 @@ public class ConstraintsTest {
         System.out.println(synthSFT.toDotString(ba));
 	}
 	
+	/* ab --> bc needs at least one edit per transition */
+	static void minimalRepairTest(Context ctx) throws TimeoutException {
+		Set<Character> alphabetSet = new HashSet<Character>();
+		alphabetSet.addAll(SFAOperations.alphabetSet(mySFA03, ba));
+		alphabetSet.addAll(SFAOperations.alphabetSet(mySFA04, ba));
+		HashMap<Character, Integer> alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
+		
+		SFA<CharPred, Character> mySFA04Total = SFAOperations.mkTotalFinite(mySFA04, alphabetSet, ba);
+		
+		int[] upperBound = new int[] {5, 1};
+		List<Pair<String, String>> empty = new ArrayList<Pair<String, String>>();
+		ConstraintsSolver c = new ConstraintsSolver(ctx, mySFA03, mySFA04Total, alphabetMap, 2, 2, empty, 
+				"bounded", upperBound, null, null, null, null, null, ba);
+		SFT<CharPred, CharFunc, Character> mySFT = c.mkConstraintsMinimal(null, false).first;
+		System.out.println(mySFT.toDotString(ba));
+		
+		assertTrue(c.getMinimalDistance() == 2);
+		assertTrue(c.isMinimalProven());
+		assertTrue(SFTOperations.getOutputString(mySFT, "ab").equals("bc"));
+		
+		/* an UNKNOWN check proves nothing */
+		ConstraintsSolver limited = new ConstraintsSolver(ctx, mySFA03, mySFA04Total, alphabetMap, 2, 2, empty, 
+				"bounded", upperBound, null, null, null, null, null, ba);
+		limited.setRlimit(1);
+		limited.mkConstraintsMinimal(null, false);
+		assertTrue(limited.getStatus() == Status.UNKNOWN);
+		assertTrue(!limited.isMinimalProven());
+	}
+	
+	/* three distinct solutions for ab --> bc from the same solver */
+	static void solutionsTest(Context ctx) throws TimeoutException {
+		Set<Character> alphabetSet = new HashSet<Character>();
+		alphabetSet.addAll(SFAOperations.alphabetSet(mySFA03, ba));
+		alphabetSet.addAll(SFAOperations.alphabetSet(mySFA04, ba));
+		HashMap<Character, Integer> alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
+		
+		SFA<CharPred, Character> mySFA04Total = SFAOperations.mkTotalFinite(mySFA04, alphabetSet, ba);
+		
+		int[] fraction = new int[] {1, 1};
+		List<Pair<String, String>> empty = new ArrayList<Pair<String, String>>();
+		ConstraintsSolver c = new ConstraintsSolver(ctx, mySFA03, mySFA04Total, alphabetMap, 2, 2, empty, 
+				"mean", fraction, null, null, null, null, null, ba);
+		List<Pair<SFT<CharPred, CharFunc, Character>, Long>> solutions = c.mkSolutions(3, null, false);
+		
+		assertTrue(solutions.size() == 3);
+		Set<String> distinct = new HashSet<String>();
+		for (Pair<SFT<CharPred, CharFunc, Character>, Long> solution : solutions) {
+			assertTrue(SFTOperations.getOutputString(solution.first, "ab").equals("bc"));
+			distinct.add(solution.first.toDotString(ba));
+		}
+		assertTrue(distinct.size() == 3);
+	}
+	
+	/* 
+	 * the incremental solver agrees with a fresh one on every (numStates, outputBound), including after numStates 
+	 * decreases (the bound of the larger size is retracted) and after the bit width grows (the solver is reset)
+	 */
+	static void incrementalTest(Context ctx) throws TimeoutException {
+		Set<Character> alphabetSet = new HashSet<Character>();
+		alphabetSet.addAll(SFAOperations.alphabetSet(mySFA03, ba));
+		alphabetSet.addAll(SFAOperations.alphabetSet(mySFA04, ba));
+		HashMap<Character, Integer> alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
+		
+		SFA<CharPred, Character> mySFA04Total = SFAOperations.mkTotalFinite(mySFA04, alphabetSet, ba);
+		
+		int[] fraction = new int[] {1, 1};
+		List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+		examples.add(new Pair<String, String>("ab", "bc"));
+		ConstraintsSolver incremental = new ConstraintsSolver(ctx, mySFA03, mySFA04Total, alphabetMap, 1, 1, examples, 
+				"mean", fraction, null, null, null, null, null, ba);
+		assertTrue(incremental.computeBitWidth(3, 3) > incremental.computeBitWidth(1, 1));
+		
+		int[][] sizes = new int[][] { {1, 1}, {2, 1}, {1, 1}, {2, 2}, {3, 3}, {1, 2} };
+		for (int[] size : sizes) {
+			SFT<CharPred, CharFunc, Character> incrementalSFT = incremental.mkConstraintsIncremental(size[0], size[1], false).first;
+			
+			ConstraintsSolver fresh = new ConstraintsSolver(ctx, mySFA03, mySFA04Total, alphabetMap, size[0], size[1], examples, 
+					"mean", fraction, null, null, null, null, null, ba);
+			SFT<CharPred, CharFunc, Character> freshSFT = fresh.mkConstraints(null, false).first;
+			
+			assertTrue(incremental.getStatus() == fresh.getStatus());
+			assertTrue((incrementalSFT.getTransitions().size() == 0) == (freshSFT.getTransitions().size() == 0));
+			if (incrementalSFT.getTransitions().size() > 0) {
+				assertTrue(SFTOperations.getOutputString(incrementalSFT, "ab").equals("bc"));
+				assertTrue(SFTOperations.getOutputString(freshSFT, "ab").equals("bc"));
+				for (Integer state : incrementalSFT.getStates()) {
+					assertTrue(state < size[0]);
+				}
+			}
+		}
+	}
+	
+	/* 
+	 * the portfolio returns the cheapest SAT configuration, the one found by solving the configurations in order, and 
+	 * a configuration that crashed before a SAT one is not taken as UNSAT
+	 */
+	@SuppressWarnings("unchecked")
+	static void portfolioTest(Context ctx) throws TimeoutException {
+		List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+		examples.add(new Pair<String, String>("ab", "bc"));
+		List<int[]> fractions = new ArrayList<int[]>();
+		fractions.add(new int[] {1, 1});
+		List<Triple<Integer, Integer, int[]>> configs = Driver.portfolioConfigs(2, 2, fractions);
+		
+		FinitizationCache.Finitization finitization = FinitizationCache.mkFinitization(mySFA03, mySFA04, null, ba);
+		List<Pair<String, String>> examplesFinite = Driver.finitizeExamples(examples, finitization.idToMinterm);
+		int expected = -1;
+		SFT<CharPred, CharFunc, Character> sat = null;
+		for (int i = 0; i < configs.size() && expected == -1; i++) {
+			Triple<Integer, Integer, int[]> config = configs.get(i);
+			ConstraintsSolver c = new ConstraintsSolver(ctx, finitization.sourceFinite, finitization.targetTotal, finitization.alphabetMap, 
+					config.first, config.second, examplesFinite, "mean", config.third, null, null, null, finitization.idToMinterm, null, ba);
+			SFT<CharPred, CharFunc, Character> mySFT = c.mkConstraints(null, false).first;
+			if (mySFT.getTransitions().size() != 0) {
+				expected = i;
+				sat = mySFT;
+			}
+		}
+		assertTrue(expected != -1);
+		
+		Pair<SFT<CharPred, CharFunc, Character>, Triple<Integer, Integer, int[]>> result = Driver.runPortfolio(mySFA03, mySFA04, examples, configs, 2, 60);
+		assertTrue(result != null);
+		assertTrue(configs.indexOf(result.second) == expected);
+		
+		SFT<CharPred, CharFunc, Character> unsat = SFT.MkSFT(new HashSet<SFTMove<CharPred, CharFunc, Character>>(), 0, 
+				new HashMap<Integer, Set<List<Character>>>(), ba);
+		SFT<CharPred, CharFunc, Character>[] results = new SFT[] { unsat, sat };
+		assertTrue(Driver.cheapestSat(new boolean[] {true, true}, new boolean[] {false, false}, results) == 1);
+		assertTrue(Driver.cheapestSat(new boolean[] {false, true}, new boolean[] {false, false}, results) == -1);
+		
+		/* crashed: finished without an answer */
+		results = new SFT[] { null, sat };
+		assertTrue(Driver.cheapestSat(new boolean[] {true, true}, new boolean[] {true, false}, results) == 2);
+	}
+	
+	/* a check that runs out of resources is UNKNOWN and gives no transducer, instead of looking UNSAT */
+	static void limitsTest(Context ctx) throws TimeoutException {
+		Set<Character> alphabetSet = new HashSet<Character>();
+		alphabetSet.addAll(SFAOperations.alphabetSet(mySFA03, ba));
+		alphabetSet.addAll(SFAOperations.alphabetSet(mySFA04, ba));
+		HashMap<Character, Integer> alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
+		
+		SFA<CharPred, Character> mySFA04Total = SFAOperations.mkTotalFinite(mySFA04, alphabetSet, ba);
+		
+		int[] fraction = new int[] {1, 1};
+		List<Pair<String, String>> empty = new ArrayList<Pair<String, String>>();
+		ConstraintsSolver c = new ConstraintsSolver(ctx, mySFA03, mySFA04Total, alphabetMap, 2, 2, empty, 
+				"mean", fraction, null, null, null, null, null, ba);
+		c.setRlimit(1);
+		SFT<CharPred, CharFunc, Character> mySFT = c.mkConstraints(null, false).first;
+		
+		assertTrue(c.getStatus() == Status.UNKNOWN);
+		assertTrue(mySFT.getTransitions().size() == 0);
+	}
+	
+	/* the SAT backend solves the example and type constraints without a Z3 context */
+	static void satBackendTest() throws TimeoutException {
+		Set<Character> alphabetSet = new HashSet<Character>();
+		alphabetSet.addAll(SFAOperations.alphabetSet(mySFA03, ba));
+		alphabetSet.addAll(SFAOperations.alphabetSet(mySFA04, ba));
+		HashMap<Character, Integer> alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
+		
+		SFA<CharPred, Character> mySFA04Total = SFAOperations.mkTotalFinite(mySFA04, alphabetSet, ba);
+		
+		List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+		examples.add(new Pair<String, String>("ab", "bc"));
+		ArrayList<Boolean> config = new ArrayList<Boolean>();
+		config.add(true); 	// examples
+		config.add(true); 	// types
+		config.add(false); 	// distance
+		config.add(false); 	// symmetry breaking
+		ConstraintsSolver c = new ConstraintsSolver(null, mySFA03, mySFA04Total, alphabetMap, 2, 2, examples, 
+				"mean", null, null, null, null, null, config, ba);
+		c.setBackend(ConstraintsSolver.SAT);
+		SFT<CharPred, CharFunc, Character> mySFT = c.mkConstraints(null, false).first;
+		
+		assertTrue(c.getStatus() == Status.SATISFIABLE);
+		assertTrue(c.getReasonUnknown() == null); 	// from the SAT backend, there is no Z3 solver
+		assertTrue(SFTOperations.getOutputString(mySFT, "ab").equals("bc"));
+		
+		SFT<CharPred, CharFunc, Character> next = c.mkNextSolution(mySFT, false).first;
+		assertTrue(next.getTransitions().size() == 0 || !next.toDotString(ba).equals(mySFT.toDotString(ba)));
+	}
+	
 	public static void main(String[] args) throws TimeoutException {
 		HashMap<String, String> cfg = new HashMap<String, String>();
         cfg.put("model", "true");
@@ -362,6 +549,12 @@ public class ConstraintsTest {
         constraintsTest7(ctx);
         // constraintsTest8(ctx);
         // constraintsTest9(ctx);
+        incrementalTest(ctx);
+        minimalRepairTest(ctx);
+        solutionsTest(ctx);
+        portfolioTest(ctx);
+        limitsTest(ctx);
+        satBackendTest();
 	}
 	
 }